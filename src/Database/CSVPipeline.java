@@ -0,0 +1,581 @@
+package Database;
+
+import Network.CreateNetworkData;
+import Network.NetworkData;
+import Network.NetworkDataFile;
+import Utils.DBUtils;
+import com.opencsv.CSVReader;
+
+import java.io.IOException;
+import java.util.*;
+
+/**
+ * Class which prepares the training and test sets straight from the
+ * CSV files, without the database. It carries out the same steps as
+ * CleanDatabase, StandardiseNonNumeric, Normalise and FinaliseDatabase,
+ * but on rows held in memory, so the whole pipeline is one pass over
+ * the files rather than a round trip to the database for every step.
+ *
+ * -> each row is cut down to KEPT_COLUMNS as it is read (deleteUnneededColumns)
+ * -> the RowStages then run on it in turn, and any stage can remove it:
+ *    removeLowerRankedPlayers, removeBlankValues, removeApostrophes,
+ *    unseeded and a check that the numeric columns are numbers
+ * -> once every year has been read, each distinct non-numeric value is
+ *    given its float from a CategoryDictionary (standardiseIndividualCol/
+ *    standardiseWinnerLoserCol)
+ *    and the min and max of each numeric column are found (normaliseValues/
+ *    normaliseWinnerLoser)
+ * -> every row is then encoded, scaled and added to the training or test
+ *    set by its year (addTestData)
+ *
+ * @author Alex Kelly
+ */
+public class CSVPipeline {
+
+    //columns left after CleanDatabase.deleteUnneededColumns, the only ones kept in memory
+    public static final String[] KEPT_COLUMNS = new String[]{"tourney_name", "surface", "draw_size",
+            "tourney_level", "winner_id", "winner_seed", "winner_hand", "winner_ht", "winner_ioc", "winner_rank",
+            "loser_id", "loser_seed", "loser_hand", "loser_ht", "loser_ioc", "loser_rank", "best_of", "round", "year"};
+
+    //players ranked below this are removed
+    private static final int TOP_RANKS = 50;
+    //seed given to unseeded players, see Normalise.unseeded
+    private static final String UNSEEDED = "40";
+    //years that make up the test set
+    private static final List<String> TEST_YEARS = Arrays.asList("2017", "2018");
+    //years left out of both sets, the same as FinaliseDatabase, so both pipelines give the same sets
+    private static final List<String> UNUSED_YEARS = Collections.singletonList("2016");
+
+    //position of each column in KEPT_COLUMNS, looked up for every value so found once
+    private static final Map<String, Integer> COLUMN_INDEX = new HashMap<>();
+    //columns scaled as numbers, the rest are given arbitrary values
+    private static final Set<String> NUMERIC_COLUMNS = new HashSet<>(Arrays.asList(DBUtils.updateColTypeCols()));
+    //columns that can't be blank
+    private static final String[] NOT_BLANK_COLUMNS = DBUtils.removeBlankValCols();
+
+    static {
+        for (int i = 0; i < KEPT_COLUMNS.length; i++) {
+            COLUMN_INDEX.put(KEPT_COLUMNS[i], i);
+        }
+    }
+
+    private final String csvDirectory;
+
+    //stages each row is run through, in order, and the rows each has removed
+    private final Map<String, RowStage> stages = new LinkedHashMap<>();
+    private final Map<String, Integer> removed = new LinkedHashMap<>();
+
+    //dictionary of each non-numeric column, keyed by column (winner/loser columns share one)
+    private final Map<String, CategoryDictionary> dictionaries = new HashMap<>();
+    //min at position 0 and max at position 1, keyed by column (winner/loser columns share one)
+    private final Map<String, float[]> ranges = new HashMap<>();
+
+    private NetworkData trainingSet;
+    private NetworkData testSet;
+
+    /**
+     * CONSTRUCTOR
+     *
+     * Reads from the same directory as ReadFiles.
+     */
+    public CSVPipeline() {
+        this(ReadFiles.DEFAULT_CSV_DIRECTORY);
+    }
+
+    /**
+     * CONSTRUCTOR
+     *
+     * @param csvDirectory directory holding the atp_matches_<year>.csv files
+     */
+    public CSVPipeline(String csvDirectory) {
+
+        this.csvDirectory = csvDirectory;
+
+        addStage("removeLowerRankedPlayers", this::removeLowerRankedPlayers);
+        addStage("removeBlankValues", this::removeBlankValues);
+        addStage("removeApostrophes", this::removeApostrophes);
+        addStage("unseeded", this::unseeded);
+        addStage("removeNonNumeric", this::removeNonNumeric);
+    }
+
+    /**
+     * Method for adding a stage to the end of the pipeline, e.g. an
+     * extra filter on the rows.
+     *
+     * @param name name the stage's removed rows are reported under
+     * @param stage the stage
+     */
+    public void addStage(String name, RowStage stage) {
+
+        stages.put(name, stage);
+        removed.put(name, 0);
+    }
+
+    /**
+     * Method for starting a column from an existing dictionary, e.g.
+     * one loaded with CategoryDictionary.load, so values it already has
+     * keep their float and the sets match a network trained before.
+     *
+     * @param colName the column, or "hand"/"ioc" for the winner and loser columns
+     * @param dictionary the dictionary
+     */
+    public void setDictionary(String colName, CategoryDictionary dictionary) {
+
+        dictionaries.put(colName, dictionary);
+    }
+
+    /**
+     * Method that returns the dictionary of a column once the pipeline
+     * has been run, e.g. so it can be saved.
+     *
+     * @param colName the column, or "hand"/"ioc" for the winner and loser columns
+     * @return the dictionary, or null if the column has none
+     */
+    public CategoryDictionary getDictionary(String colName) {
+
+        return dictionaries.get(colName);
+    }
+
+    /**
+     * Method for running the pipeline over every year's file and
+     * creating the training and test sets.
+     *
+     * @return true if every file was read
+     */
+    public boolean run() {
+
+        return run(DBUtils.createTestDataYears());
+    }
+
+    /**
+     * Method for running the pipeline over the given years' files and
+     * creating the training and test sets.
+     *
+     * @param years the years of the results to be read in
+     * @return true if every file was read
+     */
+    public boolean run(int[] years) {
+
+        List<String[]> rows = new ArrayList<>();
+        boolean allRead = true;
+
+        for (int year : years) {
+            try {
+                readCSVYear(year, rows);
+            } catch (IOException e) {
+                System.err.println("Error reading results for year " + year + ": " + e);
+                e.printStackTrace();
+                allRead = false;
+            }
+        }
+        System.out.println("rows removed by each stage -> " + removed);
+
+        fit(rows);
+
+        trainingSet = new NetworkData(CreateNetworkData.INPUT_COLUMNS.length,
+                CreateNetworkData.OUTPUT_COLUMNS.length, rows.size());
+        testSet = new NetworkData(trainingSet.getInputSize(), trainingSet.getOutputSize());
+        float[] input = new float[trainingSet.getInputSize()];
+        float[] output = new float[trainingSet.getOutputSize()];
+
+        for (String[] row : rows) {
+            String year = row[col("year")];
+            if (UNUSED_YEARS.contains(year)) {
+                continue;
+            }
+            encode(row, input, output);
+            (TEST_YEARS.contains(year) ? testSet : trainingSet).addNetworkData(input, output);
+        }
+        trainingSet.trimToSize();
+        testSet.trimToSize();
+
+        System.out.println("training set created (" + trainingSet.getSize() + " rows), test set created (" +
+                testSet.getSize() + " rows)");
+        return allRead;
+    }
+
+    /**
+     * Method to read in one year's file, cutting each row down to
+     * KEPT_COLUMNS and running it through the stages. Rows that get
+     * through every stage are added to the list.
+     *
+     * @param year the year of the results to be read in
+     * @param rows list the cleaned rows are added to
+     * @return the number of rows added
+     * @throws IOException the file could not be read
+     */
+    public int readCSVYear(int year, List<String[]> rows) throws IOException {
+
+        return readCSVFile(csvDirectory + "atp_matches_" + year + ".csv", rows);
+    }
+
+    /**
+     * Method to read in any file with the same headings as the yearly
+     * files, e.g. a new week's results, cutting each row down to
+     * KEPT_COLUMNS and running it through the stages.
+     *
+     * @param csvFile the file to read
+     * @param rows list the cleaned rows are added to
+     * @return the number of rows added
+     * @throws IOException the file could not be read
+     */
+    public int readCSVFile(String csvFile, List<String[]> rows) throws IOException {
+
+        try (CSVReader reader = new CSVReader(ReadFiles.openCSV(csvFile), ',')) {
+
+            String[] headings = reader.readNext();
+            if (headings == null) {
+                throw new IOException("no headings in " + csvFile);
+            }
+            int[] kept = keptIndexes(headings, csvFile);
+
+            String[] line;
+            int added = 0;
+            while ((line = reader.readNext()) != null) {
+                if (line.length != headings.length) {
+                    continue; //malformed line, would shift every column after it
+                }
+                String[] row = new String[KEPT_COLUMNS.length];
+                for (int i = 0; i < kept.length; i++) {
+                    row[i] = line[kept[i]].trim();
+                }
+                if (clean(row)) {
+                    rows.add(row);
+                    added++;
+                }
+            }
+            System.out.println("Data from " + csvFile + " read (" + added + " rows kept)");
+            return added;
+        }
+    }
+
+    /**
+     * Helper method which finds where each of KEPT_COLUMNS is in a file.
+     */
+    private static int[] keptIndexes(String[] headings, String csvFile) throws IOException {
+
+        List<String> headingList = new ArrayList<>();
+        for (String heading : headings) {
+            headingList.add(heading.trim());
+        }
+
+        int[] kept = new int[KEPT_COLUMNS.length];
+        for (int i = 0; i < KEPT_COLUMNS.length; i++) {
+            kept[i] = headingList.indexOf(KEPT_COLUMNS[i]);
+            if (kept[i] < 0) {
+                throw new IOException("column " + KEPT_COLUMNS[i] + " missing from " + csvFile);
+            }
+        }
+        return kept;
+    }
+
+    /**
+     * Method which runs one row through every stage.
+     *
+     * @param row the row, in the order of KEPT_COLUMNS
+     * @return true if the row got through every stage
+     */
+    public boolean clean(String[] row) {
+
+        for (Map.Entry<String, RowStage> stage : stages.entrySet()) {
+            if (!stage.getValue().apply(row)) {
+                removed.merge(stage.getKey(), 1, Integer::sum);
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Stage that removes rows with a blank or non-integer rank, or
+     * where either player is ranked below TOP_RANKS.
+     */
+    private boolean removeLowerRankedPlayers(String[] row) {
+
+        try {
+            return Integer.parseInt(row[col("winner_rank")]) <= TOP_RANKS
+                    && Integer.parseInt(row[col("loser_rank")]) <= TOP_RANKS;
+        } catch (NumberFormatException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Stage that removes rows with a blank value in any column but
+     * the seeds.
+     */
+    private boolean removeBlankValues(String[] row) {
+
+        for (String colName : NOT_BLANK_COLUMNS) {
+            if (row[col(colName)].isEmpty()) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Stage that removes the apostrophes from tourney names, so both
+     * spellings of a tournament are given the same value.
+     */
+    private boolean removeApostrophes(String[] row) {
+
+        String name = row[col("tourney_name")];
+        if (name.matches("Queen.s Club")) {
+            row[col("tourney_name")] = "Queens Club";
+        } else if (name.matches(".S-Hertogenbosch")) {
+            row[col("tourney_name")] = "S-Hertogenbosch";
+        }
+        return true;
+    }
+
+    /**
+     * Stage that gives unseeded players the seed UNSEEDED.
+     */
+    private boolean unseeded(String[] row) {
+
+        if (row[col("winner_seed")].isEmpty()) {
+            row[col("winner_seed")] = UNSEEDED;
+        }
+        if (row[col("loser_seed")].isEmpty()) {
+            row[col("loser_seed")] = UNSEEDED;
+        }
+        return true;
+    }
+
+    /**
+     * Stage that removes rows whose numeric columns can't be read as
+     * numbers, which would otherwise stop Normalise.updateColType.
+     */
+    private boolean removeNonNumeric(String[] row) {
+
+        try {
+            for (String colName : NUMERIC_COLUMNS) {
+                Float.parseFloat(row[col(colName)]);
+            }
+            return true;
+        } catch (NumberFormatException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Method which adds each distinct non-numeric value to its column's
+     * dictionary, in sorted order so clashes are settled the same way on
+     * every run, and finds the min and max of each numeric column, over
+     * every row (training and test), the same as the database steps.
+     *
+     * @param rows the cleaned rows
+     */
+    public void fit(List<String[]> rows) {
+
+        ranges.clear();
+        for (String[] row : rows) {
+            for (String colName : NUMERIC_COLUMNS) {
+                float value = Float.parseFloat(row[col(colName)]);
+                float[] range = ranges.computeIfAbsent(sharedKey(colName), k -> new float[]{value, value});
+                range[0] = Math.min(range[0], value);
+                range[1] = Math.max(range[1], value);
+            }
+        }
+        addToDictionaries(rows);
+    }
+
+    /**
+     * Method which adds any non-numeric values the dictionaries don't
+     * have yet, without changing those they do, e.g. for new rows being
+     * added to a set that has already been created.
+     *
+     * @param rows the cleaned rows
+     */
+    public void addToDictionaries(List<String[]> rows) {
+
+        Map<String, Set<String>> distinct = new HashMap<>();
+        for (String[] row : rows) {
+            for (String colName : CreateNetworkData.INPUT_COLUMNS) {
+                if (!isNumeric(colName)) {
+                    distinct.computeIfAbsent(sharedKey(colName), k -> new TreeSet<>()).add(row[col(colName)]);
+                }
+            }
+        }
+
+        for (Map.Entry<String, Set<String>> values : distinct.entrySet()) {
+            CategoryDictionary dictionary = dictionaries.computeIfAbsent(values.getKey(), CategoryDictionary::new);
+            for (String value : values.getValue()) {
+                dictionary.encode(value);
+            }
+        }
+    }
+
+    /**
+     * Method for setting the range a numeric column is scaled from,
+     * e.g. the one saved when the set was first created, so new rows
+     * are scaled the same way as the old.
+     *
+     * @param colName the column, or "rank"/"seed"/"ht" for the winner and loser columns
+     * @param min value scaled to 0
+     * @param max value scaled to 1
+     */
+    public void setRange(String colName, float min, float max) {
+
+        ranges.put(colName, new float[]{min, max});
+    }
+
+    /**
+     * Method which encodes and scales cleaned rows into a new set.
+     *
+     * @param rows the cleaned rows
+     * @return the set, one row per cleaned row
+     */
+    public NetworkData encodeRows(List<String[]> rows) {
+
+        NetworkData set = new NetworkData(CreateNetworkData.INPUT_COLUMNS.length,
+                CreateNetworkData.OUTPUT_COLUMNS.length, rows.size());
+        float[] input = new float[set.getInputSize()];
+        float[] output = new float[set.getOutputSize()];
+
+        for (String[] row : rows) {
+            encode(row, input, output);
+            set.addNetworkData(input, output);
+        }
+        return set;
+    }
+
+    /**
+     * Method which encodes and scales one cleaned row into the network's
+     * input and expected output, in the order of CreateNetworkData's
+     * columns.
+     *
+     * @param row the cleaned row
+     * @param input array the inputs are written to
+     * @param output array the expected outputs are written to
+     * @throws IllegalArgumentException the row has a value fit didn't see
+     */
+    public void encode(String[] row, float[] input, float[] output) {
+
+        String[] inputCols = CreateNetworkData.INPUT_COLUMNS;
+        for (int i = 0; i < inputCols.length; i++) {
+            String key = sharedKey(inputCols[i]);
+            String value = row[col(inputCols[i])];
+
+            if (isNumeric(inputCols[i])) {
+                float[] range = ranges.get(key);
+                if (range == null) {
+                    throw new IllegalArgumentException("no range found for column " + inputCols[i]);
+                }
+                //a column with only one value is scaled to 0 rather than divided by 0
+                float spread = range[1] - range[0];
+                input[i] = spread == 0 ? 0 : (Float.parseFloat(value) - range[0]) / spread;
+            } else {
+                CategoryDictionary dictionary = dictionaries.get(key);
+                Float encoded = dictionary == null ? null : dictionary.lookup(value);
+                if (encoded == null) {
+                    throw new IllegalArgumentException("no value found for " + inputCols[i] + " '" + value + "'");
+                }
+                input[i] = encoded;
+            }
+        }
+
+        //if winner rank is less than loser rank it means the better ranked player won
+        boolean betterRankWon = Integer.parseInt(row[col("winner_rank")]) < Integer.parseInt(row[col("loser_rank")]);
+        output[0] = betterRankWon ? 1 : 0;
+        output[1] = betterRankWon ? 0 : 1;
+    }
+
+    /**
+     * Method for saving both sets to NetworkDataFiles, along with the
+     * range each numeric column was scaled from.
+     *
+     * @param trainingFile file to save the training set to
+     * @param testFile file to save the test set to
+     * @return true if both sets were saved
+     */
+    public boolean writeSets(String trainingFile, String testFile) {
+
+        String[] cols = CreateNetworkData.INPUT_COLUMNS;
+        return NetworkDataFile.write(trainingSet, cols, getColumnMin(), getColumnMax(), trainingFile)
+                && NetworkDataFile.write(testSet, cols, getColumnMin(), getColumnMax(), testFile);
+    }
+
+    /**
+     * Method that returns the value each input column's 0 was scaled
+     * from, NaN for the non-numeric columns.
+     *
+     * @return min of each input column
+     */
+    public float[] getColumnMin() {
+
+        return columnRange(0);
+    }
+
+    /**
+     * Method that returns the value each input column's 1 was scaled
+     * from, NaN for the non-numeric columns.
+     *
+     * @return max of each input column
+     */
+    public float[] getColumnMax() {
+
+        return columnRange(1);
+    }
+
+    /**
+     * Helper method which returns the min (0) or max (1) of each input column.
+     */
+    private float[] columnRange(int index) {
+
+        String[] inputCols = CreateNetworkData.INPUT_COLUMNS;
+        float[] values = new float[inputCols.length];
+        for (int i = 0; i < inputCols.length; i++) {
+            float[] range = ranges.get(sharedKey(inputCols[i]));
+            values[i] = range == null ? Float.NaN : range[index];
+        }
+        return values;
+    }
+
+    public NetworkData getTrainingSet() {
+        return trainingSet;
+    }
+
+    public NetworkData getTestSet() {
+        return testSet;
+    }
+
+    /**
+     * Helper method which returns the position of a column in KEPT_COLUMNS.
+     */
+    private static int col(String colName) {
+
+        Integer index = COLUMN_INDEX.get(colName);
+        if (index == null) {
+            throw new IllegalArgumentException("invalid col name '" + colName + "', options are " +
+                    Arrays.toString(KEPT_COLUMNS));
+        }
+        return index;
+    }
+
+    /**
+     * Helper method which returns whether a column is scaled as a number
+     * rather than given arbitrary values.
+     */
+    private static boolean isNumeric(String colName) {
+
+        return NUMERIC_COLUMNS.contains(colName);
+    }
+
+    /**
+     * Helper method which returns the name a column's values and range
+     * are stored under: winner_ and loser_ columns share one, e.g. "ht".
+     */
+    private static String sharedKey(String colName) {
+
+        if (colName.startsWith("winner_")) {
+            return colName.substring("winner_".length());
+        }
+        if (colName.startsWith("loser_")) {
+            return colName.substring("loser_".length());
+        }
+        return colName;
+    }
+
+}
@@ -0,0 +1,219 @@
+package Database;
+
+import java.nio.charset.StandardCharsets;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.*;
+
+/**
+ * Class which holds the float value each distinct value of a
+ * non-numeric column is standardised to, e.g. every surface.
+ *
+ * A value's float is worked out from a hash of the value itself
+ * rather than picked at random, so the same value is given the same
+ * float on every run. Dictionaries are saved to the
+ * category_dictionary table, and values already saved keep their
+ * float when new ones are added, so a network trained on one run can
+ * still be given inputs encoded by a later one.
+ *
+ * @author Alex Kelly
+ */
+public class CategoryDictionary {
+
+    //floats are multiples of 1 / 2^24, all exactly representable as a float
+    private static final int HASH_BITS = 24;
+    //FNV-1a 64 bit offset basis and prime
+    private static final long FNV_OFFSET = 0xcbf29ce484222325L;
+    private static final long FNV_PRIME = 0x100000001b3L;
+
+    private final String colName; //column, or winner/loser column pair, the dictionary is for
+    private final Map<String, Float> values = new HashMap<>();
+    private final Set<Float> used = new HashSet<>(); //so two values are never given the same float
+
+    /**
+     * CONSTRUCTOR
+     *
+     * Creates an empty dictionary.
+     *
+     * @param colName the column the dictionary is for, e.g. "surface",
+     *                or "hand" for winner_hand and loser_hand
+     */
+    public CategoryDictionary(String colName) {
+
+        this.colName = colName;
+    }
+
+    /**
+     * Method for returning the float a value is standardised to,
+     * adding the value to the dictionary if it isn't already in it.
+     *
+     * @param value the non-numeric value
+     * @return its float, between 0 and 1
+     */
+    public float encode(String value) {
+
+        Float encoded = values.get(value);
+        if (encoded != null) {
+            return encoded;
+        }
+
+        //on the rare clash with another value the hash is retried with the attempt number mixed in
+        int attempt = 0;
+        float candidate = hash(value, attempt);
+        while (used.contains(candidate)) {
+            candidate = hash(value, ++attempt);
+        }
+        put(value, candidate);
+        return candidate;
+    }
+
+    /**
+     * Method for returning the float a value is standardised to,
+     * without adding it.
+     *
+     * @param value the non-numeric value
+     * @return its float, or null if the value isn't in the dictionary
+     */
+    public Float lookup(String value) {
+
+        return values.get(value);
+    }
+
+    /**
+     * Helper method which adds a value and its float.
+     */
+    private void put(String value, float encoded) {
+
+        values.put(value, encoded);
+        used.add(encoded);
+    }
+
+    /**
+     * Helper method which hashes a value (FNV-1a) to a float between
+     * 0 and 1.
+     *
+     * @param value the non-numeric value
+     * @param attempt number of clashes so far
+     * @return the float for that attempt
+     */
+    private static float hash(String value, int attempt) {
+
+        long hash = FNV_OFFSET;
+        for (byte b : value.getBytes(StandardCharsets.UTF_8)) {
+            hash = (hash ^ (b & 0xff)) * FNV_PRIME;
+        }
+        hash = (hash ^ attempt) * FNV_PRIME;
+        return (hash >>> (Long.SIZE - HASH_BITS)) / (float) (1 << HASH_BITS);
+    }
+
+    public String getColName() {
+        return colName;
+    }
+
+    public int getSize() {
+        return values.size();
+    }
+
+    /**
+     * Method that returns every value and its float.
+     *
+     * @return a read only view of the dictionary
+     */
+    public Map<String, Float> getValues() {
+
+        return Collections.unmodifiableMap(values);
+    }
+
+    /**
+     * Method for loading the saved dictionary of a column, e.g. to
+     * encode new inputs for a trained network.
+     *
+     * @param colName the column the dictionary is for
+     * @return the dictionary, empty if none has been saved or it couldn't be read
+     */
+    public static CategoryDictionary load(String colName) {
+
+        try (Connection conn = ConnectDB.connect()) {
+
+            return load(conn, colName);
+
+        } catch (SQLException e) {
+            System.err.println("Error loading dictionary for " + colName + ": " + e);
+            e.printStackTrace();
+            return new CategoryDictionary(colName);
+        }
+    }
+
+    /**
+     * Method for loading the saved dictionary of a column on an open
+     * connection, e.g. within the transaction that will add to it.
+     *
+     * @param conn the open connection
+     * @param colName the column the dictionary is for
+     * @return the dictionary, empty if none has been saved
+     * @throws SQLException the dictionary couldn't be read
+     */
+    public static CategoryDictionary load(Connection conn, String colName) throws SQLException {
+
+        createTable(conn);
+
+        CategoryDictionary dictionary = new CategoryDictionary(colName);
+        String selectSQL = "SELECT category, encoded_value FROM category_dictionary WHERE col_name = ?;";
+
+        try (PreparedStatement pstmt = conn.prepareStatement(selectSQL)) {
+            pstmt.setString(1, colName);
+            try (ResultSet rs = pstmt.executeQuery()) {
+                while (rs.next()) {
+                    dictionary.put(rs.getString("category"), rs.getFloat("encoded_value"));
+                }
+            }
+        }
+        return dictionary;
+    }
+
+    /**
+     * Method for saving the dictionary on an open connection. Values
+     * already saved are left as they are.
+     *
+     * @param conn the open connection
+     * @throws SQLException the dictionary couldn't be saved
+     */
+    public void save(Connection conn) throws SQLException {
+
+        createTable(conn);
+
+        String insertSQL = "INSERT INTO category_dictionary (col_name, category, encoded_value) VALUES (?, ?, ?) " +
+                "ON CONFLICT (col_name, category) DO NOTHING;";
+
+        try (PreparedStatement pstmt = conn.prepareStatement(insertSQL)) {
+            for (Map.Entry<String, Float> entry : values.entrySet()) {
+                pstmt.setString(1, colName);
+                pstmt.setString(2, entry.getKey());
+                pstmt.setFloat(3, entry.getValue());
+                pstmt.addBatch();
+            }
+            pstmt.executeBatch();
+        }
+    }
+
+    /**
+     * Helper method which creates the category_dictionary table if it
+     * doesn't exist yet.
+     */
+    private static void createTable(Connection conn) throws SQLException {
+
+        String createSQL = "CREATE TABLE IF NOT EXISTS category_dictionary (\n" +
+                "col_name VARCHAR(30),\n" +
+                "category VARCHAR(40),\n" +
+                "encoded_value real NOT NULL,\n" +
+                "PRIMARY KEY (col_name, category)\n" +
+                ");";
+
+        try (PreparedStatement pstmt = conn.prepareStatement(createSQL)) {
+            pstmt.executeUpdate();
+        }
+    }
+
+}
@@ -208,111 +208,51 @@ public class CleanDatabase {
      * ranked player won. In each case the other column will contain
      * a 0.
      *
-     * Method creates the output columns and then takes in each entry
-     * within the training_data table and compares the winner and loser
-     * rank.
+     * Method creates the output columns and then sets both for every
+     * entry within the training_data table in one UPDATE, comparing
+     * the winner and loser rank, all in a single transaction.
      */
     public void createOutputColumns() {
 
-        String rowCountSQL = "SELECT count(*) AS rows FROM training_data;";
-
-        int rowCount = 0;
-
-        try (Connection conn1 = ConnectDB.connect();
-            PreparedStatement psCountRows = conn1.prepareStatement(rowCountSQL);
-            ResultSet rsCountRows = psCountRows.executeQuery()) {
-
-            rsCountRows.next();
-            rowCount = rsCountRows.getInt("rows");
-            System.out.println("row count = " + rowCount);
-        } catch (SQLException e) {
-            System.err.println(e);
-            e.printStackTrace();
-        }
-
-        int counter = 1;
-        int wRank;
-        int lRank;
         //add the two new output columns
-        String addColHigherSQL = "ALTER TABLE training_data ADD COLUMN better_rank_won INTEGER;";
-        String addColLowerSQL = "ALTER TABLE training_data ADD COLUMN worse_rank_won INTEGER;";
+        String addColsSQL = "ALTER TABLE training_data ADD COLUMN better_rank_won INTEGER, " +
+                "ADD COLUMN worse_rank_won INTEGER;";
+        //if winner rank is less than loser rank it means the better ranked player won
+        String updateSQL = "UPDATE training_data SET " +
+                "better_rank_won = CASE WHEN winner_rank < loser_rank THEN 1 ELSE 0 END, " +
+                "worse_rank_won = CASE WHEN winner_rank < loser_rank THEN 0 ELSE 1 END;";
+        String countSQL = "SELECT count(*) AS rows, coalesce(sum(better_rank_won), 0) AS better FROM training_data;";
 
-        try (Connection conn2 = ConnectDB.connect();
-             PreparedStatement psaddCol1 = conn2.prepareStatement(addColHigherSQL);
-             PreparedStatement psaddCol2 = conn2.prepareStatement(addColLowerSQL)) {
+        try (Connection conn = ConnectDB.connect()) {
 
-            psaddCol1.executeUpdate();
+            conn.setAutoCommit(false); //columns and values are added together or not at all
 
-            psaddCol2.executeUpdate();
+            try (PreparedStatement pstmtAdd = conn.prepareStatement(addColsSQL);
+                 PreparedStatement pstmtUpdate = conn.prepareStatement(updateSQL);
+                 PreparedStatement pstmtCount = conn.prepareStatement(countSQL)) {
 
-        } catch (SQLException e) {
-            System.err.println(e);
-            e.printStackTrace();
-        }
+                pstmtAdd.executeUpdate();
+                System.out.println("output columns better_rank_won and worse_rank_won added to training_data");
 
-        while (counter <= rowCount) {
-
-            String selectWRSQL = "SELECT winner_rank FROM training_data WHERE match_id = " + counter + ";";
-            String selectLRSQL = "SELECT loser_rank FROM training_data WHERE match_id = " + counter + ";";
-
-            try (Connection conn3 = ConnectDB.connect();
-                 PreparedStatement pstmtWR = conn3.prepareStatement(selectWRSQL);
-                 ResultSet rsWR = pstmtWR.executeQuery();
-                 PreparedStatement pstmtLR = conn3.prepareStatement(selectLRSQL);
-                 ResultSet rsLR = pstmtLR.executeQuery()) {
-
-                //store winner rank
-                rsWR.next();
-                wRank = rsWR.getInt("winner_rank");
-
-                //store loser rank
-                rsLR.next();
-                lRank = rsLR.getInt("loser_rank");
-
-//                System.out.println("row " + counter + ". winner rank -> " + wRank + " --- loser rank -> " + lRank);
-
-                //if winner rank is less than loser rank it means the better ranked player won
-                if (wRank < lRank) {
-                    String updateColHigherSQL = "UPDATE training_data SET better_rank_won = ? WHERE match_id = " + counter + ";";
-                    String updateColLowerSQL = "UPDATE training_data SET worse_rank_won = ? WHERE match_id = " + counter + ";";
-
-                    try (PreparedStatement pstmt1 = conn3.prepareStatement(updateColHigherSQL);
-                         PreparedStatement pstmt2 = conn3.prepareStatement(updateColLowerSQL)) {
-
-                        pstmt1.setInt(1, 1);
-                        pstmt1.executeUpdate();
-
-                        pstmt2.setInt(1, 0);
-                        pstmt2.executeUpdate();
-                        if (counter % 100 == 0) {
-                            System.out.println("row " + counter + ". better ranked player " + wRank + ", beat worse ranked player " + lRank);
-                        }
-                    }
-                    //otherwise the worse ranked player won
-                } else {
-                    String updateColHigherSQL = "UPDATE training_data SET better_rank_won = ? WHERE match_id = " + counter + ";";
-                    String updateColLowerSQL = "UPDATE training_data SET worse_rank_won = ? WHERE match_id = " + counter + ";";
-
-                    try (PreparedStatement pstmt1 = conn3.prepareStatement(updateColHigherSQL);
-                         PreparedStatement pstmt2 = conn3.prepareStatement(updateColLowerSQL)) {
-
-                        pstmt1.setInt(1, 0);
-                        pstmt1.executeUpdate();
-
-                        pstmt2.setInt(1, 1);
-                        pstmt2.executeUpdate();
-                        if (counter % 100 == 0) {
-                            System.out.println("row " + counter + ". worse ranked player " + wRank + ", beat better ranked player " + lRank);
-                        }
-                    }
-                }
+                int updated = pstmtUpdate.executeUpdate();
+                System.out.println(updated + " rows labelled");
 
-                counter++;
+                try (ResultSet rs = pstmtCount.executeQuery()) {
+                    rs.next();
+                    int better = rs.getInt("better");
+                    System.out.println("better ranked player won " + better + " matches, worse ranked player won " +
+                            (rs.getInt("rows") - better));
+                }
+                conn.commit();
 
             } catch (SQLException e) {
-                System.err.println(e.getMessage());
-                e.printStackTrace();
+                conn.rollback();
+                throw e;
             }
+
+        } catch (SQLException e) {
+            System.err.println("Error creating output columns: " + e.getMessage());
+            e.printStackTrace();
         }
     }
 
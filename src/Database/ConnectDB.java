@@ -1,11 +1,32 @@
 package Database;
 
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Paths;
 import java.sql.*;
+import java.util.Properties;
 
 /**
  * Class that contains variables required and method for connecting
  * to postgresql database. JAR file included in project build path.
  *
+ * Connections come from one PooledDataSource shared by the whole
+ * program. Its settings are read, each one overriding the last, from:
+ * -> the defaults below (there is no default password, so db.password
+ *    must be set by one of the others)
+ * -> a properties file, db.properties in the working directory unless
+ *    the system property db.config names another
+ * -> system properties, e.g. -Ddb.password=...
+ * -> environment variables, the key in capitals with '.' as '_', e.g. DB_PASSWORD
+ *
+ * Settings: db.url, db.user, db.password, db.poolSize,
+ * db.connectionTimeoutMs, db.validateAfterMs, db.validationTimeoutSeconds,
+ * db.prepareThreshold (executions before the driver prepares a statement
+ * on the server) and db.statementCacheSize (prepared statements the
+ * driver keeps per connection).
+ *
  * @author Alex Kelly
  */
 public class ConnectDB {
@@ -13,25 +34,134 @@ public class ConnectDB {
     private final static String DB_NAME = "data";
     private final static String URL = "jdbc:postgresql://localhost:5432/" + DB_NAME;
     private final static String USER = "alex";
-    private final static String  PASSWORD = "password";
+
+    private final static String[] SETTINGS = {"db.url", "db.user", "db.password", "db.poolSize",
+            "db.connectionTimeoutMs", "db.validateAfterMs", "db.validationTimeoutSeconds", "db.prepareThreshold",
+            "db.statementCacheSize"};
+
+    private static PooledDataSource dataSource; //created on first use
+    //connection of the pipeline stage running on each thread, see PipelineRunner
+    private static final ThreadLocal<StageConnection> stageConnection = new ThreadLocal<>();
 
     /**
-     * Method for establishing a connection to the database.
+     * Method for borrowing a connection to the database from the pool.
+     * Closing the connection returns it to the pool. While a
+     * PipelineRunner stage runs on this thread, the stage's shared
+     * connection is returned instead.
      *
      * @return a connection object.
+     * @throws SQLException no connection could be made
+     */
+    public static Connection connect() throws SQLException {
+
+        StageConnection stage = stageConnection.get();
+        if (stage != null) {
+            return stage.view();
+        }
+        return getDataSource().getConnection();
+    }
+
+    /**
+     * Method for setting the stage connection connect returns on this
+     * thread, or null once the stage has finished.
+     *
+     * @param stage the running stage's connection
+     */
+    static void bindStage(StageConnection stage) {
+
+        if (stage == null) {
+            stageConnection.remove();
+        } else {
+            stageConnection.set(stage);
+        }
+    }
+
+    /**
+     * Method that returns the pool every connection comes from, creating
+     * it from the settings the first time.
+     *
+     * @return the shared pool
+     * @throws IllegalStateException no password has been configured
      */
-    public static Connection connect() {
+    public static synchronized PooledDataSource getDataSource() {
+
+        if (dataSource == null) {
+            Properties config = loadConfig();
+            if (config.getProperty("db.password") == null) {
+                throw new IllegalStateException("no database password configured, set db.password in " +
+                        System.getProperty("db.config", "db.properties") + ", as -Ddb.password or as DB_PASSWORD");
+            }
 
-        Connection conn = null;
+            Properties driverProperties = new Properties();
+            driverProperties.setProperty("user", config.getProperty("db.user"));
+            driverProperties.setProperty("password", config.getProperty("db.password"));
+            driverProperties.setProperty("prepareThreshold", config.getProperty("db.prepareThreshold"));
+            driverProperties.setProperty("preparedStatementCacheQueries", config.getProperty("db.statementCacheSize"));
 
-        try {
-            conn = DriverManager.getConnection(URL, USER, PASSWORD);
-//            System.out.println("connection established to " + DB_NAME);
-        } catch (SQLException e) {
-            System.out.println("Error connecting to database: " + e.getMessage());
+            dataSource = new PooledDataSource(config.getProperty("db.url"), driverProperties,
+                    Integer.parseInt(config.getProperty("db.poolSize")),
+                    Integer.parseInt(config.getProperty("db.connectionTimeoutMs")),
+                    Long.parseLong(config.getProperty("db.validateAfterMs")),
+                    Integer.parseInt(config.getProperty("db.validationTimeoutSeconds")));
+            System.out.println("connection pool of " + config.getProperty("db.poolSize") + " created for " +
+                    config.getProperty("db.url"));
         }
+        return dataSource;
+    }
+
+    /**
+     * Method which closes the pool's connections, e.g. once the
+     * database steps have finished. A new pool is created if a
+     * connection is needed again.
+     */
+    public static synchronized void closePool() {
+
+        if (dataSource != null) {
+            dataSource.close();
+            dataSource = null;
+        }
+    }
 
-        return conn;
+    /**
+     * Helper method which reads the settings from the defaults, the
+     * properties file, system properties and environment variables, in
+     * that order.
+     *
+     * @return the settings
+     */
+    private static Properties loadConfig() {
+
+        Properties config = new Properties();
+        config.setProperty("db.url", URL);
+        config.setProperty("db.user", USER);
+        config.setProperty("db.poolSize", String.valueOf(Math.max(4, Runtime.getRuntime().availableProcessors())));
+        config.setProperty("db.connectionTimeoutMs", "30000");
+        config.setProperty("db.validateAfterMs", "10000");
+        config.setProperty("db.validationTimeoutSeconds", "5");
+        config.setProperty("db.prepareThreshold", "1"); //connections are reused, so prepare on first use
+        config.setProperty("db.statementCacheSize", "256");
+
+        String configFile = System.getProperty("db.config", "db.properties");
+        if (Files.exists(Paths.get(configFile))) {
+            try (InputStream in = new FileInputStream(configFile)) {
+                config.load(in);
+            } catch (IOException e) {
+                System.err.println("Error reading database config " + configFile + ": " + e);
+                e.printStackTrace();
+            }
+        }
+
+        for (String setting : SETTINGS) {
+            String value = System.getProperty(setting);
+            if (value != null) {
+                config.setProperty(setting, value);
+            }
+            value = System.getenv(setting.replace('.', '_').toUpperCase());
+            if (value != null) {
+                config.setProperty(setting, value);
+            }
+        }
+        return config;
     }
 
 //    /**
@@ -84,6 +84,45 @@ public class CreateTables {
         }
     }
 
+    /**
+     * Drops the training_data and test_data tables if they exist, so
+     * the pipeline can be rebuilt from the CSV files.
+     */
+    public void dropDataTables() {
+
+        String dropTablesSQL = "DROP TABLE IF EXISTS training_data, test_data;";
+
+        try (Connection conn = ConnectDB.connect();
+             PreparedStatement pstmt = conn.prepareStatement(dropTablesSQL)) {
+
+            pstmt.executeUpdate();
+            System.out.println("training_data and test_data tables dropped");
+
+        } catch (SQLException e) {
+            System.err.println("Error dropping tables: " + e.getMessage());
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * Removes every row from the training_data table, so the CSV files
+     * can be read in again after a load that failed part way.
+     */
+    public void emptyTrainingData() {
+
+        String truncateSQL = "TRUNCATE training_data;";
+
+        try (Connection conn = ConnectDB.connect();
+             PreparedStatement pstmt = conn.prepareStatement(truncateSQL)) {
+
+            pstmt.executeUpdate();
+
+        } catch (SQLException e) {
+            System.err.println("Error emptying training_data: " + e.getMessage());
+            e.printStackTrace();
+        }
+    }
+
 //    /**
 //     * Creates the test_data table which is only created with 21 columns
 //     * because when the data is added to this the unneeded columns will
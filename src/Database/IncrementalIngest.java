@@ -0,0 +1,219 @@
+package Database;
+
+import Network.CreateNetworkData;
+import Network.NetworkData;
+import Utils.DBUtils;
+
+import java.io.IOException;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Class for adding a new batch of results, e.g. a new week's CSV
+ * file, to training_data once the full pipeline has been run, without
+ * rebuilding it from every year's file.
+ *
+ * Only the new rows are processed. They are cleaned by the stages of a
+ * CSVPipeline, their non-numeric values are encoded with the saved
+ * CategoryDictionaries (new values are added and saved), and their
+ * numeric values are scaled with the ranges in scaling_params, so they
+ * are encoded exactly as the existing rows were. A value outside the
+ * saved range (e.g. a taller player) scales to just below 0 or above 1
+ * rather than the whole column being scaled again.
+ *
+ * Each file is added in one transaction and recorded in the
+ * ingested_files table, so adding the same file twice does nothing.
+ *
+ * @author Alex Kelly
+ */
+public class IncrementalIngest {
+
+    //columns each new row is inserted into, match_id is given by its SERIAL default
+    private static final String[] INSERT_COLUMNS;
+
+    static {
+        List<String> cols = new ArrayList<>(Arrays.asList(CreateNetworkData.INPUT_COLUMNS));
+        cols.addAll(Arrays.asList("winner_id", "loser_id", "year"));
+        cols.addAll(Arrays.asList(CreateNetworkData.OUTPUT_COLUMNS));
+        INSERT_COLUMNS = cols.toArray(new String[0]);
+    }
+
+    //names the dictionaries and ranges are saved under, see StandardiseNonNumeric and Normalise
+    private static final String[] DICTIONARY_NAMES = {"tourney_level", "surface", "tourney_name", "round",
+            "hand", "ioc"};
+    private static final String[] RANGE_NAMES = {"draw_size", "best_of", "rank", "seed", "ht"};
+
+    /**
+     * Method for adding a file of new results to training_data.
+     *
+     * @param csvFile the file, with the same headings as the yearly files
+     * @return the new rows encoded for the network (e.g. to add to a
+     * NetworkDataFile or fine-tune a network with), empty if the file had
+     * already been added, or null if it couldn't be added
+     */
+    public NetworkData ingest(String csvFile) {
+
+        CSVPipeline pipeline = new CSVPipeline();
+        List<String[]> rows = new ArrayList<>();
+        try {
+            pipeline.readCSVFile(csvFile, rows);
+        } catch (IOException e) {
+            System.err.println("Error reading new results from " + csvFile + ": " + e);
+            e.printStackTrace();
+            return null;
+        }
+
+        try (Connection conn = ConnectDB.connect()) {
+
+            conn.setAutoCommit(false); //rows, dictionaries and record are saved together or not at all
+
+            try {
+                if (alreadyIngested(conn, csvFile)) {
+                    conn.rollback();
+                    System.out.println(csvFile + " has already been added to training_data, skipping");
+                    return new NetworkData(CreateNetworkData.INPUT_COLUMNS.length,
+                            CreateNetworkData.OUTPUT_COLUMNS.length);
+                }
+
+                for (String name : DICTIONARY_NAMES) {
+                    pipeline.setDictionary(name, CategoryDictionary.load(conn, name));
+                }
+                loadRanges(conn, pipeline);
+                pipeline.addToDictionaries(rows);
+                NetworkData added = pipeline.encodeRows(rows);
+
+                for (String name : DICTIONARY_NAMES) {
+                    pipeline.getDictionary(name).save(conn);
+                }
+                insertRows(conn, rows, added);
+                recordIngested(conn, csvFile, rows.size());
+                conn.commit();
+
+                System.out.println(rows.size() + " new rows from " + csvFile + " added to training_data");
+                return added;
+
+            } catch (SQLException | RuntimeException e) {
+                conn.rollback();
+                throw e;
+            }
+
+        } catch (SQLException | RuntimeException e) {
+            System.err.println("Error adding new results from " + csvFile + ": " + e);
+            e.printStackTrace();
+            return null;
+        }
+    }
+
+    /**
+     * Helper method which gives the pipeline the saved range of every
+     * numeric column.
+     *
+     * @throws IllegalStateException a range hasn't been saved, so the full
+     * pipeline needs to be run first
+     */
+    private static void loadRanges(Connection conn, CSVPipeline pipeline) throws SQLException {
+
+        String selectSQL = "SELECT min_value, max_value FROM scaling_params WHERE col_name = ?;";
+
+        try (PreparedStatement pstmt = conn.prepareStatement(selectSQL)) {
+            for (String name : RANGE_NAMES) {
+                pstmt.setString(1, name);
+                try (ResultSet rs = pstmt.executeQuery()) {
+                    if (!rs.next()) {
+                        throw new IllegalStateException("no saved range for " + name +
+                                ", run the full pipeline before adding new results");
+                    }
+                    pipeline.setRange(name, rs.getFloat("min_value"), rs.getFloat("max_value"));
+                }
+            }
+        }
+    }
+
+    /**
+     * Helper method which inserts the new rows into training_data in one
+     * batch. Non-numeric columns hold their float as text, the same as
+     * StandardiseNonNumeric leaves them.
+     *
+     * @param rows the cleaned rows, for the ids and year
+     * @param encoded the same rows encoded for the network
+     */
+    private static void insertRows(Connection conn, List<String[]> rows, NetworkData encoded) throws SQLException {
+
+        String[] inputCols = CreateNetworkData.INPUT_COLUMNS;
+        String[] ids = {"winner_id", "loser_id", "year"};
+        List<String> keptCols = Arrays.asList(CSVPipeline.KEPT_COLUMNS);
+        List<String> numeric = Arrays.asList(DBUtils.updateColTypeCols());
+
+        String insertSQL = "INSERT INTO training_data (" + String.join(", ", INSERT_COLUMNS) + ") VALUES (" +
+                String.join(", ", Collections.nCopies(INSERT_COLUMNS.length, "?")) + ");";
+
+        try (PreparedStatement pstmt = conn.prepareStatement(insertSQL)) {
+
+            float[] inputs = encoded.getInputBlock();
+            float[] outputs = encoded.getOutputBlock();
+            for (int r = 0; r < rows.size(); r++) {
+                int param = 1;
+                for (int i = 0; i < inputCols.length; i++) {
+                    float value = inputs[r * inputCols.length + i];
+                    if (numeric.contains(inputCols[i])) {
+                        pstmt.setFloat(param++, value);
+                    } else {
+                        pstmt.setString(param++, Float.toString(value));
+                    }
+                }
+                for (String id : ids) {
+                    pstmt.setString(param++, rows.get(r)[keptCols.indexOf(id)]);
+                }
+                for (int o = 0; o < encoded.getOutputSize(); o++) {
+                    pstmt.setInt(param++, (int) outputs[r * encoded.getOutputSize() + o]);
+                }
+                pstmt.addBatch();
+            }
+            pstmt.executeBatch();
+        }
+    }
+
+    /**
+     * Helper method which checks whether a file has already been added.
+     */
+    private static boolean alreadyIngested(Connection conn, String csvFile) throws SQLException {
+
+        String createSQL = "CREATE TABLE IF NOT EXISTS ingested_files (\n" +
+                "file_name VARCHAR(260) PRIMARY KEY,\n" +
+                "rows_added INT NOT NULL,\n" +
+                "ingested_at TIMESTAMP NOT NULL\n" +
+                ");";
+        String selectSQL = "SELECT 1 FROM ingested_files WHERE file_name = ?;";
+
+        try (PreparedStatement pstmtCreate = conn.prepareStatement(createSQL);
+             PreparedStatement pstmtSelect = conn.prepareStatement(selectSQL)) {
+
+            pstmtCreate.executeUpdate();
+            pstmtSelect.setString(1, csvFile);
+            try (ResultSet rs = pstmtSelect.executeQuery()) {
+                return rs.next();
+            }
+        }
+    }
+
+    /**
+     * Helper method which records that a file has been added.
+     */
+    private static void recordIngested(Connection conn, String csvFile, int rows) throws SQLException {
+
+        String insertSQL = "INSERT INTO ingested_files (file_name, rows_added, ingested_at) VALUES (?, ?, now());";
+
+        try (PreparedStatement pstmt = conn.prepareStatement(insertSQL)) {
+            pstmt.setString(1, csvFile);
+            pstmt.setInt(2, rows);
+            pstmt.executeUpdate();
+        }
+    }
+
+}
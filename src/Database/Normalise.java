@@ -83,11 +83,11 @@ public class Normalise {
     }
 
     /**
-     * Method for normalising the numeric data. It first finds the min and
-     * max value from the particular column and stores them in an AL - min
-     * at position 0 and max at position 1. It then selects all column values
-     * and runs them through the min-max normalisation algorithm, and updates
-     * the value within the db table for the normalised value.
+     * Method for normalising the numeric data. It finds the min and max
+     * value of the column with one aggregate query, saves them to the
+     * scaling_params table so new data can be scaled the same way later,
+     * then scales the whole column with one UPDATE, all in a single
+     * transaction.
      *
      * @param colName the column in the db table being normalised
      */
@@ -97,68 +97,16 @@ public class Normalise {
             throw new IllegalArgumentException("invalid col name '" + colName + "'");
         }
 
-        List<Float> values = new ArrayList<>();
+        String selectMinMaxSQL = "SELECT min(" + colName + ") AS min, max(" + colName + ") AS max FROM training_data;";
 
-        int min = 0;
-        int max = 1;
-        List<Float> minMaxValues = new ArrayList<>();
-
-        String selectMaxSQL = "SELECT " + colName + " FROM training_data ORDER BY " + colName +
-                " DESC LIMIT 1;";
-
-        String selectMinSQL = "SELECT " + colName + " FROM training_data ORDER BY " + colName +
-                " ASC LIMIT 1;";
-
-        String selectAllSQL = "SELECT DISTINCT " + colName + " FROM training_data ORDER BY " + colName + " ASC;";
-
-        try (Connection conn = ConnectDB.connect();
-             PreparedStatement pstmtMin = conn.prepareStatement(selectMinSQL);
-             ResultSet rsMin = pstmtMin.executeQuery()) {
-
-            while (rsMin.next()) {
-                minMaxValues.add(rsMin.getFloat(colName));
-            }
-
-            try (PreparedStatement pstmtMax = conn.prepareStatement(selectMaxSQL);
-                 ResultSet rsMax = pstmtMax.executeQuery()) {
-
-                while (rsMax.next()) {
-                    minMaxValues.add(rsMax.getFloat(colName));
-                }
-            }
-
-            System.out.println("min and max for " + colName + " = " + minMaxValues.toString());
-
-            try (PreparedStatement pstmtAll = conn.prepareStatement(selectAllSQL);
-            ResultSet rsAll = pstmtAll.executeQuery()) {
-
-                while (rsAll.next()) {
-                    values.add(rsAll.getFloat(colName));
-                }
-            }
-
-            for (int i = 0; i < values.size(); i++) {
-                Float scaledValue = ((values.get(i) - minMaxValues.get(min)) / (minMaxValues.get(max) - minMaxValues.get(min))) * (this.scaledMax - this.scaledMin) + this.scaledMin;
-                String updateSQL = "UPDATE training_data SET " + colName + " = " + scaledValue + " WHERE " + colName + " = " + values.get(i) + ";";
-                System.out.println(colName + " value: " + values.get(i).toString() + " = " + scaledValue.toString());
-                try (PreparedStatement pstmtUpdate = conn.prepareStatement(updateSQL)) {
-                    pstmtUpdate.executeUpdate();
-                }
-            }
-
-        } catch (SQLException e) {
-            System.err.println("Error normalising " + colName + ": " + e);
-            e.printStackTrace();
-        }
+        normalise(colName, selectMinMaxSQL, new String[]{colName});
     }
 
     /**
      * Method for normalising the numeric data whose heading has a winner and
-     * loser column. It first finds the min and max value from the particular
-     * column and stores them in an AL - min at position 0 and max at position
-     * 1. It then selects all column values and runs them through the min-max
-     * normalisation algorithm, and updates the value within the db table for
-     * the normalised value.
+     * loser column. The min and max are taken across both columns, so a value
+     * is scaled the same whether it belongs to the winner or the loser, and
+     * both columns are scaled by the same UPDATE.
      *
      * @param colName the column in the db table being normalised
      */
@@ -172,136 +120,139 @@ public class Normalise {
         String loserColName = "loser_" + colName;
         String winnerColName = "winner_" + colName;
 
-        //0 represents index of min and 1 index of max
-        int min = 0;
-        int max = 1;
-        List<Float> minMaxValues = new ArrayList<>();
-
-        minMaxValues.add(Normalise.returnMin(colName));
-        minMaxValues.add(Normalise.returnMax(colName));
+        String selectMinMaxSQL = "SELECT least(min(" + winnerColName + "), min(" + loserColName + ")) AS min, " +
+                "greatest(max(" + winnerColName + "), max(" + loserColName + ")) AS max FROM training_data;";
 
-        //order by used to show intuitive printout when running program
-        String selectAllLoserSQL = "SELECT DISTINCT " + loserColName + " FROM training_data ORDER BY " + loserColName + " ASC;";
-        String selectAllWinnerSQL = "SELECT DISTINCT " + winnerColName + " FROM training_data ORDER BY " + winnerColName + " ASC;";
+        normalise(colName, selectMinMaxSQL, new String[]{winnerColName, loserColName});
+    }
 
-        System.out.println("min and max for " + colName + " = " + minMaxValues.toString());
+    /**
+     * Helper method which finds the min and max, saves them under the
+     * given name and scales every given column, in one transaction.
+     *
+     * @param paramName name the min and max are saved under in scaling_params
+     * @param selectMinMaxSQL query returning the min and max
+     * @param colNames the columns scaled from the min and max
+     */
+    private void normalise(String paramName, String selectMinMaxSQL, String[] colNames) {
 
-        Set<Float> set = new LinkedHashSet<>(); //to add values to avoid duplicates
+        StringBuilder updateSQL = new StringBuilder("UPDATE training_data SET ");
+        for (int i = 0; i < colNames.length; i++) {
+            updateSQL.append(i == 0 ? "" : ", ").append(colNames[i]).append(" = (").append(colNames[i])
+                    .append(" - ?) / ? * ? + ?");
+        }
 
-        try (Connection conn = ConnectDB.connect();
-             PreparedStatement pstmtL = conn.prepareStatement(selectAllLoserSQL);
-             ResultSet rsl = pstmtL.executeQuery();
-             PreparedStatement pstmtW = conn.prepareStatement(selectAllWinnerSQL);
-             ResultSet rsw = pstmtW.executeQuery()) {
+        try (Connection conn = ConnectDB.connect()) {
 
-            while (rsl.next()) {
-                set.add(rsl.getFloat(loserColName));
-            }
-            while (rsw.next()) {
-                set.add(rsw.getFloat(winnerColName));
-            }
+            conn.setAutoCommit(false); //params and scaled values are saved together or not at all
 
-            List<Float> values = new ArrayList<>(set); // convert to access by index
+            try (PreparedStatement pstmtMinMax = conn.prepareStatement(selectMinMaxSQL);
+                 ResultSet rs = pstmtMinMax.executeQuery();
+                 PreparedStatement pstmtUpdate = conn.prepareStatement(updateSQL.toString())) {
 
-            for (int i = 0; i < values.size(); i++) {
-                Float scaledValue = ((values.get(i) - minMaxValues.get(min)) / (minMaxValues.get(max) - minMaxValues.get(min))) * (this.scaledMax - this.scaledMin) + this.scaledMin;
+                rs.next();
+                float min = rs.getFloat("min");
+                float max = rs.getFloat("max");
+                System.out.println("min and max for " + paramName + " = [" + min + ", " + max + "]");
 
-                String updateWinnerSQL = "UPDATE training_data SET " + winnerColName + " = " + scaledValue + " WHERE " + winnerColName + " = " + values.get(i) + ";";
-                String updateLoserSQL = "UPDATE training_data SET " + loserColName + " = " + scaledValue + " WHERE " + loserColName + " = " + values.get(i) + ";";
+                saveScalingParams(conn, paramName, min, max);
 
-                System.out.println(colName + " value: " + values.get(i).toString() + " = " + scaledValue.toString());
+                //a column with only one value is scaled to the min rather than divided by 0
+                float range = max > min ? max - min : 1;
+                for (int i = 0; i < colNames.length; i++) {
+                    pstmtUpdate.setFloat(4 * i + 1, min);
+                    pstmtUpdate.setFloat(4 * i + 2, range);
+                    pstmtUpdate.setFloat(4 * i + 3, this.scaledMax - this.scaledMin);
+                    pstmtUpdate.setFloat(4 * i + 4, this.scaledMin);
+                }
+                int rows = pstmtUpdate.executeUpdate();
+                conn.commit();
 
-                try (PreparedStatement pstmtUpdateW = conn.prepareStatement(updateWinnerSQL);
-                     PreparedStatement pstmtUpdateL = conn.prepareStatement(updateLoserSQL)) {
+                System.out.println("column -> " + String.join(" and ", colNames) + " normalised (" + rows + " rows)");
 
-                    pstmtUpdateW.executeUpdate();
-                    pstmtUpdateL.executeUpdate();
-                }
+            } catch (SQLException e) {
+                conn.rollback();
+                throw e;
             }
 
         } catch (SQLException e) {
+            System.err.println("Error normalising " + paramName + ": " + e);
             e.printStackTrace();
         }
     }
 
     /**
-     * Helper method to return the highest value out of the
-     * highest value from the winner column and the highest
-     * value from the loser column, for a particular column.
+     * Helper method which saves the min and max a column was scaled
+     * from, replacing any saved by an earlier run.
      *
-     * @param colName the column being checked
-     * @return the higher value
+     * @param conn the connection of the normalising transaction
+     * @param paramName name the min and max are saved under
+     * @param min value scaled to 0
+     * @param max value scaled to 1
      */
-    private static float returnMax(String colName) {
-
-        String loserColName = "loser_"+colName;
-        String winnerColName = "winner_"+colName;
-
-        String selectMaxLoserSQL = "SELECT " + loserColName + " FROM training_data ORDER BY " + loserColName +
-                " DESC LIMIT 1;";
-        String selectMaxWinnerSQL = "SELECT " + winnerColName + " FROM training_data ORDER BY " + winnerColName +
-                " DESC LIMIT 1;";
-
-        List<Float> cmp = new ArrayList<>();
-
-        try (Connection conn = ConnectDB.connect();
-             PreparedStatement pstmtLoser = conn.prepareStatement(selectMaxLoserSQL);
-             ResultSet rsl = pstmtLoser.executeQuery();
-             PreparedStatement pstmtWinner = conn.prepareStatement(selectMaxWinnerSQL);
-             ResultSet rsw = pstmtWinner.executeQuery()) {
-
-            while (rsl.next()) {
-                cmp.add(rsl.getFloat(loserColName));
-            }
-            while (rsw.next()) {
-                cmp.add(rsw.getFloat(winnerColName));
-            }
-
-        } catch (SQLException e) {
-            e.printStackTrace();
+    private static void saveScalingParams(Connection conn, String paramName, float min, float max)
+            throws SQLException {
+
+        String createSQL = "CREATE TABLE IF NOT EXISTS scaling_params (\n" +
+                "col_name VARCHAR(30) PRIMARY KEY,\n" +
+                "min_value float NOT NULL,\n" +
+                "max_value float NOT NULL\n" +
+                ");";
+        String upsertSQL = "INSERT INTO scaling_params (col_name, min_value, max_value) VALUES (?, ?, ?) " +
+                "ON CONFLICT (col_name) DO UPDATE SET min_value = EXCLUDED.min_value, max_value = EXCLUDED.max_value;";
+
+        try (PreparedStatement pstmtCreate = conn.prepareStatement(createSQL);
+             PreparedStatement pstmtUpsert = conn.prepareStatement(upsertSQL)) {
+
+            pstmtCreate.executeUpdate();
+
+            pstmtUpsert.setString(1, paramName);
+            pstmtUpsert.setFloat(2, min);
+            pstmtUpsert.setFloat(3, max);
+            pstmtUpsert.executeUpdate();
         }
-
-        return Collections.max(cmp);
     }
 
     /**
-     * Helper method to return the highest value out of the
-     * highest value from the winner column and the highest
-     * value from the loser column, for a particular column.
+     * Method for reading back the range each column was normalised from,
+     * e.g. to scale new data for a trained network in the same way.
+     * winner_ and loser_ columns share the range saved for both, and
+     * columns with no saved range (the non-numeric ones) are given NaN.
      *
-     * @param colName the column being checked
-     * @return the higher value
+     * @param colNames the columns, e.g. CreateNetworkData.INPUT_COLUMNS
+     * @return the min of each column at position 0 and the max at position 1
      */
-    private static float returnMin(String colName) {
+    public static float[][] returnScalingParams(String[] colNames) {
 
-        String loserColName = "loser_"+colName;
-        String winnerColName = "winner_"+colName;
+        float[][] params = new float[2][colNames.length];
+        Arrays.fill(params[0], Float.NaN);
+        Arrays.fill(params[1], Float.NaN);
 
-        String selectMaxLoserSQL = "SELECT " + loserColName + " FROM training_data ORDER BY " + loserColName +
-                " ASC LIMIT 1;";
-        String selectMaxWinnerSQL = "SELECT " + winnerColName + " FROM training_data ORDER BY " + winnerColName +
-                " ASC LIMIT 1;";
-
-        List<Float> cmp = new ArrayList<>();
+        String selectSQL = "SELECT col_name, min_value, max_value FROM scaling_params;";
 
         try (Connection conn = ConnectDB.connect();
-             PreparedStatement pstmtLoser = conn.prepareStatement(selectMaxLoserSQL);
-             ResultSet rsl = pstmtLoser.executeQuery();
-             PreparedStatement pstmtWinner = conn.prepareStatement(selectMaxWinnerSQL);
-             ResultSet rsw = pstmtWinner.executeQuery()) {
+             PreparedStatement pstmt = conn.prepareStatement(selectSQL);
+             ResultSet rs = pstmt.executeQuery()) {
 
-            while (rsl.next()) {
-                cmp.add(rsl.getFloat(loserColName));
+            Map<String, float[]> saved = new HashMap<>();
+            while (rs.next()) {
+                saved.put(rs.getString("col_name"), new float[]{rs.getFloat("min_value"), rs.getFloat("max_value")});
             }
-            while (rsw.next()) {
-                cmp.add(rsw.getFloat(winnerColName));
+
+            for (int i = 0; i < colNames.length; i++) {
+                float[] range = saved.get(colNames[i].replaceFirst("^(winner|loser)_", ""));
+                if (range != null) {
+                    params[0][i] = range[0];
+                    params[1][i] = range[1];
+                }
             }
 
         } catch (SQLException e) {
+            System.err.println("Error reading scaling params: " + e);
             e.printStackTrace();
         }
 
-        return Collections.min(cmp);
+        return params;
     }
 
 }
@@ -0,0 +1,261 @@
+package Database;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.*;
+
+/**
+ * Class which runs the database steps as a list of named stages and
+ * records each one completed in the pipeline_stages table, so a run
+ * that fails part way can be resumed instead of reloading everything.
+ *
+ * Each stage runs in a single transaction: every connection its steps
+ * get from ConnectDB.connect is the same one, and the stage's changes
+ * and its pipeline_stages record are committed together, or rolled back
+ * together if any step fails. A failed stage therefore leaves the
+ * tables as the last completed stage left them.
+ *
+ * A run starts at the first stage not yet completed, and every stage
+ * after it is run again. Stages that load data on several connections
+ * at once (e.g. ReadFiles) can't share one transaction, so are added
+ * with addNonTransactionalStage and must be safe to run again.
+ *
+ * @author Alex Kelly
+ */
+public class PipelineRunner {
+
+    /**
+     * One stage of the pipeline.
+     */
+    public interface Stage {
+
+        /**
+         * @throws Exception the stage failed
+         */
+        void run() throws Exception;
+    }
+
+    private final Map<String, Stage> stages = new LinkedHashMap<>();
+    private final Set<String> nonTransactional = new HashSet<>();
+
+    /**
+     * Method for adding a stage which runs in a single transaction.
+     *
+     * @param name name the stage is recorded under
+     * @param stage the stage
+     * @throws IllegalArgumentException stage names must be unique
+     */
+    public void addStage(String name, Stage stage) {
+
+        if (stages.containsKey(name)) {
+            throw new IllegalArgumentException("stage '" + name + "' has already been added");
+        }
+        stages.put(name, stage);
+    }
+
+    /**
+     * Method for adding a stage that manages its own connections, and
+     * so must leave the tables the same however many times it is run.
+     *
+     * @param name name the stage is recorded under
+     * @param stage the stage
+     */
+    public void addNonTransactionalStage(String name, Stage stage) {
+
+        addStage(name, stage);
+        nonTransactional.add(name);
+    }
+
+    /**
+     * Method for running the stages, from the first not yet completed.
+     *
+     * @return true if every stage has completed
+     */
+    public boolean run() {
+
+        Set<String> completed = completedStages();
+        if (completed == null) {
+            return false;
+        }
+
+        boolean resuming = true;
+        for (Map.Entry<String, Stage> stage : stages.entrySet()) {
+            String name = stage.getKey();
+            //skip the stages at the start that have already completed
+            if (resuming && completed.contains(name)) {
+                System.out.println("stage '" + name + "' already completed, skipping");
+                continue;
+            }
+            resuming = false;
+
+            System.out.println("\n---------- stage '" + name + "' ----------");
+            long start = System.nanoTime();
+            boolean succeeded = nonTransactional.contains(name) ? runAlone(name, stage.getValue())
+                    : runInTransaction(name, stage.getValue());
+            long ms = (System.nanoTime() - start) / 1000000;
+
+            if (!succeeded) {
+                System.err.println("stage '" + name + "' failed after " + ms + "ms, fix the error and run " +
+                        "again to resume from this stage");
+                return false;
+            }
+            System.out.println("stage '" + name + "' completed in " + ms + "ms");
+        }
+        return true;
+    }
+
+    /**
+     * Helper method which runs a stage and records it in one transaction.
+     *
+     * @param name the stage's name
+     * @param stage the stage
+     * @return true if the stage was committed
+     */
+    private boolean runInTransaction(String name, Stage stage) {
+
+        long start = System.nanoTime();
+        try (Connection conn = ConnectDB.getDataSource().getConnection()) {
+
+            conn.setAutoCommit(false);
+            StageConnection stageConnection = new StageConnection(conn);
+            ConnectDB.bindStage(stageConnection);
+
+            try {
+                stage.run();
+                stageConnection.checkSucceeded();
+                recordStage(conn, name, (System.nanoTime() - start) / 1000000);
+                conn.commit();
+                return true;
+
+            } catch (Exception e) {
+                conn.rollback();
+                System.err.println("Error in stage '" + name + "', rolled back: " + e);
+                e.printStackTrace();
+                return false;
+
+            } finally {
+                ConnectDB.bindStage(null);
+            }
+
+        } catch (SQLException e) {
+            System.err.println("Error running stage '" + name + "': " + e);
+            e.printStackTrace();
+            return false;
+        }
+    }
+
+    /**
+     * Helper method which runs a stage that manages its own connections,
+     * then records it.
+     *
+     * @param name the stage's name
+     * @param stage the stage
+     * @return true if the stage completed and was recorded
+     */
+    private boolean runAlone(String name, Stage stage) {
+
+        long start = System.nanoTime();
+        try {
+            stage.run();
+        } catch (Exception e) {
+            System.err.println("Error in stage '" + name + "': " + e);
+            e.printStackTrace();
+            return false;
+        }
+
+        try (Connection conn = ConnectDB.connect()) {
+
+            recordStage(conn, name, (System.nanoTime() - start) / 1000000);
+            return true;
+
+        } catch (SQLException e) {
+            System.err.println("Error recording stage '" + name + "': " + e);
+            e.printStackTrace();
+            return false;
+        }
+    }
+
+    /**
+     * Method which forgets every completed stage, so the next run starts
+     * again from the first stage.
+     */
+    public void reset() {
+
+        try (Connection conn = ConnectDB.connect()) {
+
+            createTable(conn);
+            try (PreparedStatement pstmt = conn.prepareStatement("DELETE FROM pipeline_stages;")) {
+                pstmt.executeUpdate();
+            }
+            System.out.println("pipeline reset, the next run starts from the first stage");
+
+        } catch (SQLException e) {
+            System.err.println("Error resetting pipeline: " + e);
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * Helper method which reads the names of the completed stages.
+     *
+     * @return the completed stages, or null if they couldn't be read
+     */
+    private Set<String> completedStages() {
+
+        Set<String> completed = new HashSet<>();
+
+        try (Connection conn = ConnectDB.connect()) {
+
+            createTable(conn);
+            try (PreparedStatement pstmt = conn.prepareStatement("SELECT stage_name FROM pipeline_stages;");
+                 ResultSet rs = pstmt.executeQuery()) {
+                while (rs.next()) {
+                    completed.add(rs.getString("stage_name"));
+                }
+            }
+
+        } catch (SQLException e) {
+            System.err.println("Error reading completed stages: " + e);
+            e.printStackTrace();
+            return null;
+        }
+        return completed;
+    }
+
+    /**
+     * Helper method which records a stage as completed, along with how
+     * long it took.
+     */
+    private static void recordStage(Connection conn, String name, long ms) throws SQLException {
+
+        String upsertSQL = "INSERT INTO pipeline_stages (stage_name, completed_at, duration_ms) VALUES (?, now(), ?) " +
+                "ON CONFLICT (stage_name) DO UPDATE SET completed_at = now(), duration_ms = EXCLUDED.duration_ms;";
+
+        createTable(conn);
+        try (PreparedStatement pstmt = conn.prepareStatement(upsertSQL)) {
+            pstmt.setString(1, name);
+            pstmt.setLong(2, ms);
+            pstmt.executeUpdate();
+        }
+    }
+
+    /**
+     * Helper method which creates the pipeline_stages table if it
+     * doesn't exist yet.
+     */
+    private static void createTable(Connection conn) throws SQLException {
+
+        String createSQL = "CREATE TABLE IF NOT EXISTS pipeline_stages (\n" +
+                "stage_name VARCHAR(40) PRIMARY KEY,\n" +
+                "completed_at TIMESTAMP NOT NULL,\n" +
+                "duration_ms BIGINT NOT NULL\n" +
+                ");";
+
+        try (PreparedStatement pstmt = conn.prepareStatement(createSQL)) {
+            pstmt.executeUpdate();
+        }
+    }
+
+}
@@ -0,0 +1,273 @@
+package Database;
+
+import javax.sql.DataSource;
+import java.io.PrintWriter;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Proxy;
+import java.sql.*;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.BlockingDeque;
+import java.util.concurrent.LinkedBlockingDeque;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Logger;
+
+/**
+ * Class which keeps a pool of open connections to the database, so
+ * the many short steps of the pipeline don't each open a new one.
+ *
+ * A connection handed out by getConnection is returned to the pool
+ * when it is closed, so callers use it in a try-with-resources the
+ * same as a connection from DriverManager. On its return any
+ * statements left open are closed and an unfinished transaction is
+ * rolled back, so the next caller gets a clean connection. A
+ * connection that has been idle for a while is checked with isValid
+ * before it is handed out again.
+ *
+ * As connections are kept open, the driver's cache of prepared
+ * statements (set up through the driver properties) carries over
+ * from one caller to the next.
+ *
+ * @author Alex Kelly
+ */
+public class PooledDataSource implements DataSource {
+
+    private final String url;
+    private final Properties driverProperties; //user, password and any driver settings
+    private final int connectionTimeoutMs; //longest wait for a free connection
+    private final long validateAfterMs; //idle time after which a connection is checked
+    private final int validationTimeoutSeconds;
+
+    private final Semaphore permits; //one per connection that may be open at once
+    private final BlockingDeque<IdleConnection> idle = new LinkedBlockingDeque<>();
+    private volatile boolean closed = false;
+
+    /**
+     * CONSTRUCTOR
+     *
+     * @param url JDBC url of the database
+     * @param driverProperties user, password and any driver settings
+     * @param poolSize most connections open at once
+     * @param connectionTimeoutMs longest wait for a free connection
+     * @param validateAfterMs idle time after which a connection is checked before use
+     * @param validationTimeoutSeconds longest wait for a connection to answer the check
+     * @throws IllegalArgumentException pool size must be positive and times can't be negative
+     */
+    public PooledDataSource(String url, Properties driverProperties, int poolSize, int connectionTimeoutMs,
+                            long validateAfterMs, int validationTimeoutSeconds) {
+
+        if (poolSize < 1) {
+            throw new IllegalArgumentException("pool size must be at least 1, was " + poolSize);
+        }
+        if (connectionTimeoutMs < 0 || validateAfterMs < 0 || validationTimeoutSeconds < 0) {
+            throw new IllegalArgumentException("timeouts can't be negative");
+        }
+
+        this.url = url;
+        this.driverProperties = (Properties) driverProperties.clone();
+        this.connectionTimeoutMs = connectionTimeoutMs;
+        this.validateAfterMs = validateAfterMs;
+        this.validationTimeoutSeconds = validationTimeoutSeconds;
+        this.permits = new Semaphore(poolSize, true);
+    }
+
+    /**
+     * Method for borrowing a connection, waiting for one to be returned
+     * if all are in use.
+     *
+     * @return a connection, returned to the pool when it is closed
+     * @throws SQLException no connection could be made, none was free
+     * in time, or the pool has been closed
+     */
+    @Override
+    public Connection getConnection() throws SQLException {
+
+        if (closed) {
+            throw new SQLException("connection pool has been closed");
+        }
+        try {
+            if (!permits.tryAcquire(connectionTimeoutMs, TimeUnit.MILLISECONDS)) {
+                throw new SQLException("timed out after " + connectionTimeoutMs + "ms waiting for a connection");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new SQLException("interrupted waiting for a connection", e);
+        }
+
+        try {
+            return wrap(takeIdleOrOpen());
+        } catch (SQLException | RuntimeException e) {
+            permits.release();
+            throw e;
+        }
+    }
+
+    /**
+     * Helper method which takes the most recently returned connection,
+     * checking it first if it has been idle a while, or opens a new one.
+     */
+    private Connection takeIdleOrOpen() throws SQLException {
+
+        IdleConnection next;
+        while ((next = idle.pollFirst()) != null) {
+            boolean stale = System.currentTimeMillis() - next.since > validateAfterMs;
+            if (!stale || next.connection.isValid(validationTimeoutSeconds)) {
+                return next.connection;
+            }
+            closeQuietly(next.connection); //dropped by the server, try the next
+        }
+        return DriverManager.getConnection(url, driverProperties);
+    }
+
+    /**
+     * Helper method which wraps a connection so closing it returns it to
+     * the pool, and so statements it creates are tracked.
+     */
+    private Connection wrap(Connection physical) {
+
+        List<Statement> statements = new ArrayList<>();
+        boolean[] released = {false};
+
+        return (Connection) Proxy.newProxyInstance(Connection.class.getClassLoader(), new Class<?>[]{Connection.class},
+                (proxy, method, args) -> {
+                    String name = method.getName();
+                    if (name.equals("close")) {
+                        if (!released[0]) {
+                            released[0] = true;
+                            release(physical, statements);
+                        }
+                        return null;
+                    }
+                    if (name.equals("isClosed")) {
+                        return released[0] || physical.isClosed();
+                    }
+                    if (released[0]) {
+                        throw new SQLException("connection has been returned to the pool");
+                    }
+
+                    try {
+                        Object result = method.invoke(physical, args);
+                        if (result instanceof Statement) {
+                            statements.add((Statement) result);
+                        }
+                        return result;
+                    } catch (InvocationTargetException e) {
+                        throw e.getCause();
+                    }
+                });
+    }
+
+    /**
+     * Helper method which cleans up a connection that has been closed
+     * by its caller and puts it back in the pool, or discards it if it
+     * can't be reused.
+     */
+    private void release(Connection physical, List<Statement> statements) {
+
+        try {
+            for (Statement statement : statements) {
+                statement.close(); //no-op if the caller already closed it
+            }
+            if (closed || physical.isClosed()) {
+                closeQuietly(physical);
+                return;
+            }
+            if (!physical.getAutoCommit()) {
+                physical.rollback();
+                physical.setAutoCommit(true);
+            }
+            physical.clearWarnings();
+            idle.offerFirst(new IdleConnection(physical));
+        } catch (SQLException e) {
+            closeQuietly(physical);
+        } finally {
+            permits.release();
+        }
+    }
+
+    /**
+     * Method which closes every idle connection and stops any more being
+     * handed out. Connections still in use are closed when returned.
+     */
+    public void close() {
+
+        closed = true;
+        IdleConnection next;
+        while ((next = idle.pollFirst()) != null) {
+            closeQuietly(next.connection);
+        }
+    }
+
+    /**
+     * Helper method which closes a connection, ignoring any error as it
+     * is being thrown away.
+     */
+    private static void closeQuietly(Connection connection) {
+
+        try {
+            connection.close();
+        } catch (SQLException e) {
+            //already unusable
+        }
+    }
+
+    @Override
+    public Connection getConnection(String username, String password) throws SQLException {
+        throw new SQLFeatureNotSupportedException("the pool's user is set in its configuration");
+    }
+
+    @Override
+    public PrintWriter getLogWriter() {
+        return DriverManager.getLogWriter();
+    }
+
+    @Override
+    public void setLogWriter(PrintWriter out) {
+        DriverManager.setLogWriter(out);
+    }
+
+    @Override
+    public void setLoginTimeout(int seconds) {
+        DriverManager.setLoginTimeout(seconds);
+    }
+
+    @Override
+    public int getLoginTimeout() {
+        return DriverManager.getLoginTimeout();
+    }
+
+    @Override
+    public Logger getParentLogger() throws SQLFeatureNotSupportedException {
+        throw new SQLFeatureNotSupportedException();
+    }
+
+    @Override
+    public <T> T unwrap(Class<T> iface) throws SQLException {
+        if (iface.isInstance(this)) {
+            return iface.cast(this);
+        }
+        throw new SQLException("not a wrapper for " + iface.getName());
+    }
+
+    @Override
+    public boolean isWrapperFor(Class<?> iface) {
+        return iface.isInstance(this);
+    }
+
+    /**
+     * A connection waiting in the pool and when it was returned.
+     */
+    private static class IdleConnection {
+
+        private final Connection connection;
+        private final long since;
+
+        private IdleConnection(Connection connection) {
+            this.connection = connection;
+            this.since = System.currentTimeMillis();
+        }
+    }
+
+}
@@ -1,60 +1,285 @@
 package Database;
 
-import java.io.FileReader;
+import Utils.DBUtils;
+import com.opencsv.CSVReader;
+import org.postgresql.copy.CopyManager;
+import org.postgresql.core.BaseConnection;
+
+import java.io.BufferedReader;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
 import java.sql.Connection;
 import java.sql.PreparedStatement;
-import com.opencsv.CSVReader;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 /**
  * Class which contains the method to read in the CSV files and
  * import the data into the training_data database table.
  *
+ * Each year's file is loaded on its own thread with its own
+ * connection, in a single transaction, so a file is either loaded
+ * completely or not at all.
+ *
+ * Files can be loaded in one of two modes:
+ * -> COPY: the file is streamed straight to postgres with the COPY
+ *          protocol, with no parsing in Java (the default)
+ * -> INSERT: each row is parsed with opencsv and inserted in batches
+ *
+ * In both modes the file is read as UTF-8 by openCSV, which replaces
+ * any bytes that aren't valid UTF-8 (e.g. the "Vina del Mar" rows of
+ * 2009) rather than postgres rejecting the whole file.
+ *
  * @author Alex Kelly
  */
 public class ReadFiles {
 
+    /**
+     * The ways a file can be loaded into the database.
+     */
+    public enum LoadMode { COPY, INSERT }
+
+    //directory holding the atp_matches_<year>.csv files
+    static final String DEFAULT_CSV_DIRECTORY = "/Users/alex/Documents/UoB-Summer-Term/results/training/";
+    //rows sent to the database per batch
+    private static final int DEFAULT_BATCH_SIZE = 1000;
+    //number of columns in each CSV file and the training_data table
+    private static final int NO_OF_COLS = 50;
+    //size of the buffer files are read through, in chars
+    private static final int READ_BUFFER_CHARS = 1 << 16;
+
+    /*
+     * the first line of each file is the headings. Blank fields are kept as
+     * '' rather than NULL, the same as the INSERT mode, as the cleaning steps
+     * look for ''
+     */
+    private static final String COPY_SQL = "COPY training_data FROM STDIN WITH (FORMAT csv, HEADER true, NULL '\\N')";
+
+    private final String csvDirectory;
+    private final int batchSize;
+    private final int threads;
+    private final LoadMode mode;
+    private final List<Integer> failedYears = new ArrayList<>(); //years the last load couldn't read in
+
+    /**
+     * CONSTRUCTOR
+     *
+     * Reads from the default directory using COPY, with one thread
+     * per available processor.
+     */
+    public ReadFiles() {
+        this(DEFAULT_CSV_DIRECTORY, LoadMode.COPY, DEFAULT_BATCH_SIZE, Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     * CONSTRUCTOR
+     *
+     * @param csvDirectory directory holding the atp_matches_(year).csv files
+     * @param mode whether to COPY the files or INSERT their rows
+     * @param batchSize number of rows sent to the database per batch (INSERT only)
+     * @param threads maximum number of files loaded at once
+     * @throws IllegalArgumentException batch size and threads must be positive
+     */
+    public ReadFiles(String csvDirectory, LoadMode mode, int batchSize, int threads) {
+
+        if (batchSize < 1 || threads < 1) {
+            throw new IllegalArgumentException("batch size and threads must be at least 1, were " +
+                    batchSize + " and " + threads);
+        }
+
+        this.csvDirectory = csvDirectory.endsWith("/") ? csvDirectory : csvDirectory + "/";
+        this.batchSize = batchSize;
+        this.threads = threads;
+        this.mode = mode;
+    }
+
     /**
      * Method to read in the training data and populate the training_data
-     * table within the data database. Uses opencsv library, JAR file added
-     * to dependencies. Rows are dumped into the database tables in batches
-     * of 100 for higher efficiency.
+     * table within the data database, for every year from 2008 to 2018,
+     * using the mode the object was created with.
+     *
+     * @return the number of rows loaded
      */
-    public void readCSVTraining() {
+    public int readCSVTraining() {
+
+        return readCSVTraining(DBUtils.createTestDataYears());
+    }
 
-        for (int year = 2008; year <= 2018; year++) {
+    /**
+     * Method to read in the training data for the given years, loading
+     * the files in parallel. A year that fails is rolled back and
+     * reported, and the other years are still loaded.
+     *
+     * @param years the years of the results to be read in and stored
+     * @return the number of rows loaded
+     */
+    public int readCSVTraining(int[] years) {
 
-            String csvFile = "/Users/alex/Documents/UoB-Summer-Term/results/training/atp_matches_" + year + ".csv";
+        ExecutorService pool = Executors.newFixedThreadPool(Math.max(1, Math.min(threads, years.length)));
+        int total = 0;
+        boolean[] loaded = new boolean[years.length];
 
-            String insertSQL = "INSERT into training_data VALUES " +
-                    "(?,?,?,?,?,?,?,?,?,?,?,?,?,?,?,?,?,?,?,?,?,?,?,?,?,?,?,?,?,?,?,?,?,?,?,?,?,?,?,?,?,?,?,?,?,?,?,?,?,?)";
+        try {
+            List<Future<Integer>> loads = new ArrayList<>();
+            for (int year : years) {
+                loads.add(pool.submit(() -> mode == LoadMode.COPY ? copyCSVYear(year) : readCSVYear(year)));
+            }
+            for (int i = 0; i < years.length; i++) {
+                try {
+                    total += loads.get(i).get();
+                    loaded[i] = true;
+                } catch (ExecutionException e) {
+                    System.err.println("Error loading data from year " + years[i] + " into database: " + e.getCause());
+                    e.getCause().printStackTrace();
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            System.err.println("Loading the CSV files was interrupted");
+        } finally {
+            pool.shutdownNow();
+        }
 
-            try (CSVReader reader = new CSVReader(new FileReader(csvFile), ',');
-                 Connection conn = ConnectDB.connect();
-                 PreparedStatement pstmt = conn.prepareStatement(insertSQL)) {
+        failedYears.clear();
+        for (int i = 0; i < years.length; i++) {
+            if (!loaded[i]) {
+                failedYears.add(years[i]);
+            }
+        }
+        return total;
+    }
+
+    /**
+     * Method that returns the years the last call to readCSVTraining
+     * couldn't read in.
+     *
+     * @return the failed years, empty if every year was loaded
+     */
+    public List<Integer> getFailedYears() {
+
+        return new ArrayList<>(failedYears);
+    }
+
+    /**
+     * Method to stream one year's file into the database with the COPY
+     * protocol, in a single transaction. The file is only decoded, then
+     * sent as it is and parsed by postgres, so a malformed row fails the
+     * whole file.
+     *
+     * @param year the year of the results to be read in and stored
+     * @return the number of rows loaded
+     * @throws Exception the file could not be read or loaded, in which
+     * case none of its rows are kept
+     */
+    private int copyCSVYear(int year) throws Exception {
+
+        String csvFile = csvDirectory + "atp_matches_" + year + ".csv";
+
+        try (Reader in = openCSV(csvFile);
+             Connection conn = ConnectDB.connect()) {
+
+            conn.setAutoCommit(false); //one transaction for the whole file
+
+            try {
+                CopyManager copyManager = new CopyManager(conn.unwrap(BaseConnection.class));
+                long rows = copyManager.copyIn(COPY_SQL, in);
+                conn.commit();
+
+                System.out.println("Data for year " + year + " copied into training_data (" + rows + " rows)");
+                return (int) rows;
+
+            } catch (Exception e) {
+                conn.rollback();
+                throw e;
+            }
+        }
+    }
+
+    /**
+     * Method to read in one year's file in a single transaction. Rows
+     * are dumped into the database in batches for higher efficiency,
+     * and the last, partly filled batch is sent before committing.
+     *
+     * @param year the year of the results to be read in and stored
+     * @return the number of rows loaded
+     * @throws Exception the file could not be read or loaded, in which
+     * case none of its rows are kept
+     */
+    private int readCSVYear(int year) throws Exception {
+
+        String csvFile = csvDirectory + "atp_matches_" + year + ".csv";
+
+        String insertSQL = "INSERT into training_data VALUES " +
+                "(?,?,?,?,?,?,?,?,?,?,?,?,?,?,?,?,?,?,?,?,?,?,?,?,?,?,?,?,?,?,?,?,?,?,?,?,?,?,?,?,?,?,?,?,?,?,?,?,?,?)";
+
+        try (CSVReader reader = new CSVReader(openCSV(csvFile), ',');
+             Connection conn = ConnectDB.connect()) {
+
+            conn.setAutoCommit(false); //one transaction for the whole file
+
+            try (PreparedStatement pstmt = conn.prepareStatement(insertSQL)) {
 
                 String[] row;
                 reader.readNext(); //skip headings
-                int i = 0;
-                int noOfCols = 50;
+                int rows = 0;
+                int skipped = 0;
                 while ((row = reader.readNext()) != null) {
-                    for (String data : row) {
-                        pstmt.setString((i % noOfCols) + 1, data);
-                        if (++i % noOfCols == 0) {
-                            pstmt.addBatch(); //add batch
-                        }
-                        if (i % (noOfCols * 100) == 0) {//insert when the batch getSize is 100
-                            pstmt.executeBatch();
-                        }
+                    if (row.length != NO_OF_COLS) {
+                        skipped++; //malformed line, would shift every column after it
+                        continue;
+                    }
+                    for (int col = 0; col < NO_OF_COLS; col++) {
+                        pstmt.setString(col + 1, row[col]);
+                    }
+                    pstmt.addBatch(); //add batch
+                    if (++rows % batchSize == 0) { //insert when the batch is full
+                        pstmt.executeBatch();
                     }
                 }
-                System.out.println("Data for year " + year + " loaded into training_data");
+                if (rows % batchSize != 0) { //insert the remaining rows
+                    pstmt.executeBatch();
+                }
+                conn.commit();
+
+                System.out.println("Data for year " + year + " loaded into training_data (" + rows + " rows" +
+                        (skipped > 0 ? ", " + skipped + " malformed rows skipped)" : ")"));
+                return rows;
+
             } catch (Exception e) {
-                System.err.println("Error loading data from year " + year + " into database: " + e);
-                e.printStackTrace();
+                conn.rollback();
+                throw e;
             }
         }
     }
 
+    /**
+     * Method for opening a results file as UTF-8 text. Bytes that aren't
+     * valid UTF-8 are replaced with U+FFFD, as FileReader did, so a file
+     * with a few badly encoded names can still be loaded, and what COPY
+     * sends to postgres is always valid UTF-8.
+     *
+     * @param csvFile the file to open
+     * @return a buffered reader of the file
+     * @throws IOException the file could not be opened
+     */
+    public static Reader openCSV(String csvFile) throws IOException {
+
+        CharsetDecoder decoder = StandardCharsets.UTF_8.newDecoder()
+                .onMalformedInput(CodingErrorAction.REPLACE)
+                .onUnmappableCharacter(CodingErrorAction.REPLACE);
+        return new BufferedReader(new InputStreamReader(new FileInputStream(csvFile), decoder), READ_BUFFER_CHARS);
+    }
+
 //    /**
 //     * Method to read in the test data and populate the test table
 //     * within the data database. Uses opencsv library, JAR file added
@@ -0,0 +1,19 @@
+package Database;
+
+/**
+ * One step of the in-memory cleaning pipeline, applied to each row
+ * as it is read from a CSV file.
+ *
+ * @author Alex Kelly
+ */
+public interface RowStage {
+
+    /**
+     * Method which cleans one row, changing its values in place if
+     * needed.
+     *
+     * @param row the row's values, in the order of CSVPipeline.KEPT_COLUMNS
+     * @return true to keep the row, false to remove it
+     */
+    boolean apply(String[] row);
+}
@@ -0,0 +1,108 @@
+package Database;
+
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.Statement;
+
+/**
+ * The one connection every step of a pipeline stage shares, so the
+ * whole stage is a single transaction.
+ *
+ * While a stage runs, ConnectDB.connect hands out views of this
+ * connection. Closing a view, committing or changing its auto-commit
+ * does nothing, as the PipelineRunner commits the stage once all of it
+ * has run. A step asking to roll back, or any statement failing, marks
+ * the stage as failed, even if the step itself only prints the error,
+ * and the runner then rolls the whole stage back.
+ *
+ * @author Alex Kelly
+ */
+class StageConnection {
+
+    private final Connection connection;
+    private SQLException error; //first error seen by any step of the stage
+    private boolean rollbackRequested = false;
+
+    /**
+     * CONSTRUCTOR
+     *
+     * @param connection the stage's connection, with auto-commit off
+     */
+    StageConnection(Connection connection) {
+
+        this.connection = connection;
+    }
+
+    /**
+     * Method for returning a view of the connection for one step.
+     *
+     * @return the view
+     */
+    Connection view() {
+
+        return (Connection) Proxy.newProxyInstance(Connection.class.getClassLoader(), new Class<?>[]{Connection.class},
+                (proxy, method, args) -> {
+                    switch (method.getName()) {
+                        case "close":
+                        case "commit":
+                        case "setAutoCommit":
+                            return null; //the runner ends the transaction
+                        case "rollback":
+                            rollbackRequested = true;
+                            return null;
+                        case "isClosed":
+                            return connection.isClosed();
+                        default:
+                            Object result = invoke(connection, method, args);
+                            if (result instanceof Statement) {
+                                return watch((Statement) result, method.getReturnType());
+                            }
+                            return result;
+                    }
+                });
+    }
+
+    /**
+     * Helper method which wraps a statement so any error it throws is
+     * recorded against the stage.
+     */
+    private Object watch(Statement statement, Class<?> type) {
+
+        return Proxy.newProxyInstance(Connection.class.getClassLoader(), new Class<?>[]{type},
+                (proxy, method, args) -> invoke(statement, method, args));
+    }
+
+    /**
+     * Helper method which calls a method on the connection or one of its
+     * statements, recording any SQLException before passing it on.
+     */
+    private Object invoke(Object target, java.lang.reflect.Method method, Object[] args) throws Throwable {
+
+        try {
+            return method.invoke(target, args);
+        } catch (InvocationTargetException e) {
+            if (e.getCause() instanceof SQLException && error == null) {
+                error = (SQLException) e.getCause();
+            }
+            throw e.getCause();
+        }
+    }
+
+    /**
+     * Method which checks every step of the stage succeeded.
+     *
+     * @throws SQLException a statement failed or a step asked to roll back
+     */
+    void checkSucceeded() throws SQLException {
+
+        if (error != null) {
+            throw new SQLException("a step of the stage failed: " + error.getMessage(), error);
+        }
+        if (rollbackRequested) {
+            throw new SQLException("a step of the stage rolled back");
+        }
+    }
+
+}
@@ -1,7 +1,6 @@
 package Database;
 
 import Utils.DBUtils;
-import Utils.RandomNumberGenerator;
 import java.sql.*;
 import java.util.*;
 
@@ -9,7 +8,9 @@ import java.util.*;
  * Class contains the method to standardise the non-numeric
  * data into arbitrary float values between 0 and 1. All
  * distinct values in a particular column will be assigned
- * a random float value.
+ * a float value from the column's CategoryDictionary, which
+ * is saved so the same value is given the same float on
+ * every run.
  *
  * @author Alex Kelly
  */
@@ -19,7 +20,7 @@ public class StandardiseNonNumeric {
      * Method for standardising non-numeric column with
      * arbitrary normalised value (between 0-1). This
      * method is for the non numeric columns that have a
-     * winner and loser column.
+     * winner and loser column, which share one dictionary.
      *
      * @param colName the column being standardised
      */
@@ -29,73 +30,8 @@ public class StandardiseNonNumeric {
             throw new IllegalArgumentException("invalid col name '" + colName + "'");
         }
 
-        String loserColName = "loser_"+colName;
-        String winnerColName = "winner_"+colName;
-
-        //add distinct values to sets so as duplicates aren't allowed
-        Set<String> colValuesSet = new HashSet<>();
-        Set<Float> colFloatSet = new HashSet<>();
-
-        String selectW = "SELECT DISTINCT " + winnerColName + " FROM training_data;";
-        String selectL = "SELECT DISTINCT " + loserColName + " FROM training_data;";
-
-        //establish connection and create rs of distinct values
-        try (Connection conn = ConnectDB.connect();
-             PreparedStatement pstmtSelectW = conn.prepareStatement(selectW);
-             ResultSet rsw = pstmtSelectW.executeQuery();
-             PreparedStatement pstmtSelectL = conn.prepareStatement(selectL);
-             ResultSet rsl = pstmtSelectL.executeQuery()) {
-
-            //store distinct values in AL
-            while (rsw.next()) {
-                colValuesSet.add(rsw.getString(winnerColName));
-//                System.out.println(rs.getString(winnerColName)); //TEST *******
-            }
-
-            while (rsl.next()) {
-                colValuesSet.add(rsl.getString(loserColName));
-//                System.out.println(rs.getString(loserColName)); //TEST *******
-            }
-
-            //create a random float for each distinct value
-            int size = colValuesSet.size();
-            int x = 0;
-            while (x < size) {
-                float r = RandomNumberGenerator.randomise();
-                colFloatSet.add(r);
-                x++;
-            }
-
-            List colValuesList = new ArrayList(colValuesSet);
-            List colFloatList = new ArrayList(colFloatSet);
-
-            /*
-             * execute query to update all entries with the same value
-             * as col.get(i) in db table with the arbitrary float assigned
-             */
-            for (int i = 0; i < size; i++) {
-                String updateColW = "UPDATE training_data SET " + winnerColName + " = '" + colFloatList.get(i) +
-                        "' WHERE " + winnerColName + " = '" + colValuesList.get(i) + "';";
-                String updateColL = "UPDATE training_data SET " + loserColName + " = '" + colFloatList.get(i) +
-                        "' WHERE " + loserColName + " = '" + colValuesList.get(i) + "';";
-
-                System.out.println(colValuesList.get(i) + " = " + colFloatList.get(i)); //test
-
-                try (PreparedStatement pstmtUpdateW = conn.prepareStatement(updateColW);
-                     PreparedStatement pstmtUpdateL = conn.prepareStatement(updateColL)) {
-
-                    pstmtUpdateW.executeUpdate();
-                    pstmtUpdateL.executeUpdate();
-
-                } catch (SQLException e) {
-                    System.err.println("Error standardising " + colName + ":" + e.getMessage());
-                }
-            }
-
-        } catch (SQLException e) {
-            System.out.println("Error standardising " + colName + ":" + e);
-        }
-        System.out.println("column -> " + loserColName + " and " + winnerColName + " standardised to arbitrary float values between 0-1");
+        standardise(colName, new String[]{"winner_" + colName, "loser_" + colName});
+        System.out.println("column -> loser_" + colName + " and winner_" + colName + " standardised to arbitrary float values between 0-1");
     }
 
     /**
@@ -115,54 +51,68 @@ public class StandardiseNonNumeric {
             throw new IllegalArgumentException("invalid col name '" + colName + "', options are " + Arrays.toString(cols));
         }
 
-        List<String> col = new ArrayList<>();
-        List<Float> colFloat = new ArrayList<>();
-
-        String select = "SELECT DISTINCT " + colName + " FROM training_data;";
-
-        //establish connection and create rs of distinct values
-        try (Connection conn = ConnectDB.connect();
-             PreparedStatement pstmtSelect = conn.prepareStatement(select);
-             ResultSet rs = pstmtSelect.executeQuery()) {
-
-            //store distinct values in AL
-            while (rs.next()) {
-                col.add(rs.getString(colName));
-//                System.out.println(rs.getString(colName)); //TEST *******
-            }
+        standardise(colName, new String[]{colName});
+        System.out.println("column -> " + colName + " standardised to arbitrary float value between 0-1");
+    }
 
-            //create a random float for each distinct value
-            int size = col.size();
-            int x = 0;
-            while (x < size) {
-                float r = RandomNumberGenerator.randomise();
-                colFloat.add(r);
-                x++;
-            }
+    /**
+     * Helper method which, in one transaction, loads the saved dictionary,
+     * adds any distinct values it doesn't have yet, saves it, and then
+     * replaces the values of each column with one UPDATE joined to the
+     * dictionary.
+     *
+     * @param dictionaryName name the dictionary is saved under
+     * @param colNames the columns standardised with it
+     */
+    private void standardise(String dictionaryName, String[] colNames) {
 
-            /*
-             * execute query to update all entries with the same value
-             * as col.get(i) in db table with the arbitrary float assigned
-             */
-            for (int i = 0; i < size; i++) {
-                String updateColW = "UPDATE training_data SET " + colName + " = '" + colFloat.get(i) +
-                        "' WHERE " + colName + " = '" + col.get(i) + "';";
+        //distinct values of every column, sorted so clashes are always settled in the same order
+        StringBuilder selectSQL = new StringBuilder();
+        for (String col : colNames) {
+            selectSQL.append(selectSQL.length() == 0 ? "" : " UNION ")
+                    .append("SELECT rtrim(").append(col).append(") AS value FROM training_data");
+        }
+        selectSQL.append(" ORDER BY value;");
 
-                System.out.println(col.get(i) + " = " + colFloat.get(i)); //test
+        try (Connection conn = ConnectDB.connect()) {
 
-                try (PreparedStatement pstmtUpdateW = conn.prepareStatement(updateColW)) {
+            conn.setAutoCommit(false); //dictionary and columns are updated together or not at all
 
-                    pstmtUpdateW.executeUpdate();
+            try {
+                CategoryDictionary dictionary = CategoryDictionary.load(conn, dictionaryName);
+                int saved = dictionary.getSize();
 
-                } catch (SQLException e) {
-                    System.err.println("Error standardising " + colName + ":" + e.getMessage());
+                try (PreparedStatement pstmtSelect = conn.prepareStatement(selectSQL.toString());
+                     ResultSet rs = pstmtSelect.executeQuery()) {
+                    while (rs.next()) {
+                        dictionary.encode(rs.getString("value"));
+                    }
                 }
+                dictionary.save(conn);
+                System.out.println(dictionaryName + " dictionary: " + saved + " saved values, " +
+                        (dictionary.getSize() - saved) + " added");
+
+                //CHAR columns are padded, so values are trimmed before they are matched
+                for (String col : colNames) {
+                    String updateSQL = "UPDATE training_data SET " + col + " = d.encoded_value::text " +
+                            "FROM category_dictionary d WHERE d.col_name = ? AND d.category = rtrim(training_data." +
+                            col + ");";
+                    try (PreparedStatement pstmtUpdate = conn.prepareStatement(updateSQL)) {
+                        pstmtUpdate.setString(1, dictionaryName);
+                        pstmtUpdate.executeUpdate();
+                    }
+                }
+                conn.commit();
+
+            } catch (SQLException e) {
+                conn.rollback();
+                throw e;
             }
 
         } catch (SQLException e) {
-            System.out.println("Error standardising " + colName + ":" + e);
+            System.err.println("Error standardising " + dictionaryName + ": " + e);
+            e.printStackTrace();
         }
-        System.out.println("column -> " + colName + " standardised to arbitrary float value between 0-1");
     }
 
     /**
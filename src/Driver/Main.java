@@ -2,7 +2,6 @@ package Driver;
 
 import Database.*;
 import Network.*;
-import Utils.DBUtils;
 import Utils.NeuralNetworkUtils;
 
 import java.util.Arrays;
@@ -16,74 +15,124 @@ public class Main {
 
     public static void main(String[] args) {
 
+        /*
+         * the database steps run as stages of a PipelineRunner: each stage is
+         * one transaction, and a run that fails part way resumes from the
+         * stage that failed the next time the program is run
+         */
+        PipelineRunner pipeline = new PipelineRunner();
+//        pipeline.reset(); //uncomment to rebuild everything from the CSV files
+
         //create database tables:
         CreateTables tableCreator = new CreateTables(); //create object
-        tableCreator.createTrainingData();
+        pipeline.addStage("create_tables", () -> {
+            tableCreator.dropDataTables(); //left over from an earlier run
+            tableCreator.createTrainingData();
+        });
 
-        //read in the CSV files:
+        //read in the CSV files (each year on its own connection, so emptied first to be safe to re-run):
         ReadFiles fileReader = new ReadFiles(); //create object
-        fileReader.readCSVTraining(); //read in training data
+        pipeline.addNonTransactionalStage("read_files", () -> {
+            tableCreator.emptyTrainingData();
+            fileReader.readCSVTraining(); //read in training data
+            if (!fileReader.getFailedYears().isEmpty()) {
+                throw new IllegalStateException("could not load years " + fileReader.getFailedYears());
+            }
+        });
 
 ///////////////////////////////////////////////////////////////////////
 
         //clean the database:
         CleanDatabase DBCleaner = new CleanDatabase(); //create object
+        pipeline.addStage("clean", () -> {
+            DBCleaner.deleteUnneededColumns();
 
-        DBCleaner.deleteUnneededColumns();
-
-        DBCleaner.removeLowerRankedPlayers(); //removes players below rank 50
+            DBCleaner.removeLowerRankedPlayers(); //removes players below rank 50
 
-        DBCleaner.convertBlankToNull("winner_seed"); //winner seed blanks to null
-        DBCleaner.convertBlankToNull("loser_seed"); //loser seed blanks to null
+            DBCleaner.convertBlankToNull("winner_seed"); //winner seed blanks to null
+            DBCleaner.convertBlankToNull("loser_seed"); //loser seed blanks to null
 
-        DBCleaner.removeBlankValues(); //removes blank vals from all but w/l_seed
+            DBCleaner.removeBlankValues(); //removes blank vals from all but w/l_seed
 
-        DBCleaner.addUniqueMatchID(); //add pkey
+            DBCleaner.addUniqueMatchID(); //add pkey
 
-        DBCleaner.createOutputColumns(); //creates two output columns
+            DBCleaner.createOutputColumns(); //creates two output columns
+        });
 
 /////////////////////////////////////////////////////////////////////////////
 
         //standardise non-numeric data:
         StandardiseNonNumeric nonNumeric = new StandardiseNonNumeric(); //create object
-
-        nonNumeric.standardiseIndividualCol("tourney_level");
-        nonNumeric.standardiseIndividualCol("surface");
-        nonNumeric.standardiseIndividualCol("tourney_name");
-        nonNumeric.standardiseIndividualCol("round");
-        //winner and loser updated
-        nonNumeric.standardiseWinnerLoserCol("hand");
-        nonNumeric.standardiseWinnerLoserCol("ioc");
+        pipeline.addStage("standardise", () -> {
+            nonNumeric.standardiseIndividualCol("tourney_level");
+            nonNumeric.standardiseIndividualCol("surface");
+            nonNumeric.standardiseIndividualCol("tourney_name");
+            nonNumeric.standardiseIndividualCol("round");
+            //winner and loser updated
+            nonNumeric.standardiseWinnerLoserCol("hand");
+            nonNumeric.standardiseWinnerLoserCol("ioc");
+        });
 
 ///////////////////////////////////////////////////////////////////////////
         //normalise numeric data
         Normalise numeric = new Normalise(); //create object
-
-        numeric.unseeded(); //update unseeded players to seed 40
-
-        numeric.updateColType("loser_ht");
-        numeric.updateColType("winner_ht");
-        numeric.updateColType("draw_size");
-        numeric.updateColType("winner_rank");
-        numeric.updateColType("loser_rank");
-        numeric.updateColType("winner_seed");
-        numeric.updateColType("loser_seed");
-        numeric.updateColType("best_of");
-
-        numeric.normaliseValues("draw_size");
-        numeric.normaliseValues("best_of");
-        //winner and loser updated
-        numeric.normaliseWinnerLoser("rank");
-        numeric.normaliseWinnerLoser("seed");
-        numeric.normaliseWinnerLoser( "ht");
+        pipeline.addStage("normalise", () -> {
+            numeric.unseeded(); //update unseeded players to seed 40
+
+            numeric.updateColType("loser_ht");
+            numeric.updateColType("winner_ht");
+            numeric.updateColType("draw_size");
+            numeric.updateColType("winner_rank");
+            numeric.updateColType("loser_rank");
+            numeric.updateColType("winner_seed");
+            numeric.updateColType("loser_seed");
+            numeric.updateColType("best_of");
+
+            numeric.normaliseValues("draw_size");
+            numeric.normaliseValues("best_of");
+            //winner and loser updated
+            numeric.normaliseWinnerLoser("rank");
+            numeric.normaliseWinnerLoser("seed");
+            numeric.normaliseWinnerLoser( "ht");
+        });
 
 /////////////////////////////////////////////////////////////////////////////
 
         //finalise:
         FinaliseDatabase finaliser = new FinaliseDatabase(); //create object
+        pipeline.addStage("finalise", finaliser::addTestData);
+
+        if (!pipeline.run()) {
+            return; //the error has been printed, the next run resumes from the failed stage
+        }
 
-        finaliser.addTestData();
+/////////////////////////////////////////////////////////////////////////////
 
+//        /* *********************************** IN-MEMORY PIPELINE *********************************** */
+//
+//        //(alternative to all of the database steps above, no database needed)
+//        //the same cleaning, standardising and normalising carried out on the CSV rows in memory
+//        CSVPipeline pipeline = new CSVPipeline();
+//        pipeline.run();
+//        pipeline.writeSets("Files/training_data.nnds", "Files/test_data.nnds");
+//        NetworkData trainingSet = pipeline.getTrainingSet();
+//        NetworkData testSet = pipeline.getTestSet();
+//
+//        /* ********************************* INCREMENTAL INGEST ********************************* */
+//
+//        //(once the database steps have run, adds a new batch of results without rebuilding)
+//        //the new rows are encoded with the saved dictionaries and scaling params
+//        NetworkData newRows = new IncrementalIngest().ingest("Files/atp_matches_new.csv");
+//        if (newRows != null && newRows.getSize() > 0) {
+//            //update the newest saved version of the network on the new rows plus a replayed sample
+//            //of the history, saved as the next version (e.g. Files/ANN100-v3.txt after -v2) instead
+//            //of training from scratch
+//            NetworkData history = NetworkDataFile.read("Files/training_data.nnds");
+//            int replayRows = Math.min(history.getSize(), 4 * newRows.getSize());
+//            TrainNetwork.fineTune("Files/ANN100.txt", newRows, history, replayRows, 5, 16, 1);
+//            NetworkDataFile.append(newRows, "Files/training_data.nnds");
+//        }
+//
 /////////////////////////////////////////////////////////////////////////////
 /////////////////////////////////////////////////////////////////////////////
 
@@ -103,6 +152,13 @@ public class Main {
         NetworkData testSet = new NetworkData(); //initialise test data
         networkDataCreator.createNetworkData(testSet, "test_data"); //create data to test network on
 
+        //save both sets so later runs (e.g. a hyper-parameter search) can load them without the database
+        float[][] scalingParams = Normalise.returnScalingParams(CreateNetworkData.INPUT_COLUMNS);
+        NetworkDataFile.write(trainingSet, CreateNetworkData.INPUT_COLUMNS, scalingParams[0], scalingParams[1],
+                "Files/training_data.nnds");
+        NetworkDataFile.write(testSet, CreateNetworkData.INPUT_COLUMNS, scalingParams[0], scalingParams[1],
+                "Files/test_data.nnds");
+
         //print the set all together
 //        NeuralNetworkUtils.print2DArray(trainingSet.getInputArray(), "training input", trainingSet.getOutputArray(), "training output");
 //        NeuralNetworkUtils.print2DArray(testSet.getInputArray(), "test input", testSet.getOutputArray(), "test output");
@@ -113,7 +169,7 @@ public class Main {
         TrainNetwork.train(trainingSet, epochs, network);
 
         //needed to print expected and actual output for each row
-        int trainingRows = DBUtils.countRows("training_data");
+        int trainingRows = trainingSet.getSize();
         //post training: iterate through actual outputs and print
         for (int i = 0; i < trainingRows; i++) {
             if (i % 100 == 0) {
@@ -162,12 +218,25 @@ public class Main {
 
 
 
+//        /* ********************************* HYPER-PARAMETER SEARCH ********************************* */
+//
+//        //(leave commented out unless searching for a better network configuration)
+//        NetworkData trainingSet = NetworkDataFile.read("Files/training_data.nnds");
+//        NetworkData testSet = NetworkDataFile.read("Files/test_data.nnds");
+//        List<NetworkConfig> configs = HyperParameterSearch.grid(NetworkConstants.INPUT_LAYER_SIZE,
+//                NetworkConstants.OUTPUT_LAYER_SIZE, new int[][]{{10, 7}, {16, 8}, {12}, {20, 10, 5}},
+//                new float[]{0.05f, 0.1f, 0.3f, 0.5f}, new Activation[]{Activation.SIGMOID, Activation.TANH});
+//        HyperParameterSearch search = new HyperParameterSearch(trainingSet, testSet, epochs, 16, 10);
+//        HyperParameterSearch.printResults(search.run(configs), 10);
+//
+/////////////////////////////////////////////////////////////////////////////
+
 //          //(leave commented out unless running logical operator code)
 //
 //        /* ************************************ LOGICAL OPERATORS ************************************* */
 //
 //        //The following is to test the network on Logical operators:
-//        //must modify NetworkConstants.NEURONS_PER_LAYER to the param below
+//        //any topology can be passed, NetworkConstants.NEURONS_PER_LAYER is only the default
 //        NeuralNetwork network = new NeuralNetwork(new int[]{2, 2, 1});
 //
 //        float[][] input = new float[][]{
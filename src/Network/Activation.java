@@ -0,0 +1,147 @@
+package Network;
+
+/**
+ * The activation functions a layer of the network can use. Each
+ * layer applies its function to the whole layer at once (needed for
+ * softmax, where every output depends on the rest of the layer), and
+ * the derivative is calculated from the output of a neuron only when
+ * backpropagating, so predicting never pays for it.
+ *
+ * -> SIGMOID: 1 / (1 + e^-x), calculated in the mode set in the NetworkConfig
+ * -> TANH: hyperbolic tangent
+ * -> RELU: max(0, x)
+ * -> LEAKY_RELU: x, or 0.01x when x is negative
+ * -> SOFTMAX: e^x / sum of e^x over the layer, for the output layer
+ *
+ * @author Alex Kelly
+ */
+public enum Activation {
+
+    SIGMOID {
+        @Override
+        public void activate(float[] values, int offset, int length) {
+            for (int i = offset; i < offset + length; i++) {
+                values[i] = ActivationFunction.sigmoid(values[i]);
+            }
+        }
+
+        @Override
+        public void activate(float[] values, int offset, int length, ActivationFunction.Sigmoid sigmoid) {
+            sigmoid.activate(values, offset, length);
+        }
+
+        @Override
+        public float derivative(float output) {
+            return ActivationFunction.derivativeSigmoid(output);
+        }
+    },
+
+    TANH {
+        @Override
+        public void activate(float[] values, int offset, int length) {
+            for (int i = offset; i < offset + length; i++) {
+                values[i] = (float) Math.tanh(values[i]);
+            }
+        }
+
+        @Override
+        public float derivative(float output) {
+            return 1 - output * output;
+        }
+    },
+
+    RELU {
+        @Override
+        public void activate(float[] values, int offset, int length) {
+            for (int i = offset; i < offset + length; i++) {
+                values[i] = Math.max(0f, values[i]);
+            }
+        }
+
+        @Override
+        public float derivative(float output) {
+            return output > 0 ? 1f : 0f;
+        }
+    },
+
+    LEAKY_RELU {
+        @Override
+        public void activate(float[] values, int offset, int length) {
+            for (int i = offset; i < offset + length; i++) {
+                float x = values[i];
+                values[i] = x > 0 ? x : LEAKY_SLOPE * x;
+            }
+        }
+
+        @Override
+        public float derivative(float output) {
+            return output > 0 ? 1f : LEAKY_SLOPE;
+        }
+    },
+
+    /**
+     * The derivative of each softmax output depends on every output in
+     * the layer, so derivative only gives the diagonal term o * (1 - o);
+     * NeuralNetwork applies the full Jacobian when backpropagating.
+     */
+    SOFTMAX {
+        @Override
+        public void activate(float[] values, int offset, int length) {
+            //subtract the largest value first so exp cannot overflow
+            float max = Float.NEGATIVE_INFINITY;
+            for (int i = offset; i < offset + length; i++) {
+                max = Math.max(max, values[i]);
+            }
+            float sum = 0;
+            for (int i = offset; i < offset + length; i++) {
+                values[i] = (float) Math.exp(values[i] - max);
+                sum += values[i];
+            }
+            for (int i = offset; i < offset + length; i++) {
+                values[i] /= sum;
+            }
+        }
+
+        @Override
+        public float derivative(float output) {
+            return output * (1 - output);
+        }
+    };
+
+    //slope of LEAKY_RELU for negative inputs
+    public static final float LEAKY_SLOPE = 0.01f;
+
+    /**
+     * Method which replaces the summed inputs of a layer with the
+     * layer's outputs.
+     *
+     * @param values the array holding the layer
+     * @param offset index of the first neuron of the layer
+     * @param length number of neurons in the layer
+     */
+    public abstract void activate(float[] values, int offset, int length);
+
+    /**
+     * Method which replaces the summed inputs of a layer with the
+     * layer's outputs, calculating the sigmoid in the network's own
+     * mode (the other functions ignore it).
+     *
+     * @param values the array holding the layer
+     * @param offset index of the first neuron of the layer
+     * @param length number of neurons in the layer
+     * @param sigmoid the network's sigmoid
+     */
+    public void activate(float[] values, int offset, int length, ActivationFunction.Sigmoid sigmoid) {
+        activate(values, offset, length);
+    }
+
+    /**
+     * Method for calculating the derivative of the activation function
+     * from the output of a neuron.
+     *
+     * @param output the output of the neuron
+     * @return the derivative at that output
+     */
+    public abstract float derivative(float output);
+
+}
@@ -6,21 +6,117 @@ package Network;
  * -> Sigmoid activation function (network transfer function)
  * -> Derivative of the Sigmoid function
  *
+ * The sigmoid can be calculated in one of three modes, chosen per
+ * network in its NetworkConfig (so networks in the same program can
+ * use different modes):
+ *
+ * -> EXACT: calculated in double precision (the default)
+ * -> FLOAT: calculated in float precision, with a float exponential
+ *          (expFloat) in place of Math.exp
+ * -> LOOKUP: linearly interpolated from a precomputed table, built
+ *            so the result is never further than a given maximum
+ *            error from the exact value
+ *
  * @author Alex Kelly
  */
 public class ActivationFunction {
 
+    /**
+     * The ways the sigmoid function can be calculated.
+     */
+    public enum SigmoidMode { EXACT, FLOAT, LOOKUP }
+
+    //maximum error of the lookup table if none is given
+    public static final float DEFAULT_MAX_ERROR = 1e-4f;
+
+    //largest value of the second derivative of the sigmoid, 1 / (6 * sqrt(3))
+    private static final double MAX_SECOND_DERIVATIVE = 1 / (6 * Math.sqrt(3));
+
+    private static final float LOG2_E = 1.44269504f;
+    //ln 2 split in two, the first part exact in a float with zeros in its low bits, so k * LN2_HI is exact
+    private static final float LN2_HI = 0.693145752f;
+    private static final float LN2_LO = 1.42860677e-6f;
+    //beyond these e^x overflows or underflows a float
+    private static final float EXP_MAX = 88f;
+    private static final float EXP_MIN = -87f;
+
+    /**
+     * Method for creating a sigmoid calculated in the given mode.
+     *
+     * @param sigmoidMode how the sigmoid is calculated
+     * @param maxError the largest difference allowed between the lookup
+     *                 table and the exact sigmoid (only used for LOOKUP)
+     * @return the sigmoid
+     * @throws IllegalArgumentException max error must be between 0 and 0.5
+     */
+    public static Sigmoid sigmoid(SigmoidMode sigmoidMode, float maxError) {
+
+        return new Sigmoid(sigmoidMode, maxError);
+    }
+
     /**
      * Method for calculating the sigmoid function of an input value
+     * exactly, the same as the EXACT mode.
      *
      * @param x the input value
      * @return the sigmoid value of the input value (as a float)
      */
     public static float sigmoid(float x) {
+
+        return sigmoidExact(x);
+    }
+
+    /**
+     * Method for calculating the sigmoid function of an input value
+     * in double precision.
+     *
+     * @param x the input value
+     * @return the sigmoid value of the input value (as a float)
+     */
+    public static float sigmoidExact(float x) {
          double d = 1d / (1 + Math.exp(-x));
          return (float) d;
     }
 
+    /**
+     * Method for calculating the sigmoid function of an input value
+     * in float precision only, exponential included.
+     *
+     * @param x the input value
+     * @return the sigmoid value of the input value (as a float)
+     */
+    public static float sigmoidFloat(float x) {
+        return 1f / (1f + expFloat(-x));
+    }
+
+    /**
+     * Method for calculating e^x in float precision, as Math only has
+     * a double version. x is split into k * ln 2 + r with |r| <= ln 2 / 2,
+     * e^r is found from its Taylor series up to r^6 (the next term is
+     * under 1.3e-7, about one float ulp) and is then scaled by 2^k by
+     * setting the exponent bits directly.
+     *
+     * @param x the input value
+     * @return e^x, within a few ulps (0 or infinity outside a float's range)
+     */
+    public static float expFloat(float x) {
+
+        if (x > EXP_MAX) {
+            return Float.POSITIVE_INFINITY;
+        }
+        if (x < EXP_MIN) {
+            return 0f;
+        }
+        if (Float.isNaN(x)) {
+            return x;
+        }
+
+        int k = Math.round(x * LOG2_E);
+        float r = (x - k * LN2_HI) - k * LN2_LO;
+        float er = 1f + r * (1f + r * (1f / 2 + r * (1f / 6 + r * (1f / 24 + r * (1f / 120 + r * (1f / 720))))));
+        return er * Float.intBitsToFloat((k + 127) << 23); //2^k, k is between -126 and 127 here
+    }
+
     /**
      * Method for calculating the derivative of the sigmoid function
      *
@@ -30,4 +126,117 @@ public class ActivationFunction {
     public static float derivativeSigmoid(float x) {
         return x * (1 - x);
     }
+
+    /**
+     * A sigmoid calculated in one mode. Each network creates its own
+     * from its configuration, so changing one network's mode never
+     * affects another.
+     */
+    public static final class Sigmoid {
+
+        private final SigmoidMode mode;
+        private final SigmoidTable table; //only built for LOOKUP
+
+        private Sigmoid(SigmoidMode mode, float maxError) {
+
+            if (mode == SigmoidMode.LOOKUP) {
+                if (!(maxError > 0 && maxError < 0.5f)) {
+                    throw new IllegalArgumentException("max error must be between 0 and 0.5, was " + maxError);
+                }
+                this.table = new SigmoidTable(maxError);
+            } else {
+                this.table = null;
+            }
+            this.mode = mode;
+        }
+
+        /**
+         * Method for calculating the sigmoid function of an input value
+         * in this sigmoid's mode.
+         *
+         * @param x the input value
+         * @return the sigmoid value of the input value (as a float)
+         */
+        public float apply(float x) {
+
+            switch (mode) {
+                case FLOAT:
+                    return sigmoidFloat(x);
+                case LOOKUP:
+                    return table.lookup(x);
+                default:
+                    return sigmoidExact(x);
+            }
+        }
+
+        /**
+         * Method which replaces each value in part of an array with
+         * its sigmoid.
+         *
+         * @param values the array
+         * @param offset index of the first value
+         * @param length number of values
+         */
+        public void activate(float[] values, int offset, int length) {
+
+            for (int i = offset; i < offset + length; i++) {
+                values[i] = apply(values[i]);
+            }
+        }
+
+        /**
+         * Method for returning the mode the sigmoid is calculated in.
+         *
+         * @return the mode
+         */
+        public SigmoidMode getMode() {
+
+            return mode;
+        }
+    }
+
+    /**
+     * Table of sigmoid values at evenly spaced points between -range
+     * and range. The error of linear interpolation between two points
+     * h apart is at most h^2 / 8 * max|f''|, so the spacing is chosen
+     * to keep that within the maximum error. Outside the range the
+     * sigmoid is within half the maximum error of 0 or 1, so the end
+     * values of the table are returned.
+     */
+    private static final class SigmoidTable {
+
+        private final float[] values;
+        private final float range;
+        private final float inverseStep;
+
+        private SigmoidTable(float maxError) {
+
+            //half the error allowed for interpolation or clamping, half for rounding to float
+            double error = maxError / 2d;
+            double step = Math.sqrt(8 * error / MAX_SECOND_DERIVATIVE);
+            this.range = (float) Math.log((1 - error) / error);
+
+            int points = (int) Math.ceil(2 * range / step) + 1;
+            this.inverseStep = (points - 1) / (2 * range);
+            this.values = new float[points + 1]; //one extra so the last point can be interpolated
+
+            for (int i = 0; i < values.length; i++) {
+                values[i] = sigmoidExact(-range + i / inverseStep);
+            }
+        }
+
+        private float lookup(float x) {
+
+            if (x <= -range) {
+                return values[0];
+            }
+            if (x >= range) {
+                return values[values.length - 2];
+            }
+            float position = (x + range) * inverseStep;
+            int i = (int) position;
+            float fraction = position - i;
+            return values[i] + fraction * (values[i + 1] - values[i]);
+        }
+    }
 }
@@ -0,0 +1,183 @@
+package Network;
+
+import Database.ConnectDB;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+
+/**
+ * Class which streams the training or test data from the database
+ * a chunk of rows at a time. Each pass runs the query with auto
+ * commit off and a fetch size of one chunk, so the postgres driver
+ * uses a cursor and only fetches a chunk of rows from the server at
+ * a time, instead of the whole table.
+ *
+ * @author Alex Kelly
+ */
+public class DatabaseNetworkDataSource implements NetworkDataSource {
+
+    private final String tableName;
+    private final int chunkRows; //maximum rows read per chunk
+
+    //the current pass, null before the first reset
+    private Connection conn;
+    private PreparedStatement pstmt;
+    private ResultSet rs;
+
+    /**
+     * CONSTRUCTOR
+     *
+     * @param tableName table to read, training_data or test_data
+     * @param chunkRows maximum number of rows held in memory at once
+     * @throws IllegalArgumentException invalid table name or chunk size
+     */
+    public DatabaseNetworkDataSource(String tableName, int chunkRows) {
+
+        if (!(tableName.equals("training_data") || tableName.equals("test_data"))) {
+            throw new IllegalArgumentException("invalid table name: " + tableName);
+        }
+        if (chunkRows < 1) {
+            throw new IllegalArgumentException("chunk must be at least 1 row, was " + chunkRows);
+        }
+
+        this.tableName = tableName;
+        this.chunkRows = chunkRows;
+    }
+
+    @Override
+    public int getInputSize() {
+
+        return CreateNetworkData.INPUT_COLUMNS.length;
+    }
+
+    @Override
+    public int getOutputSize() {
+
+        return CreateNetworkData.OUTPUT_COLUMNS.length;
+    }
+
+    /**
+     * Method for starting a new pass, closing the cursor of the
+     * previous pass and opening a new one.
+     *
+     * @throws IllegalStateException the query could not be run
+     */
+    @Override
+    public void reset() {
+
+        close();
+
+        String selectSQL = "SELECT " + String.join(", ", CreateNetworkData.INPUT_COLUMNS) + ", " +
+                String.join(", ", CreateNetworkData.OUTPUT_COLUMNS) + " FROM " + tableName + " ORDER BY match_id ASC;";
+
+        try {
+            conn = ConnectDB.connect();
+            //the driver only uses a cursor (and fetch size) inside a transaction
+            conn.setAutoCommit(false);
+            pstmt = conn.prepareStatement(selectSQL, ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY);
+            pstmt.setFetchSize(chunkRows);
+            rs = pstmt.executeQuery();
+        } catch (SQLException e) {
+            System.err.println("error reading from " + tableName);
+            e.printStackTrace();
+            close();
+            throw new IllegalStateException("could not start reading " + tableName, e);
+        }
+    }
+
+    /**
+     * Method for reading the next chunk of rows from the cursor.
+     *
+     * @param chunk the set the rows are read into, sized to match this source
+     * @return true if any rows were read, false once the pass is finished
+     * @throws IllegalStateException reset has not been called, or the
+     * rows could not be read
+     */
+    @Override
+    public boolean nextChunk(NetworkData chunk) {
+
+        chunk.clear();
+        return appendChunk(chunk);
+    }
+
+    /**
+     * Method for reading the next chunk of rows from the cursor onto
+     * the end of a set, writing each value straight into the set's
+     * blocks.
+     *
+     * @param set the set the rows are added to, sized to match this source
+     * @return true if any rows were read, false once the pass is finished
+     * @throws IllegalStateException reset has not been called, or the
+     * rows could not be read
+     */
+    boolean appendChunk(NetworkData set) {
+
+        if (rs == null) {
+            throw new IllegalStateException("reset must be called before reading " + tableName);
+        }
+        int inputSize = getInputSize();
+        int outputSize = getOutputSize();
+        if (set.getInputSize() != inputSize || set.getOutputSize() != outputSize) {
+            throw new IllegalArgumentException("set rows of " + set.getInputSize() + " inputs and " +
+                    set.getOutputSize() + " outputs do not match " + tableName);
+        }
+        int rows = 0;
+
+        try {
+            while (rows < chunkRows && rs.next()) {
+                int row = set.addEmptyRow();
+                //fetched after adding the row, as adding may grow the blocks
+                float[] inputs = set.getInputBlock();
+                float[] outputs = set.getOutputBlock();
+                try {
+                    for (int i = 0; i < inputSize; i++) {
+                        inputs[row * inputSize + i] = rs.getFloat(i + 1);
+                    }
+                    for (int i = 0; i < outputSize; i++) {
+                        outputs[row * outputSize + i] = rs.getFloat(inputSize + i + 1);
+                    }
+                } catch (SQLException e) {
+                    set.removeLastRow(); //don't leave a partly read row in the set
+                    throw e;
+                }
+                rows++;
+            }
+        } catch (SQLException e) {
+            System.err.println("error reading from " + tableName);
+            e.printStackTrace();
+            throw new IllegalStateException("could not read rows from " + tableName, e);
+        }
+
+        return rows > 0;
+    }
+
+    /**
+     * Method for closing the cursor and connection of the current pass.
+     */
+    @Override
+    public void close() {
+
+        try {
+            if (rs != null) {
+                rs.close();
+            }
+            if (pstmt != null) {
+                pstmt.close();
+            }
+            if (conn != null) {
+                conn.rollback(); //read only, nothing to keep
+                conn.close();
+            }
+        } catch (SQLException e) {
+            System.err.println("error closing connection to " + tableName);
+            e.printStackTrace();
+        } finally {
+            rs = null;
+            pstmt = null;
+            conn = null;
+        }
+    }
+
+}
@@ -0,0 +1,164 @@
+package Network;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Class which streams a file saved by NetworkDataFile a chunk of
+ * rows at a time, so only one chunk of the file is ever in memory.
+ * The inputs and outputs of each chunk are read with positional
+ * reads from their two blocks in the file, straight into the chunk's
+ * float blocks.
+ *
+ * @author Alex Kelly
+ */
+public class FileNetworkDataSource implements NetworkDataSource {
+
+    private final String fileName;
+    private final FileChannel channel;
+    private final NetworkDataFile.Header header;
+    private final int chunkRows; //maximum rows read per chunk
+
+    private final ByteBuffer buffer; //reused for every chunk
+
+    private int nextRow; //first row of the next chunk
+
+    /**
+     * CONSTRUCTOR
+     *
+     * @param fileName file saved by NetworkDataFile.write
+     * @param chunkRows maximum number of rows held in memory at once
+     * @throws IOException the file can't be opened or is not a network
+     * data file
+     * @throws IllegalArgumentException chunk must be at least 1 row
+     */
+    public FileNetworkDataSource(String fileName, int chunkRows) throws IOException {
+
+        if (chunkRows < 1) {
+            throw new IllegalArgumentException("chunk must be at least 1 row, was " + chunkRows);
+        }
+
+        this.fileName = fileName;
+        this.channel = FileChannel.open(Paths.get(fileName), StandardOpenOption.READ);
+        try {
+            this.header = NetworkDataFile.readHeader(channel);
+        } catch (IOException e) {
+            channel.close();
+            throw e;
+        }
+        this.chunkRows = chunkRows;
+
+        int inputSize = header.getInputSize();
+        int outputSize = header.getOutputSize();
+        this.buffer = ByteBuffer.allocateDirect(chunkRows * Math.max(inputSize, outputSize) * Float.BYTES)
+                .order(ByteOrder.LITTLE_ENDIAN);
+        this.nextRow = 0;
+    }
+
+    @Override
+    public int getInputSize() {
+
+        return header.getInputSize();
+    }
+
+    @Override
+    public int getOutputSize() {
+
+        return header.getOutputSize();
+    }
+
+    /**
+     * Method that returns the header of the file, e.g. for the total
+     * number of rows.
+     *
+     * @return the file's header
+     */
+    public NetworkDataFile.Header getHeader() {
+
+        return header;
+    }
+
+    @Override
+    public void reset() {
+
+        nextRow = 0;
+    }
+
+    /**
+     * Method for reading the next chunk of rows from the file.
+     *
+     * @param chunk the set the rows are read into, sized to match this source
+     * @return true if any rows were read, false once the pass is finished
+     * @throws IllegalStateException the file could not be read
+     * @throws IllegalArgumentException the chunk's rows don't match the file's
+     */
+    @Override
+    public boolean nextChunk(NetworkData chunk) {
+
+        int inputSize = header.getInputSize();
+        int outputSize = header.getOutputSize();
+        if (chunk.getInputSize() != inputSize || chunk.getOutputSize() != outputSize) {
+            throw new IllegalArgumentException("chunk rows of " + chunk.getInputSize() + " inputs and " +
+                    chunk.getOutputSize() + " outputs do not match " + fileName);
+        }
+
+        chunk.clear();
+        int rows = Math.min(chunkRows, header.getRows() - nextRow);
+        if (rows <= 0) {
+            return false;
+        }
+        chunk.addEmptyRows(rows);
+
+        long inputStart = header.getDataOffset();
+        long outputStart = inputStart + (long) header.getRows() * inputSize * Float.BYTES;
+
+        try {
+            read(inputStart + (long) nextRow * inputSize * Float.BYTES, chunk.getInputBlock(), rows * inputSize);
+            read(outputStart + (long) nextRow * outputSize * Float.BYTES, chunk.getOutputBlock(), rows * outputSize);
+        } catch (IOException e) {
+            chunk.clear(); //don't leave rows that were only partly read
+            System.err.println("error reading network data file: '" + fileName + "'");
+            e.printStackTrace();
+            throw new IllegalStateException("could not read rows from " + fileName, e);
+        }
+
+        nextRow += rows;
+        return true;
+    }
+
+    /**
+     * Helper method which reads floats from a position in the file.
+     *
+     * @param position byte offset of the first float
+     * @param values array the floats are read into
+     * @param length number of floats to read
+     */
+    private void read(long position, float[] values, int length) throws IOException {
+
+        buffer.clear();
+        buffer.limit(length * Float.BYTES);
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer, position + buffer.position()) < 0) {
+                throw new IOException("unexpected end of file");
+            }
+        }
+        buffer.flip();
+        buffer.asFloatBuffer().get(values, 0, length);
+    }
+
+    @Override
+    public void close() {
+
+        try {
+            channel.close();
+        } catch (IOException e) {
+            System.err.println("error closing network data file: '" + fileName + "'");
+            e.printStackTrace();
+        }
+    }
+
+}
@@ -0,0 +1,339 @@
+package Network;
+
+import java.util.*;
+import java.util.concurrent.*;
+
+/**
+ * Class for searching for the best network configuration. The
+ * training and test sets are loaded once and shared, read only,
+ * between all trials, and the trials are trained concurrently,
+ * each with its own network on one thread of a pool.
+ *
+ * Trials that are clearly losing are stopped early using the
+ * median stopping rule: every evaluateEvery epochs a trial records
+ * its mean sq error on the training set, and if it is worse than
+ * the median recorded by the other trials at the same epoch it is
+ * stopped. The test set is only used for the final accuracy, so
+ * stopping decisions never see it.
+ *
+ * The configurations can be listed by hand, or produced with grid
+ * or random.
+ *
+ * @author Alex Kelly
+ */
+public class HyperParameterSearch {
+
+    //trials that must have reached an epoch before any are stopped at it
+    private static final int MIN_TRIALS_TO_COMPARE = 3;
+
+    private final NetworkData trainingSet;
+    private final NetworkData testSet;
+    private final int epochs; //maximum epochs each trial is trained for
+    private final int batchSize; //rows per weight update
+    private final int evaluateEvery; //epochs between early stopping checks
+    private final int threads; //number of trials trained at once
+
+    //training set error of every trial at each checked epoch
+    private final ConcurrentMap<Integer, List<Float>> errorsAtEpoch = new ConcurrentHashMap<>();
+
+    /**
+     * CONSTRUCTOR
+     *
+     * Uses one thread per available processor.
+     *
+     * @param trainingSet data every trial is trained on
+     * @param testSet data every trial's accuracy is measured on
+     * @param epochs maximum number of epochs each trial is trained for
+     * @param batchSize number of rows per weight update
+     * @param evaluateEvery number of epochs between early stopping checks
+     */
+    public HyperParameterSearch(NetworkData trainingSet, NetworkData testSet, int epochs, int batchSize,
+                                int evaluateEvery) {
+        this(trainingSet, testSet, epochs, batchSize, evaluateEvery, Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     * CONSTRUCTOR
+     *
+     * @param trainingSet data every trial is trained on
+     * @param testSet data every trial's accuracy is measured on
+     * @param epochs maximum number of epochs each trial is trained for
+     * @param batchSize number of rows per weight update
+     * @param evaluateEvery number of epochs between early stopping checks
+     * @param threads number of trials trained at once
+     * @throws IllegalArgumentException epochs, batch size, evaluateEvery and
+     * threads must be positive, and both sets must have rows of the same size
+     */
+    public HyperParameterSearch(NetworkData trainingSet, NetworkData testSet, int epochs, int batchSize,
+                                int evaluateEvery, int threads) {
+
+        if (epochs < 1 || batchSize < 1 || evaluateEvery < 1 || threads < 1) {
+            throw new IllegalArgumentException("epochs, batch size, evaluateEvery and threads must be at least 1");
+        }
+        if (trainingSet.getInputSize() != testSet.getInputSize()
+                || trainingSet.getOutputSize() != testSet.getOutputSize()) {
+            throw new IllegalArgumentException("training and test set rows must be the same size");
+        }
+
+        this.trainingSet = trainingSet;
+        this.testSet = testSet;
+        this.epochs = epochs;
+        this.batchSize = batchSize;
+        this.evaluateEvery = evaluateEvery;
+        this.threads = threads;
+    }
+
+    /**
+     * Method for creating every combination of the given hidden
+     * layers, learning rates and hidden layer activation functions.
+     * The output layer always uses the sigmoid.
+     *
+     * @param inputSize number of input neurons
+     * @param outputSize number of output neurons
+     * @param hiddenLayers the hidden layer sizes to try, e.g. {10, 7}
+     * @param learningRates the learning rates to try
+     * @param hiddenActivations the hidden layer activation functions to try
+     * @return one configuration per combination
+     */
+    public static List<NetworkConfig> grid(int inputSize, int outputSize, int[][] hiddenLayers,
+                                           float[] learningRates, Activation[] hiddenActivations) {
+
+        List<NetworkConfig> configs = new ArrayList<>();
+        for (int[] hidden : hiddenLayers) {
+            for (float learningRate : learningRates) {
+                for (Activation activation : hiddenActivations) {
+                    configs.add(config(inputSize, outputSize, hidden, learningRate, activation));
+                }
+            }
+        }
+        return configs;
+    }
+
+    /**
+     * Method for creating randomly chosen configurations. The hidden
+     * layers and activation function are picked from those given, and
+     * the learning rate is drawn evenly on a log scale between the
+     * minimum and maximum, so each order of magnitude is tried as often.
+     *
+     * @param inputSize number of input neurons
+     * @param outputSize number of output neurons
+     * @param hiddenLayers the hidden layer sizes to pick from
+     * @param minLearningRate smallest learning rate
+     * @param maxLearningRate largest learning rate
+     * @param hiddenActivations the hidden layer activation functions to pick from
+     * @param trials number of configurations to create
+     * @param seed seed for the random choices, so a search can be repeated
+     * @return the random configurations
+     * @throws IllegalArgumentException learning rates must be positive with
+     * min no larger than max
+     */
+    public static List<NetworkConfig> random(int inputSize, int outputSize, int[][] hiddenLayers,
+                                             float minLearningRate, float maxLearningRate,
+                                             Activation[] hiddenActivations, int trials, long seed) {
+
+        if (!(minLearningRate > 0) || maxLearningRate < minLearningRate) {
+            throw new IllegalArgumentException("learning rates must be positive with min <= max, were " +
+                    minLearningRate + " and " + maxLearningRate);
+        }
+
+        Random random = new Random(seed);
+        double logMin = Math.log(minLearningRate);
+        double logMax = Math.log(maxLearningRate);
+
+        List<NetworkConfig> configs = new ArrayList<>();
+        for (int i = 0; i < trials; i++) {
+            int[] hidden = hiddenLayers[random.nextInt(hiddenLayers.length)];
+            float learningRate = (float) Math.exp(logMin + random.nextDouble() * (logMax - logMin));
+            Activation activation = hiddenActivations[random.nextInt(hiddenActivations.length)];
+            configs.add(config(inputSize, outputSize, hidden, learningRate, activation));
+        }
+        return configs;
+    }
+
+    /**
+     * Helper method which builds one configuration from its hidden
+     * layers, learning rate and hidden activation function.
+     */
+    private static NetworkConfig config(int inputSize, int outputSize, int[] hidden, float learningRate,
+                                        Activation hiddenActivation) {
+
+        int[] npl = new int[hidden.length + 2];
+        npl[0] = inputSize;
+        System.arraycopy(hidden, 0, npl, 1, hidden.length);
+        npl[npl.length -1] = outputSize;
+
+        Activation[] activations = new Activation[npl.length -1];
+        Arrays.fill(activations, hiddenActivation);
+        activations[activations.length -1] = Activation.SIGMOID;
+
+        return new NetworkConfig(npl, learningRate, activations);
+    }
+
+    /**
+     * Method for training and testing every configuration, several
+     * at once, and returning the results best first.
+     *
+     * @param configs the configurations to try
+     * @return one result per configuration, sorted by test accuracy
+     * (highest first), then by training error (lowest first)
+     * @throws IllegalArgumentException every configuration must match
+     * the size of the data
+     */
+    public List<Result> run(List<NetworkConfig> configs) {
+
+        for (NetworkConfig config : configs) {
+            if (config.getInputSize() != trainingSet.getInputSize()
+                    || config.getOutputSize() != trainingSet.getOutputSize()) {
+                throw new IllegalArgumentException("config " + config + " does not match data with " +
+                        trainingSet.getInputSize() + " inputs and " + trainingSet.getOutputSize() + " outputs");
+            }
+        }
+
+        errorsAtEpoch.clear();
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
+        List<Result> results = new ArrayList<>();
+
+        try {
+            List<Future<Result>> futures = new ArrayList<>();
+            for (NetworkConfig config : configs) {
+                futures.add(pool.submit(() -> runTrial(config)));
+            }
+            for (Future<Result> future : futures) {
+                results.add(future.get());
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("hyper-parameter search interrupted", e);
+        } catch (ExecutionException e) {
+            throw new IllegalStateException("hyper-parameter search trial failed", e.getCause());
+        } finally {
+            pool.shutdownNow();
+        }
+
+        results.sort(Comparator.comparing((Result r) -> r.accuracy).reversed()
+                .thenComparing(r -> r.meanSqError));
+        return results;
+    }
+
+    /**
+     * Method which trains one configuration until it has run for the
+     * maximum epochs or is stopped early, then measures its accuracy.
+     *
+     * @param config the configuration being tried
+     * @return the result of the trial
+     */
+    private Result runTrial(NetworkConfig config) {
+
+        NeuralNetwork network = new NeuralNetwork(config);
+        boolean stoppedEarly = false;
+        int epoch = 0;
+
+        while (epoch < epochs && !stoppedEarly) {
+            TrainNetwork.trainEpoch(trainingSet, batchSize, network);
+            epoch++;
+
+            if (epoch % evaluateEvery == 0 && epoch < epochs) {
+                stoppedEarly = isLosing(epoch, network.meanSqError(trainingSet));
+            }
+        }
+
+        return new Result(config, TestNetwork.accuracy(network, testSet), network.meanSqError(trainingSet),
+                epoch, stoppedEarly);
+    }
+
+    /**
+     * Method which records a trial's error at an epoch and decides
+     * whether it should be stopped, i.e. whether it is worse than the
+     * median of the other trials that have reached the same epoch.
+     *
+     * @param epoch the epoch the trial has reached
+     * @param error the trial's training set mean sq error
+     * @return true if the trial should be stopped
+     */
+    private boolean isLosing(int epoch, float error) {
+
+        List<Float> errors = errorsAtEpoch.computeIfAbsent(epoch, e -> new ArrayList<>());
+        float median;
+        synchronized (errors) {
+            int others = errors.size();
+            errors.add(error);
+            if (others < MIN_TRIALS_TO_COMPARE) {
+                return false;
+            }
+            float[] sorted = new float[others];
+            for (int i = 0; i < others; i++) {
+                sorted[i] = errors.get(i);
+            }
+            Arrays.sort(sorted);
+            median = others % 2 == 1 ? sorted[others / 2] : (sorted[others / 2 - 1] + sorted[others / 2]) / 2;
+        }
+        return error > median;
+    }
+
+    /**
+     * Method for printing the best results of a search.
+     *
+     * @param results results returned by run
+     * @param top number of results to print
+     */
+    public static void printResults(List<Result> results, int top) {
+
+        System.out.println("\n******************************************************************************");
+        System.out.println("                         HYPER-PARAMETER SEARCH");
+        System.out.println("******************************************************************************");
+        for (int i = 0; i < Math.min(top, results.size()); i++) {
+            System.out.println((i + 1) + ". " + results.get(i));
+        }
+        System.out.println("******************************************************************************");
+    }
+
+    /**
+     * The outcome of training and testing one configuration.
+     */
+    public static class Result {
+
+        private final NetworkConfig config;
+        private final float accuracy; //fraction of the test set predicted correctly
+        private final float meanSqError; //training set error when the trial finished
+        private final int epochsTrained;
+        private final boolean stoppedEarly;
+
+        private Result(NetworkConfig config, float accuracy, float meanSqError, int epochsTrained,
+                       boolean stoppedEarly) {
+
+            this.config = config;
+            this.accuracy = accuracy;
+            this.meanSqError = meanSqError;
+            this.epochsTrained = epochsTrained;
+            this.stoppedEarly = stoppedEarly;
+        }
+
+        public NetworkConfig getConfig() {
+            return config;
+        }
+
+        public float getAccuracy() {
+            return accuracy;
+        }
+
+        public float getMeanSqError() {
+            return meanSqError;
+        }
+
+        public int getEpochsTrained() {
+            return epochsTrained;
+        }
+
+        public boolean isStoppedEarly() {
+            return stoppedEarly;
+        }
+
+        @Override
+        public String toString() {
+
+            return String.format("accuracy = %.2f%%, mean sq error = %.5f, epochs = %d%s -> %s",
+                    accuracy * 100, meanSqError, epochsTrained, stoppedEarly ? " (stopped early)" : "", config);
+        }
+    }
+
+}
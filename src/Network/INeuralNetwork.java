@@ -29,6 +29,20 @@ public interface INeuralNetwork {
      */
     void updateWeights();
 
+    /**
+     * Method for adding the gradient of the current sample to the
+     * mini-batch gradient, without changing the weights.
+     */
+    void accumulateGradients();
+
+    /**
+     * Method for updating the weights with the accumulated mini-batch
+     * gradient.
+     *
+     * @param batchSize the number of samples in the batch
+     */
+    void applyGradients(int batchSize);
+
     /**
      * Method for calculating the mean square error of a data input.
      *
@@ -0,0 +1,114 @@
+package Network;
+
+import java.io.*;
+import java.util.Arrays;
+
+/**
+ * The fields of the original NeuralNetwork class, which saveANN wrote
+ * with Java serialization before NetworkModelFile was added. Files
+ * saved then are read into this class instead (the stream's class
+ * description is swapped for this one, so the fields must keep the
+ * same names and types) and converted into a NeuralNetwork.
+ *
+ * Only used for loading old files, never created otherwise.
+ *
+ * @author Alex Kelly
+ */
+class LegacyNeuralNetwork implements Serializable {
+
+    //serialVersionUID Java gave the original NeuralNetwork class, which didn't declare one
+    static final long SERIAL_VERSION_UID = -3824538067876744114L;
+    private static final long serialVersionUID = SERIAL_VERSION_UID;
+
+    private final int[] neuronsPerLayer;
+    private final int numLayers;
+    private float[][] outputFromNeuron;
+    private float[][][] weights; //[layer][neuron][previous layer neuron]
+    private float[][] bias;
+    private float[][] error;
+    private float[][] outputDerivativeSigmoid;
+
+    /**
+     * Private constructor so cannot be initialised, only read from a file
+     */
+    private LegacyNeuralNetwork() {
+        this.neuronsPerLayer = null;
+        this.numLayers = 0;
+    }
+
+    /**
+     * Method for reading a network saved by the original saveANN.
+     *
+     * @param fileName the file to read
+     * @return the network, with the weights and biases it was saved with
+     * @throws IOException the file doesn't hold an original NeuralNetwork
+     */
+    static NeuralNetwork read(String fileName) throws IOException {
+
+        try (ObjectInputStream is = new LegacyInputStream(new FileInputStream(fileName))) {
+
+            Object saved = is.readObject();
+            if (!(saved instanceof LegacyNeuralNetwork)) {
+                throw new IOException("'" + fileName + "' doesn't hold a network saved by the original saveANN");
+            }
+            return ((LegacyNeuralNetwork) saved).toNeuralNetwork();
+
+        } catch (ClassNotFoundException e) {
+            throw new IOException("'" + fileName + "' doesn't hold a network saved by the original saveANN", e);
+        }
+    }
+
+    /**
+     * Helper method which converts the saved network, flattening each
+     * layer's weights into the row-major block NeuralNetwork uses. The
+     * original network only had sigmoid layers and the learning rate in
+     * NetworkConstants.
+     */
+    private NeuralNetwork toNeuralNetwork() throws IOException {
+
+        if (neuronsPerLayer == null || weights == null || bias == null || neuronsPerLayer.length != numLayers) {
+            throw new IOException("saved network is incomplete");
+        }
+
+        try {
+            float[][] flatWeights = new float[numLayers][];
+            for (int layer = 1; layer < numLayers; layer++) {
+                int previous = neuronsPerLayer[layer -1];
+                flatWeights[layer] = new float[neuronsPerLayer[layer] * previous];
+                for (int neuron = 0; neuron < neuronsPerLayer[layer]; neuron++) {
+                    System.arraycopy(weights[layer][neuron], 0, flatWeights[layer], neuron * previous, previous);
+                }
+            }
+
+            Activation[] activations = new Activation[numLayers -1];
+            Arrays.fill(activations, Activation.SIGMOID);
+            return new NeuralNetwork(new NetworkConfig(neuronsPerLayer, NetworkConstants.LEARNING_RATE, activations),
+                    flatWeights, bias);
+
+        } catch (RuntimeException e) {
+            throw new IOException("saved network is corrupt", e);
+        }
+    }
+
+    /**
+     * Stream which reads the original NeuralNetwork as this class.
+     */
+    private static final class LegacyInputStream extends ObjectInputStream {
+
+        private LegacyInputStream(InputStream in) throws IOException {
+            super(in);
+        }
+
+        @Override
+        protected ObjectStreamClass readClassDescriptor() throws IOException, ClassNotFoundException {
+
+            ObjectStreamClass desc = super.readClassDescriptor();
+            if (desc.getName().equals(NeuralNetwork.class.getName())
+                    && desc.getSerialVersionUID() == SERIAL_VERSION_UID) {
+                return ObjectStreamClass.lookup(LegacyNeuralNetwork.class);
+            }
+            return desc;
+        }
+    }
+
+}
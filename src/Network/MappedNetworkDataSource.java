@@ -0,0 +1,168 @@
+package Network;
+
+import java.io.IOException;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Class which trains from a file saved by NetworkDataFile without
+ * loading it onto the heap. The input and output blocks are opened
+ * with FileChannel.map, so the file is only ever held in the page
+ * cache, and every process training from the same file shares that
+ * one copy. Opening a file only reads its header.
+ *
+ * Each chunk is copied from the mapping straight into the chunk's
+ * float blocks, the one copy the training methods need as they work
+ * on float arrays. getInputs and getOutputs give read-only views of
+ * the whole mapping, for reading rows without any copy.
+ *
+ * Each block must be under 2GB to be mapped; FileNetworkDataSource
+ * streams larger files.
+ *
+ * @author Alex Kelly
+ */
+public class MappedNetworkDataSource implements NetworkDataSource {
+
+    private final NetworkDataFile.Header header;
+    private final int chunkRows; //maximum rows copied per chunk
+
+    //read-only views of the mapped blocks
+    private final FloatBuffer inputs;
+    private final FloatBuffer outputs;
+
+    private int nextRow; //first row of the next chunk
+
+    /**
+     * CONSTRUCTOR
+     *
+     * @param fileName file saved by NetworkDataFile.write
+     * @param chunkRows maximum number of rows copied onto the heap at once
+     * @throws IOException the file can't be opened or mapped, or is not a
+     * network data file
+     * @throws IllegalArgumentException chunk must be at least 1 row
+     */
+    public MappedNetworkDataSource(String fileName, int chunkRows) throws IOException {
+
+        if (chunkRows < 1) {
+            throw new IllegalArgumentException("chunk must be at least 1 row, was " + chunkRows);
+        }
+
+        //the mappings stay valid once the channel is closed
+        try (FileChannel channel = FileChannel.open(Paths.get(fileName), StandardOpenOption.READ)) {
+
+            this.header = NetworkDataFile.readHeader(channel);
+            long inputBytes = (long) header.getRows() * header.getInputSize() * Float.BYTES;
+            long outputBytes = (long) header.getRows() * header.getOutputSize() * Float.BYTES;
+            if (inputBytes > Integer.MAX_VALUE || outputBytes > Integer.MAX_VALUE) {
+                throw new IOException("'" + fileName + "' is too large to map, use FileNetworkDataSource");
+            }
+
+            long inputStart = header.getDataOffset();
+            this.inputs = channel.map(FileChannel.MapMode.READ_ONLY, inputStart, inputBytes)
+                    .order(ByteOrder.LITTLE_ENDIAN).asFloatBuffer();
+            this.outputs = channel.map(FileChannel.MapMode.READ_ONLY, inputStart + inputBytes, outputBytes)
+                    .order(ByteOrder.LITTLE_ENDIAN).asFloatBuffer();
+        }
+        this.chunkRows = chunkRows;
+        this.nextRow = 0;
+    }
+
+    @Override
+    public int getInputSize() {
+
+        return header.getInputSize();
+    }
+
+    @Override
+    public int getOutputSize() {
+
+        return header.getOutputSize();
+    }
+
+    /**
+     * Method that returns the header of the file, e.g. for the total
+     * number of rows.
+     *
+     * @return the file's header
+     */
+    public NetworkDataFile.Header getHeader() {
+
+        return header;
+    }
+
+    /**
+     * Method that returns a read-only view of every input, laid out as
+     * in NetworkData's input block, read straight from the mapping.
+     *
+     * @return the inputs, row i starting at i * getInputSize()
+     */
+    public FloatBuffer getInputs() {
+
+        return inputs.asReadOnlyBuffer();
+    }
+
+    /**
+     * Method that returns a read-only view of every output, laid out as
+     * in NetworkData's output block, read straight from the mapping.
+     *
+     * @return the outputs, row i starting at i * getOutputSize()
+     */
+    public FloatBuffer getOutputs() {
+
+        return outputs.asReadOnlyBuffer();
+    }
+
+    @Override
+    public void reset() {
+
+        nextRow = 0;
+    }
+
+    /**
+     * Method for copying the next chunk of rows from the mapping.
+     *
+     * @param chunk the set the rows are copied into, sized to match this source
+     * @return true if any rows were copied, false once the pass is finished
+     * @throws IllegalArgumentException the chunk's rows don't match the file's
+     */
+    @Override
+    public boolean nextChunk(NetworkData chunk) {
+
+        int inputSize = header.getInputSize();
+        int outputSize = header.getOutputSize();
+        if (chunk.getInputSize() != inputSize || chunk.getOutputSize() != outputSize) {
+            throw new IllegalArgumentException("chunk rows of " + chunk.getInputSize() + " inputs and " +
+                    chunk.getOutputSize() + " outputs do not match the file");
+        }
+
+        chunk.clear();
+        int rows = Math.min(chunkRows, header.getRows() - nextRow);
+        if (rows <= 0) {
+            return false;
+        }
+        chunk.addEmptyRows(rows);
+
+        FloatBuffer in = inputs.duplicate();
+        in.position(nextRow * inputSize);
+        in.get(chunk.getInputBlock(), 0, rows * inputSize);
+        FloatBuffer out = outputs.duplicate();
+        out.position(nextRow * outputSize);
+        out.get(chunk.getOutputBlock(), 0, rows * outputSize);
+
+        nextRow += rows;
+        return true;
+    }
+
+    /**
+     * Method which does nothing, as the file was closed once it was
+     * mapped. The mapping is released once this source is no longer
+     * used.
+     */
+    @Override
+    public void close() {
+    }
+
+}
@@ -0,0 +1,241 @@
+package Network;
+
+import java.util.Arrays;
+
+/**
+ * Class which holds the shape and settings of one network: the
+ * number of neurons in each layer, the learning rate, the
+ * activation function of each layer after the input layer and how
+ * the sigmoid is calculated (see ActivationFunction).
+ *
+ * The network, its data and the training methods all read their
+ * sizes from here rather than NetworkConstants, so networks of
+ * different shapes can be created and trained in the same program.
+ * NetworkConstants still gives the default configuration.
+ *
+ * @author Alex Kelly
+ */
+public class NetworkConfig {
+
+    private final int[] neuronsPerLayer; //number of neurons in each layer of the network
+    private final float learningRate; //learning rate used to update weights
+    private final Activation[] activations; //activation function of each layer after the input layer
+    private final ActivationFunction.SigmoidMode sigmoidMode; //how the sigmoid layers are calculated
+    private final float sigmoidMaxError; //largest error of the lookup table, only used for LOOKUP
+
+    /**
+     * CONSTRUCTOR
+     *
+     * Uses the learning rate from NetworkConstants and the sigmoid
+     * activation function for every layer.
+     *
+     * @param neuronsPerLayer the number of neurons in each layer
+     */
+    public NetworkConfig(int[] neuronsPerLayer) {
+        this(neuronsPerLayer, NetworkConstants.LEARNING_RATE, sigmoidLayers(neuronsPerLayer.length));
+    }
+
+    /**
+     * CONSTRUCTOR
+     *
+     * @param neuronsPerLayer the number of neurons in each layer
+     * @param learningRate the learning rate used to update weights
+     * @param activations the activation function of each layer after
+     *                    the input layer (one fewer than the number of layers)
+     * @throws IllegalArgumentException network must have at least an input and
+     * output layer, every layer at least one neuron, a positive learning rate
+     * and one activation function per layer after the input layer
+     */
+    public NetworkConfig(int[] neuronsPerLayer, float learningRate, Activation[] activations) {
+        this(neuronsPerLayer, learningRate, activations, ActivationFunction.SigmoidMode.EXACT,
+                ActivationFunction.DEFAULT_MAX_ERROR);
+    }
+
+    /**
+     * CONSTRUCTOR
+     *
+     * @param neuronsPerLayer the number of neurons in each layer
+     * @param learningRate the learning rate used to update weights
+     * @param activations the activation function of each layer after
+     *                    the input layer (one fewer than the number of layers)
+     * @param sigmoidMode how the sigmoid layers are calculated
+     * @param sigmoidMaxError the largest difference allowed between the
+     *                        lookup table and the exact sigmoid (only used for LOOKUP)
+     * @throws IllegalArgumentException as above, and the max error must be
+     * between 0 and 0.5 for LOOKUP
+     */
+    public NetworkConfig(int[] neuronsPerLayer, float learningRate, Activation[] activations,
+                         ActivationFunction.SigmoidMode sigmoidMode, float sigmoidMaxError) {
+
+        if (neuronsPerLayer.length < 2) {
+            throw new IllegalArgumentException("network must have at least an input and output layer, got "
+                    + neuronsPerLayer.length + " layers");
+        }
+        for (int i = 0; i < neuronsPerLayer.length; i++) {
+            if (neuronsPerLayer[i] < 1) {
+                throw new IllegalArgumentException("layer " + i + " must have at least 1 neuron, was "
+                        + neuronsPerLayer[i]);
+            }
+        }
+        if (!(learningRate > 0)) {
+            throw new IllegalArgumentException("learning rate must be positive, was " + learningRate);
+        }
+        if (activations.length != neuronsPerLayer.length -1) {
+            throw new IllegalArgumentException("expected " + (neuronsPerLayer.length -1) + " activation functions," +
+                    " one for each layer after the input layer, but got " + activations.length);
+        }
+        for (int i = 0; i < activations.length; i++) {
+            if (activations[i] == null) {
+                throw new IllegalArgumentException("no activation function given for layer " + (i + 1));
+            }
+            //softmax derivative is only handled at the output layer
+            if (activations[i] == Activation.SOFTMAX && i != activations.length -1) {
+                throw new IllegalArgumentException("softmax can only be used for the output layer");
+            }
+        }
+
+        //copied so the config can't be changed once a network is using it
+        this.neuronsPerLayer = neuronsPerLayer.clone();
+        this.learningRate = learningRate;
+        this.activations = activations.clone();
+
+        if (sigmoidMode == null) {
+            throw new IllegalArgumentException("no sigmoid mode given");
+        }
+        if (sigmoidMode == ActivationFunction.SigmoidMode.LOOKUP && !(sigmoidMaxError > 0 && sigmoidMaxError < 0.5f)) {
+            throw new IllegalArgumentException("max error must be between 0 and 0.5, was " + sigmoidMaxError);
+        }
+        this.sigmoidMode = sigmoidMode;
+        this.sigmoidMaxError = sigmoidMaxError;
+    }
+
+    /**
+     * Method for returning the same configuration with the sigmoid
+     * calculated in another mode.
+     *
+     * @param mode how the sigmoid layers are calculated
+     * @param maxError the largest error of the lookup table (only used for LOOKUP)
+     * @return the new configuration
+     */
+    public NetworkConfig withSigmoidMode(ActivationFunction.SigmoidMode mode, float maxError) {
+
+        return new NetworkConfig(neuronsPerLayer, learningRate, activations, mode, maxError);
+    }
+
+    /**
+     * Method for returning the default configuration, as set in
+     * NetworkConstants.
+     *
+     * @return the default configuration
+     */
+    public static NetworkConfig defaultConfig() {
+
+        return new NetworkConfig(NetworkConstants.NEURONS_PER_LAYER);
+    }
+
+    /**
+     * Helper method which gives every layer after the input layer
+     * the sigmoid activation function.
+     *
+     * @param layers number of layers in the network
+     * @return array of sigmoid activations
+     */
+    private static Activation[] sigmoidLayers(int layers) {
+
+        Activation[] sigmoid = new Activation[Math.max(layers -1, 0)];
+        Arrays.fill(sigmoid, Activation.SIGMOID);
+        return sigmoid;
+    }
+
+    /**
+     * Method that returns the number of neurons in each layer.
+     *
+     * @return a copy of the number of neurons in each layer
+     */
+    public int[] getNeuronsPerLayer() {
+
+        return neuronsPerLayer.clone();
+    }
+
+    /**
+     * Method that returns the number of layers, including the
+     * input and output layers.
+     *
+     * @return number of layers
+     */
+    public int getNumLayers() {
+
+        return neuronsPerLayer.length;
+    }
+
+    /**
+     * Method that returns the number of input neurons.
+     *
+     * @return size of the input layer
+     */
+    public int getInputSize() {
+
+        return neuronsPerLayer[0];
+    }
+
+    /**
+     * Method that returns the number of output neurons.
+     *
+     * @return size of the output layer
+     */
+    public int getOutputSize() {
+
+        return neuronsPerLayer[neuronsPerLayer.length -1];
+    }
+
+    /**
+     * Method that returns the learning rate.
+     *
+     * @return the learning rate
+     */
+    public float getLearningRate() {
+
+        return learningRate;
+    }
+
+    /**
+     * Method that returns the activation function of each layer
+     * after the input layer.
+     *
+     * @return a copy of the activation functions
+     */
+    public Activation[] getActivations() {
+
+        return activations.clone();
+    }
+
+    /**
+     * Method that returns how the sigmoid layers are calculated.
+     *
+     * @return the sigmoid mode
+     */
+    public ActivationFunction.SigmoidMode getSigmoidMode() {
+
+        return sigmoidMode;
+    }
+
+    /**
+     * Method that returns the largest error of the sigmoid lookup table.
+     *
+     * @return the max error, only used when the mode is LOOKUP
+     */
+    public float getSigmoidMaxError() {
+
+        return sigmoidMaxError;
+    }
+
+    @Override
+    public String toString() {
+
+        return "layers " + Arrays.toString(neuronsPerLayer) + ", learning rate " + learningRate +
+                ", activations " + Arrays.toString(activations) +
+                (sigmoidMode == ActivationFunction.SigmoidMode.LOOKUP ? ", sigmoid LOOKUP (max error " +
+                        sigmoidMaxError + ")" : ", sigmoid " + sigmoidMode);
+    }
+
+}
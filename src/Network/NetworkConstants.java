@@ -2,8 +2,9 @@ package Network;
 
 /**
  * Class which contains the constant values for the network.
- * The size of the network and number of neurons in each
- * layer is set here.
+ * The default size of the network and number of neurons in
+ * each layer is set here; other shapes are given with a
+ * NetworkConfig.
  *
  * @author Alex Kelly
  */
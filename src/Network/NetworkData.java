@@ -1,5 +1,6 @@
 package Network;
 
+import java.nio.FloatBuffer;
 import java.util.*;
 
 /**
@@ -7,34 +8,116 @@ import java.util.*;
  * for multiple rows of input to be trained along with its
  * corresponding output.
  *
- * (a set consists of 2D float arrays - input and output -
- * stored at index 0 and 1 of an ArrayList)
+ * (a set is stored as two flat float arrays - one for the inputs and
+ * one for the outputs - with the rows laid one after another, so row
+ * i of the inputs starts at i * getInputSize(). There are no per-row
+ * objects, and the training methods read the rows straight out of
+ * these blocks)
  *
  * @author Alex Kelly
  */
 public class NetworkData {
 
-    private int input;
-    private int output;
+    //number of rows there is room for before the blocks first grow
+    private static final int DEFAULT_CAPACITY = 64;
+
+    private final int inputSize; //number of values in each input row
+    private final int outputSize; //number of values in each output row
 
     /*
-     * AL for storing input and corresponding output
-     * so it can be trained as a collective set
-     * data(index)[0] -> input data, data(index)[1] -> corresponding target output data
+     * blocks storing the inputs and corresponding outputs
+     * so they can be trained as a collective set:
+     * inputs[row * inputSize ...] -> input data,
+     * outputs[row * outputSize ...] -> corresponding target output data
      */
-    private List<float[][]> data = new ArrayList<>();
+    private float[] inputs;
+    private float[] outputs;
+    private int size; //number of rows stored
 
     /**
      * CONSTRUCTOR
+     *
+     * Rows must match the input and output layer sizes set in
+     * NetworkConstants.
      */
     public NetworkData() {
+        this(NetworkConstants.INPUT_LAYER_SIZE, NetworkConstants.OUTPUT_LAYER_SIZE);
+    }
+
+    /**
+     * CONSTRUCTOR
+     *
+     * @param config configuration of the network the data is for,
+     *               rows must match its input and output layer sizes
+     */
+    public NetworkData(NetworkConfig config) {
+        this(config.getInputSize(), config.getOutputSize());
+    }
+
+    /**
+     * CONSTRUCTOR
+     *
+     * @param inputSize number of values in each input row
+     * @param outputSize number of values in each output row
+     */
+    public NetworkData(int inputSize, int outputSize) {
+        this(inputSize, outputSize, DEFAULT_CAPACITY);
+    }
+
+    /**
+     * CONSTRUCTOR
+     *
+     * @param inputSize number of values in each input row
+     * @param outputSize number of values in each output row
+     * @param capacity number of rows to make room for up front, e.g. the
+     *                 row count of the table being loaded
+     * @throws IllegalArgumentException sizes must be positive and
+     * capacity can't be negative
+     */
+    public NetworkData(int inputSize, int outputSize, int capacity) {
 
-        this.input = 0; //index of input
-        this.output = 1; //index of output
+        if (inputSize < 1 || outputSize < 1) {
+            throw new IllegalArgumentException("input and output size must be at least 1, were " +
+                    inputSize + " and " + outputSize);
+        }
+        if (capacity < 0) {
+            throw new IllegalArgumentException("capacity can't be negative, was " + capacity);
+        }
+
+        this.inputSize = inputSize;
+        this.outputSize = outputSize;
+        this.inputs = new float[capacity * inputSize];
+        this.outputs = new float[capacity * outputSize];
+        this.size = 0;
     }
 
     /**
-     * Method for adding input and output to the data AL.
+     * CONSTRUCTOR
+     *
+     * Takes ownership of blocks that have already been filled, e.g.
+     * when loading a NetworkDataFile, so they aren't copied again.
+     *
+     * @param inputSize number of values in each input row
+     * @param outputSize number of values in each output row
+     * @param inputs block of rows * inputSize inputs
+     * @param outputs block of rows * outputSize outputs
+     * @param rows number of rows in the blocks
+     */
+    NetworkData(int inputSize, int outputSize, float[] inputs, float[] outputs, int rows) {
+
+        this(inputSize, outputSize, 0);
+        if (inputs.length < rows * inputSize || outputs.length < rows * outputSize) {
+            throw new IllegalArgumentException("blocks of length " + inputs.length + " and " +
+                    outputs.length + " do not hold " + rows + " rows");
+        }
+        this.inputs = inputs;
+        this.outputs = outputs;
+        this.size = rows;
+    }
+
+    /**
+     * Method for adding input and output to the end of the set. The
+     * values are copied, so the arrays can be reused by the caller.
      *
      * @param input the new input set to be added
      * @param targetOutput the corresponding output set
@@ -43,17 +126,139 @@ public class NetworkData {
      */
     public void addNetworkData(float[] input, float[] targetOutput) {
         //check input size
-        if (input.length != NetworkConstants.INPUT_LAYER_SIZE) {
+        if (input.length != inputSize) {
             throw new IllegalArgumentException("input length " + input.length +
-                    "does not correspond with number of input neurons " + NetworkConstants.INPUT_LAYER_SIZE);
+                    "does not correspond with number of input neurons " + inputSize);
         }
         //check output size
-        if (targetOutput.length != NetworkConstants.OUTPUT_LAYER_SIZE) {
+        if (targetOutput.length != outputSize) {
             throw new IllegalArgumentException("output length " + targetOutput.length +
-                    "does not correspond with number of output neurons " + NetworkConstants.OUTPUT_LAYER_SIZE);
+                    "does not correspond with number of output neurons " + outputSize);
+        }
+        ensureCapacity(size + 1);
+        System.arraycopy(input, 0, inputs, size * inputSize, inputSize);
+        System.arraycopy(targetOutput, 0, outputs, size * outputSize, outputSize);
+        size++;
+    }
+
+    /**
+     * Method for adding many rows at once from blocks laid out the same
+     * way as this set, e.g. when loading from a file or the database.
+     *
+     * @param inputBlock rows * input size inputs
+     * @param outputBlock rows * output size outputs
+     * @param rows number of rows to add
+     * @throws IllegalArgumentException blocks must hold the given number of rows
+     */
+    public void addNetworkData(float[] inputBlock, float[] outputBlock, int rows) {
+
+        if (rows < 0 || inputBlock.length < rows * inputSize || outputBlock.length < rows * outputSize) {
+            throw new IllegalArgumentException("blocks of length " + inputBlock.length + " and " +
+                    outputBlock.length + " do not hold " + rows + " rows");
+        }
+        ensureCapacity(size + rows);
+        System.arraycopy(inputBlock, 0, inputs, size * inputSize, rows * inputSize);
+        System.arraycopy(outputBlock, 0, outputs, size * outputSize, rows * outputSize);
+        size += rows;
+    }
+
+    /**
+     * Method for adding a copy of one row of another set, copied
+     * straight between the blocks without any arrays in between.
+     *
+     * @param set the set the row is in
+     * @param index the index of the row in that set
+     * @throws IllegalArgumentException the sets must have the same
+     * input and output sizes, and the index must be a row of the set
+     */
+    public void addNetworkData(NetworkData set, int index) {
+
+        if (set.inputSize != inputSize || set.outputSize != outputSize) {
+            throw new IllegalArgumentException("row of " + set.inputSize + " inputs and " + set.outputSize +
+                    " outputs does not match a set of " + inputSize + " inputs and " + outputSize + " outputs");
+        }
+        int inputOffset = set.getInputOffset(index);
+        ensureCapacity(size + 1);
+        System.arraycopy(set.inputs, inputOffset, inputs, size * inputSize, inputSize);
+        System.arraycopy(set.outputs, index * outputSize, outputs, size * outputSize, outputSize);
+        size++;
+    }
+
+    /**
+     * Method for adding a row whose values the caller then writes
+     * straight into the blocks, e.g. when reading from the database,
+     * so they aren't first collected in arrays of their own.
+     *
+     * @return the index of the new row
+     */
+    int addEmptyRow() {
+
+        return addEmptyRows(1);
+    }
+
+    /**
+     * Method for adding several rows at once whose values the caller
+     * then writes straight into the blocks, e.g. a chunk read from a
+     * file.
+     *
+     * @param rows the number of rows to add
+     * @return the index of the first new row
+     */
+    int addEmptyRows(int rows) {
+
+        ensureCapacity(size + rows);
+        int first = size;
+        size += rows;
+        return first;
+    }
+
+    /**
+     * Method for removing the last row, e.g. one added by addEmptyRow
+     * whose values couldn't all be read.
+     */
+    void removeLastRow() {
+
+        if (size == 0) {
+            throw new IllegalStateException("no rows to remove");
         }
-        //input data added at position 0, output at position 1
-        data.add(new float[][]{input, targetOutput});
+        size--;
+    }
+
+    /**
+     * Method which grows the blocks, by half again each time so adding
+     * rows one at a time stays cheap, until they can hold the given
+     * number of rows.
+     *
+     * @param rows the number of rows needed
+     */
+    public void ensureCapacity(int rows) {
+
+        int capacity = inputs.length / inputSize;
+        if (rows <= capacity) {
+            return;
+        }
+        int newCapacity = Math.max(rows, capacity + (capacity >> 1) + 1);
+        inputs = Arrays.copyOf(inputs, newCapacity * inputSize);
+        outputs = Arrays.copyOf(outputs, newCapacity * outputSize);
+    }
+
+    /**
+     * Method which removes every row while keeping the blocks, so a
+     * set can be refilled without allocating, e.g. by a NetworkDataSource.
+     */
+    public void clear() {
+
+        size = 0;
+    }
+
+    /**
+     * Method which shrinks the blocks to the number of rows stored,
+     * once a set has finished being loaded.
+     */
+    public void trimToSize() {
+
+        inputs = Arrays.copyOf(inputs, size * inputSize);
+        outputs = Arrays.copyOf(outputs, size * outputSize);
     }
 
     /**
@@ -64,7 +269,7 @@ public class NetworkData {
      */
     public int getSize() {
 
-        return data.size();
+        return size;
     }
 
     /**
@@ -74,21 +279,102 @@ public class NetworkData {
      */
     public int getInputSize() {
 
-        return data.get(this.input).length;
+        return inputSize;
     }
 
     /**
      * Method that returns the length of outputs
      *
-     * @return length of inputs
+     * @return length of outputs
      */
     public int getOutputSize() {
 
-        return data.get(this.output).length;
+        return outputSize;
+    }
+
+    /**
+     * Method for returning the block all the inputs are stored in,
+     * without copying. Row i starts at i * getInputSize(), and only the
+     * first getSize() rows are set. Adding rows may replace the block,
+     * so it shouldn't be held on to while the set is still growing.
+     *
+     * @return the input block
+     */
+    public float[] getInputBlock() {
+
+        return inputs;
+    }
+
+    /**
+     * Method for returning the block all the outputs are stored in,
+     * without copying. Row i starts at i * getOutputSize(), and only
+     * the first getSize() rows are set.
+     *
+     * @return the output block
+     */
+    public float[] getOutputBlock() {
+
+        return outputs;
     }
 
     /**
-     * Method for obtaining the input within the set at a given index.
+     * Method for returning where a row's inputs start in the input
+     * block, so the row can be read in place without copying it.
+     *
+     * @param index the index of the row
+     * @return index of the row's first input in getInputBlock()
+     * @throws IllegalArgumentException attempt to access invalid index
+     */
+    public int getInputOffset(int index) {
+
+        checkIndex(index);
+        return index * inputSize;
+    }
+
+    /**
+     * Method for returning where a row's outputs start in the output
+     * block, so the row can be read in place without copying it.
+     *
+     * @param index the index of the row
+     * @return index of the row's first output in getOutputBlock()
+     * @throws IllegalArgumentException attempt to access invalid index
+     */
+    public int getOutputOffset(int index) {
+
+        checkIndex(index);
+        return index * outputSize;
+    }
+
+    /**
+     * Method for returning a read-only view of a row's inputs, backed
+     * by the input block rather than a copy of it.
+     *
+     * @param index the index of the row
+     * @return the row's inputs, getInputSize() long
+     * @throws IllegalArgumentException attempt to access invalid index
+     */
+    public FloatBuffer getInputView(int index) {
+
+        return FloatBuffer.wrap(inputs, getInputOffset(index), inputSize).slice().asReadOnlyBuffer();
+    }
+
+    /**
+     * Method for returning a read-only view of a row's outputs, backed
+     * by the output block rather than a copy of it.
+     *
+     * @param index the index of the row
+     * @return the row's outputs, getOutputSize() long
+     * @throws IllegalArgumentException attempt to access invalid index
+     */
+    public FloatBuffer getOutputView(int index) {
+
+        return FloatBuffer.wrap(outputs, getOutputOffset(index), outputSize).slice().asReadOnlyBuffer();
+    }
+
+    /**
+     * Method for obtaining a copy of the input within the set at a
+     * given index. Use getInputOffset or getInputView to read a row
+     * without copying it.
      *
      * @param index the index of the set to obtain
      * @return individual data set input at given index
@@ -96,59 +382,68 @@ public class NetworkData {
      */
     public float[] getInput(int index) {
 
-        if (index < 0 || index > getSize()) {
-            throw new IllegalArgumentException("invalid index '" + index + "', must be between 0 and " + getSize());
-        }
-
-        return data.get(index)[this.input];
+        checkIndex(index);
+        return Arrays.copyOfRange(inputs, index * inputSize, (index + 1) * inputSize);
     }
 
     /**
-     * Method for returning the entire input array.
+     * Method for returning a copy of the entire input array.
      *
      * @return entire input array
      */
     public float[][] getInputArray() {
 
-        float[][] temp = new float[data.size()][NetworkConstants.INPUT_LAYER_SIZE];
+        float[][] temp = new float[size][];
 
-        for (int i = 0; i < data.size(); i++) {
-            temp[i] = data.get(i)[this.input];
+        for (int i = 0; i < size; i++) {
+            temp[i] = Arrays.copyOfRange(inputs, i * inputSize, (i + 1) * inputSize);
         }
 
         return temp;
     }
 
     /**
-     * Method for obtaining the output within the set at a given index.
+     * Method for obtaining a copy of the output within the set at a
+     * given index. Use getOutputOffset or getOutputView to read a row
+     * without copying it.
      *
      * @param index the index of the set to obtain
-     * @return individual data set input at given index
+     * @return individual data set output at given index
      * @throws IllegalArgumentException attempt to access invalid index
      */
     public float[] getOutput(int index) {
 
-        if (index < 0 || index > getSize()) {
-            throw new IllegalArgumentException("invalid index '" + index + "', must be between 0 and " + getSize());
-        }
-
-        return data.get(index)[this.output];
+        checkIndex(index);
+        return Arrays.copyOfRange(outputs, index * outputSize, (index + 1) * outputSize);
     }
 
     /**
-     * Method for returning the entire output array.
+     * Method for returning a copy of the entire output array.
      *
      * @return entire output array
      */
     public float[][] getOutputArray() {
 
-        float[][] temp = new float[data.size()][NetworkConstants.OUTPUT_LAYER_SIZE];
+        float[][] temp = new float[size][];
 
-        for (int i = 0; i < data.size(); i++) {
-            temp[i] = data.get(i)[this.output];
+        for (int i = 0; i < size; i++) {
+            temp[i] = Arrays.copyOfRange(outputs, i * outputSize, (i + 1) * outputSize);
         }
 
         return temp;
     }
 
+    /**
+     * Helper method that checks an index refers to a stored row.
+     *
+     * @param index the index of the row
+     * @throws IllegalArgumentException attempt to access invalid index
+     */
+    private void checkIndex(int index) {
+
+        if (index < 0 || index >= size) {
+            throw new IllegalArgumentException("invalid index '" + index + "', must be between 0 and " + (size - 1));
+        }
+    }
+
 }
@@ -0,0 +1,424 @@
+package Network;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.Arrays;
+
+/**
+ * Class for saving a NetworkData to a compact binary file and
+ * loading it back, so the training and test sets only have to be
+ * read from the database once.
+ *
+ * File layout (all values little-endian):
+ * -> int magic 'NNDS', int version
+ * -> int rows, int input size, int output size, int offset of the data
+ * -> for each input column: short name length, UTF-8 name, float min,
+ *    float max (the range the column was normalised from, NaN if unknown)
+ * -> padding up to the data offset (a multiple of 64)
+ * -> rows * input size floats, then rows * output size floats
+ *
+ * There are three ways to train from a file:
+ * -> read loads the whole set onto the heap with a few large reads
+ *    straight into the network's float blocks, with no parsing
+ * -> MappedNetworkDataSource opens the blocks with FileChannel.map, so
+ *    the file is only held in the page cache, one copy shared by every
+ *    process training from it, and copied a chunk at a time into the
+ *    float blocks the training methods use
+ * -> FileNetworkDataSource reads a chunk at a time with plain reads,
+ *    for files whose blocks are too large to map
+ *
+ * @author Alex Kelly
+ */
+public class NetworkDataFile {
+
+    private static final int MAGIC = 0x4E4E4453; //'NNDS'
+    private static final int VERSION = 1;
+    //data starts on a multiple of this many bytes
+    private static final int DATA_ALIGNMENT = 64;
+    //magic, version, rows, input size, output size and data offset
+    private static final int FIXED_HEADER_BYTES = 6 * Integer.BYTES;
+    //size of the buffer floats are written and read through
+    private static final int BUFFER_BYTES = 1 << 16;
+
+    /**
+     * Private constructor so cannot be initialised
+     */
+    private NetworkDataFile() {
+    }
+
+    /**
+     * Method for saving a set without any column metadata.
+     *
+     * @param set the set to save
+     * @param fileName the file to save it to
+     * @return true if the set was saved
+     */
+    public static boolean write(NetworkData set, String fileName) {
+
+        String[] names = new String[set.getInputSize()];
+        float[] unknown = new float[set.getInputSize()];
+        Arrays.fill(names, "");
+        Arrays.fill(unknown, Float.NaN);
+        return write(set, new Header(set.getSize(), set.getInputSize(), set.getOutputSize(), names, unknown, unknown),
+                fileName);
+    }
+
+    /**
+     * Method for saving a set along with the name and normalisation
+     * range of each input column. The file is written next to the
+     * target and moved into place once complete, so a reader never
+     * sees a half written file.
+     *
+     * @param set the set to save
+     * @param columnNames name of each input column
+     * @param columnMin value each input column's 0 was normalised from
+     * @param columnMax value each input column's 1 was normalised from
+     * @param fileName the file to save it to
+     * @return true if the set was saved
+     * @throws IllegalArgumentException one name, min and max is needed
+     * per input column
+     */
+    public static boolean write(NetworkData set, String[] columnNames, float[] columnMin, float[] columnMax,
+                                String fileName) {
+
+        return write(set, new Header(set.getSize(), set.getInputSize(), set.getOutputSize(),
+                columnNames, columnMin, columnMax), fileName);
+    }
+
+    /**
+     * Helper method which writes the header and data blocks.
+     */
+    private static boolean write(NetworkData set, Header header, String fileName) {
+
+        Path target = Paths.get(fileName);
+        Path temp = Paths.get(fileName + ".tmp");
+
+        try (FileChannel channel = FileChannel.open(temp, StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+
+            writeFully(channel, header.toBytes());
+            writeFloats(channel, set.getInputBlock(), set.getSize() * set.getInputSize());
+            writeFloats(channel, set.getOutputBlock(), set.getSize() * set.getOutputSize());
+            channel.force(false);
+
+        } catch (IOException e) {
+            System.err.println("Error saving network data to " + fileName + ":" + e);
+            e.printStackTrace();
+            return false;
+        }
+
+        try {
+            Files.move(temp, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            System.err.println("Error moving network data into place at " + fileName + ":" + e);
+            e.printStackTrace();
+            return false;
+        }
+
+        System.out.println("Network data saved successfully to " + fileName);
+        return true;
+    }
+
+    /**
+     * Helper method which writes floats through a little-endian buffer.
+     *
+     * @param channel the file being written
+     * @param values the floats to write
+     * @param length number of floats from the start of values to write
+     */
+    private static void writeFloats(FileChannel channel, float[] values, int length) throws IOException {
+
+        ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFER_BYTES).order(ByteOrder.LITTLE_ENDIAN);
+        int perBuffer = BUFFER_BYTES / Float.BYTES;
+
+        for (int start = 0; start < length; start += perBuffer) {
+            int count = Math.min(perBuffer, length - start);
+            buffer.clear();
+            buffer.asFloatBuffer().put(values, start, count);
+            buffer.limit(count * Float.BYTES);
+            writeFully(channel, buffer);
+        }
+    }
+
+    /**
+     * Helper method which writes all of a buffer, as a channel may
+     * write less than asked.
+     */
+    private static void writeFully(FileChannel channel, ByteBuffer buffer) throws IOException {
+
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+    }
+
+    /**
+     * Method for loading a set from a file saved by write.
+     *
+     * @param fileName the file to load
+     * @return the set, or null if it couldn't be loaded
+     */
+    public static NetworkData read(String fileName) {
+
+        try (FileChannel channel = FileChannel.open(Paths.get(fileName), StandardOpenOption.READ)) {
+
+            Header header = readHeader(channel);
+
+            float[] inputs = new float[header.rows * header.inputSize];
+            float[] outputs = new float[header.rows * header.outputSize];
+
+            long position = header.dataOffset;
+            readFloats(channel, position, inputs);
+            readFloats(channel, position + (long) inputs.length * Float.BYTES, outputs);
+
+            return new NetworkData(header.inputSize, header.outputSize, inputs, outputs, header.rows);
+
+        } catch (IOException e) {
+            System.err.println("error loading network data file: '" + fileName + "'");
+            e.printStackTrace();
+            return null;
+        }
+    }
+
+    /**
+     * Helper method which fills an array with floats read from a
+     * position in the file, through a little-endian buffer.
+     */
+    private static void readFloats(FileChannel channel, long position, float[] values) throws IOException {
+
+        ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFER_BYTES).order(ByteOrder.LITTLE_ENDIAN);
+        int perBuffer = BUFFER_BYTES / Float.BYTES;
+
+        for (int start = 0; start < values.length; start += perBuffer) {
+            int count = Math.min(perBuffer, values.length - start);
+            buffer.clear();
+            buffer.limit(count * Float.BYTES);
+            while (buffer.hasRemaining()) {
+                if (channel.read(buffer, position + buffer.position()) < 0) {
+                    throw new IOException("unexpected end of network data file");
+                }
+            }
+            buffer.flip();
+            buffer.asFloatBuffer().get(values, start, count);
+            position += (long) count * Float.BYTES;
+        }
+    }
+
+    /**
+     * Method for adding rows to the end of a file saved by write, keeping
+     * its column names and ranges. The inputs and outputs are stored as
+     * two blocks, so the file is written again in full (as a new file
+     * moved into place, the same as write).
+     *
+     * @param rows the rows to add
+     * @param fileName the file to add them to
+     * @return true if the rows were added
+     * @throws IllegalArgumentException rows must be the same size as the file's
+     */
+    public static boolean append(NetworkData rows, String fileName) {
+
+        Header header = readHeader(fileName);
+        NetworkData set = read(fileName);
+        if (header == null || set == null) {
+            return false;
+        }
+        if (rows.getInputSize() != header.inputSize || rows.getOutputSize() != header.outputSize) {
+            throw new IllegalArgumentException("rows of " + rows.getInputSize() + " inputs and " +
+                    rows.getOutputSize() + " outputs don't match " + fileName);
+        }
+
+        set.addNetworkData(rows.getInputBlock(), rows.getOutputBlock(), rows.getSize());
+        return write(set, header.columnNames, header.columnMin, header.columnMax, fileName);
+    }
+
+    /**
+     * Method for reading only the header of a file saved by write,
+     * e.g. to find the normalisation range of each column.
+     *
+     * @param fileName the file to read
+     * @return the header, or null if it couldn't be read
+     */
+    public static Header readHeader(String fileName) {
+
+        try (FileChannel channel = FileChannel.open(Paths.get(fileName), StandardOpenOption.READ)) {
+
+            return readHeader(channel);
+
+        } catch (IOException e) {
+            System.err.println("error loading network data file: '" + fileName + "'");
+            e.printStackTrace();
+            return null;
+        }
+    }
+
+    /**
+     * Method for reading the header of an open file saved by write.
+     *
+     * @param channel the open file
+     * @return the header
+     * @throws IOException the file is not a valid network data file
+     */
+    static Header readHeader(FileChannel channel) throws IOException {
+
+        //the fixed fields give the data offset, so only the header itself is read, never the data
+        ByteBuffer fixed = ByteBuffer.allocate(FIXED_HEADER_BYTES).order(ByteOrder.LITTLE_ENDIAN);
+        readFully(channel, fixed);
+        int dataOffset = fixed.getInt(FIXED_HEADER_BYTES - Integer.BYTES);
+        if (dataOffset < FIXED_HEADER_BYTES || dataOffset > channel.size()) {
+            throw new IOException("network data file has an invalid data offset " + dataOffset);
+        }
+
+        ByteBuffer buffer = ByteBuffer.allocate(dataOffset).order(ByteOrder.LITTLE_ENDIAN);
+        readFully(channel, buffer);
+        buffer.flip();
+        return Header.fromBytes(buffer, channel.size());
+    }
+
+    /**
+     * Helper method which fills a buffer from the start of the file.
+     */
+    private static void readFully(FileChannel channel, ByteBuffer buffer) throws IOException {
+
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer, buffer.position()) < 0) {
+                throw new IOException("network data file is too short to hold a header");
+            }
+        }
+    }
+
+    /**
+     * The header of a network data file: the size of the set and the
+     * name and normalisation range of each input column.
+     */
+    public static class Header {
+
+        private final int rows;
+        private final int inputSize;
+        private final int outputSize;
+        private final String[] columnNames;
+        private final float[] columnMin;
+        private final float[] columnMax;
+        private final int dataOffset; //byte offset of the first input float
+
+        private Header(int rows, int inputSize, int outputSize, String[] columnNames, float[] columnMin,
+                       float[] columnMax) {
+
+            if (columnNames.length != inputSize || columnMin.length != inputSize || columnMax.length != inputSize) {
+                throw new IllegalArgumentException("one column name, min and max is needed for each of the " +
+                        inputSize + " input columns");
+            }
+
+            this.rows = rows;
+            this.inputSize = inputSize;
+            this.outputSize = outputSize;
+            this.columnNames = columnNames.clone();
+            this.columnMin = columnMin.clone();
+            this.columnMax = columnMax.clone();
+
+            int length = FIXED_HEADER_BYTES;
+            for (String name : columnNames) {
+                length += Short.BYTES + name.getBytes(StandardCharsets.UTF_8).length + 2 * Float.BYTES;
+            }
+            this.dataOffset = (length + DATA_ALIGNMENT - 1) / DATA_ALIGNMENT * DATA_ALIGNMENT;
+        }
+
+        /**
+         * Method which lays the header out as it is stored in the file,
+         * padded up to the data offset.
+         */
+        private ByteBuffer toBytes() {
+
+            ByteBuffer buffer = ByteBuffer.allocate(dataOffset).order(ByteOrder.LITTLE_ENDIAN);
+            buffer.putInt(MAGIC).putInt(VERSION);
+            buffer.putInt(rows).putInt(inputSize).putInt(outputSize).putInt(dataOffset);
+            for (int i = 0; i < inputSize; i++) {
+                byte[] name = columnNames[i].getBytes(StandardCharsets.UTF_8);
+                buffer.putShort((short) name.length).put(name);
+                buffer.putFloat(columnMin[i]).putFloat(columnMax[i]);
+            }
+            buffer.position(0);
+            return buffer;
+        }
+
+        /**
+         * Method which reads the header from the start of a file and
+         * checks the file is long enough to hold the data it describes.
+         */
+        private static Header fromBytes(ByteBuffer buffer, long fileSize) throws IOException {
+
+            try {
+                if (buffer.getInt() != MAGIC) {
+                    throw new IOException("not a network data file");
+                }
+                int version = buffer.getInt();
+                if (version != VERSION) {
+                    throw new IOException("unsupported network data file version " + version);
+                }
+
+                int rows = buffer.getInt();
+                int inputSize = buffer.getInt();
+                int outputSize = buffer.getInt();
+                int dataOffset = buffer.getInt();
+                //checked before anything is sized from them, each block must fit in one array
+                if (rows < 0 || inputSize < 0 || outputSize < 0
+                        || (long) rows * inputSize > Integer.MAX_VALUE || (long) rows * outputSize > Integer.MAX_VALUE) {
+                    throw new IOException("network data file has invalid sizes: " + rows + " rows of " +
+                            inputSize + " inputs and " + outputSize + " outputs");
+                }
+
+                String[] names = new String[inputSize];
+                float[] min = new float[inputSize];
+                float[] max = new float[inputSize];
+                for (int i = 0; i < inputSize; i++) {
+                    byte[] name = new byte[buffer.getShort()];
+                    buffer.get(name);
+                    names[i] = new String(name, StandardCharsets.UTF_8);
+                    min[i] = buffer.getFloat();
+                    max[i] = buffer.getFloat();
+                }
+
+                Header header = new Header(rows, inputSize, outputSize, names, min, max);
+                long needed = header.dataOffset + (long) rows * (inputSize + outputSize) * Float.BYTES;
+                if (header.dataOffset != dataOffset || fileSize < needed) {
+                    throw new IOException("network data file is truncated or corrupt");
+                }
+                return header;
+
+            } catch (RuntimeException e) {
+                throw new IOException("network data file header is corrupt", e);
+            }
+        }
+
+        int getDataOffset() {
+            return dataOffset;
+        }
+
+        public int getRows() {
+            return rows;
+        }
+
+        public int getInputSize() {
+            return inputSize;
+        }
+
+        public int getOutputSize() {
+            return outputSize;
+        }
+
+        public String[] getColumnNames() {
+            return columnNames.clone();
+        }
+
+        public float[] getColumnMin() {
+            return columnMin.clone();
+        }
+
+        public float[] getColumnMax() {
+            return columnMax.clone();
+        }
+    }
+
+}
@@ -0,0 +1,51 @@
+package Network;
+
+/**
+ * Interface for a set of data that is read a chunk of rows at a
+ * time rather than held in memory all at once, so a set larger than
+ * the heap can still be trained on. Only one chunk is held at a time,
+ * in a NetworkData the caller reuses.
+ *
+ * Each pass through the set (one epoch) starts with reset, followed
+ * by calls to nextChunk until it returns false.
+ *
+ * @author Alex Kelly
+ */
+public interface NetworkDataSource extends AutoCloseable {
+
+    /**
+     * Method that returns the length of inputs
+     *
+     * @return length of inputs
+     */
+    int getInputSize();
+
+    /**
+     * Method that returns the length of outputs
+     *
+     * @return length of outputs
+     */
+    int getOutputSize();
+
+    /**
+     * Method for starting a new pass from the first row of the set.
+     */
+    void reset();
+
+    /**
+     * Method for reading the next chunk of rows into a set, replacing
+     * whatever the set held before.
+     *
+     * @param chunk the set the rows are read into, sized to match this source
+     * @return true if any rows were read, false once the pass is finished
+     */
+    boolean nextChunk(NetworkData chunk);
+
+    /**
+     * Method for releasing the file or connection the rows are read
+     * from.
+     */
+    @Override
+    void close();
+
+}
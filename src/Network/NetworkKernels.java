@@ -0,0 +1,114 @@
+package Network;
+
+/**
+ * Class which contains the inner loops of the network: the dot
+ * product used in the forward pass and the scaled add (y += a * x)
+ * used to propagate the error and update the weights.
+ *
+ * The scalar implementation here is always available. The vector
+ * implementation, Network.VectorKernels, needs JDK 16+ so it is kept
+ * in the vector folder, which isn't a source folder of the (Java 8)
+ * module. Once src has been built, compile it into the same output
+ * folder with:
+ *
+ *   javac --add-modules jdk.incubator.vector -cp out/production/SummerProject
+ *         -d out/production/SummerProject vector/Network/VectorKernels.java
+ *
+ * and run with --add-modules jdk.incubator.vector. If the class can be
+ * loaded it is used instead, otherwise the scalar loops are used (check
+ * which with -Dnetwork.kernels.verbose=true). Setting the system
+ * property network.kernels=scalar forces the scalar loops.
+ *
+ * @author Alex Kelly
+ */
+abstract class NetworkKernels {
+
+    //implementation used by the network, chosen once when the class is loaded
+    static final NetworkKernels INSTANCE = load();
+
+    /**
+     * Method for calculating the dot product of two runs of floats.
+     *
+     * @param a first array
+     * @param aOffset index of the first element used in a
+     * @param b second array
+     * @param bOffset index of the first element used in b
+     * @param length number of elements multiplied
+     * @return sum of a[aOffset + i] * b[bOffset + i]
+     */
+    abstract float dot(float[] a, int aOffset, float[] b, int bOffset, int length);
+
+    /**
+     * Method for adding a scaled run of floats to another:
+     * y[yOffset + i] += alpha * x[xOffset + i]
+     *
+     * @param alpha the scale applied to x
+     * @param x array being added
+     * @param xOffset index of the first element used in x
+     * @param y array being updated
+     * @param yOffset index of the first element updated in y
+     * @param length number of elements updated
+     */
+    abstract void axpy(float alpha, float[] x, int xOffset, float[] y, int yOffset, int length);
+
+    /**
+     * Helper method which returns the vector implementation if it is
+     * available and not disabled, otherwise the scalar implementation.
+     *
+     * @return the kernels to use
+     */
+    private static NetworkKernels load() {
+
+        boolean verbose = Boolean.getBoolean("network.kernels.verbose");
+        if (!"scalar".equals(System.getProperty("network.kernels"))) {
+            try {
+                NetworkKernels kernels = (NetworkKernels) Class.forName("Network.VectorKernels")
+                        .getDeclaredConstructor().newInstance();
+                if (verbose) {
+                    System.out.println("Using vector network kernels");
+                }
+                return kernels;
+            } catch (ReflectiveOperationException | LinkageError e) {
+                //vector class not built or jdk.incubator.vector not present, fall back to scalar
+                if (verbose) {
+                    System.out.println("Vector network kernels not available (" + e + "), using scalar");
+                }
+            }
+        }
+        return new ScalarKernels();
+    }
+
+    /**
+     * Plain Java implementation. The dot product keeps four separate
+     * sums so consecutive multiply-adds don't wait on each other; the
+     * scaled add is a simple loop the JIT can vectorise itself.
+     */
+    static class ScalarKernels extends NetworkKernels {
+
+        @Override
+        float dot(float[] a, int aOffset, float[] b, int bOffset, int length) {
+
+            float sum0 = 0, sum1 = 0, sum2 = 0, sum3 = 0;
+            int i = 0;
+            for (; i + 3 < length; i += 4) {
+                sum0 += a[aOffset + i] * b[bOffset + i];
+                sum1 += a[aOffset + i + 1] * b[bOffset + i + 1];
+                sum2 += a[aOffset + i + 2] * b[bOffset + i + 2];
+                sum3 += a[aOffset + i + 3] * b[bOffset + i + 3];
+            }
+            for (; i < length; i++) {
+                sum0 += a[aOffset + i] * b[bOffset + i];
+            }
+            return (sum0 + sum1) + (sum2 + sum3);
+        }
+
+        @Override
+        void axpy(float alpha, float[] x, int xOffset, float[] y, int yOffset, int length) {
+
+            for (int i = 0; i < length; i++) {
+                y[yOffset + i] += alpha * x[xOffset + i];
+            }
+        }
+    }
+
+}
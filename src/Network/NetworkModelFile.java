@@ -0,0 +1,266 @@
+package Network;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+
+/**
+ * Class for saving a trained NeuralNetwork to a compact binary file
+ * and loading it back, used by saveANN and loadANN in place of Java
+ * serialization. Only the configuration, weights and biases are
+ * saved, not the workspaces, and the layout doesn't change when the
+ * NeuralNetwork class does.
+ *
+ * File layout (all values little-endian):
+ * -> int magic 'NNMF', int version
+ * -> int number of layers, float learning rate, int offset of the data
+ * -> int neurons in each layer
+ * -> for each layer after the input layer: short name length, UTF-8
+ *    name of its activation function
+ * -> short name length, UTF-8 name of the sigmoid mode, float max
+ *    error of the sigmoid lookup table (version 2 on, version 1 files
+ *    are loaded with the EXACT sigmoid)
+ * -> padding up to the data offset (a multiple of 64)
+ * -> for each layer: neurons floats of biases, then (after the input
+ *    layer) neurons * previous layer neurons floats of weights, laid
+ *    out as NeuralNetwork holds them
+ *
+ * The file is opened with FileChannel.map and each block copied
+ * straight into the network's arrays, so loading is one bulk copy.
+ *
+ * @author Alex Kelly
+ */
+public class NetworkModelFile {
+
+    private static final int MAGIC = 0x4E4E4D46; //'NNMF'
+    private static final int VERSION = 2;
+    //data starts on a multiple of this many bytes
+    private static final int DATA_ALIGNMENT = 64;
+    //first two bytes of every file written by ObjectOutputStream
+    private static final int SERIALIZATION_MAGIC = 0xACED;
+
+    /**
+     * Private constructor so cannot be initialised
+     */
+    private NetworkModelFile() {
+    }
+
+    /**
+     * Method for saving a network. The file is written next to the
+     * target and moved into place once complete, so a reader never
+     * sees a half written file.
+     *
+     * @param network the network to save
+     * @param fileName the file to save it to
+     * @return true if the network was saved
+     */
+    public static boolean write(NeuralNetwork network, String fileName) {
+
+        NetworkConfig config = network.getConfig();
+        int[] npl = config.getNeuronsPerLayer();
+        float[][] weights = network.getWeights();
+        float[][] bias = network.getBias();
+
+        ByteBuffer header = header(config);
+        long dataBytes = 0;
+        for (int i = 0; i < npl.length; i++) {
+            dataBytes += (long) (bias[i].length + (i == 0 ? 0 : weights[i].length)) * Float.BYTES;
+        }
+
+        Path target = Paths.get(fileName);
+        Path temp = Paths.get(fileName + ".tmp");
+
+        try (FileChannel channel = FileChannel.open(temp, StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+
+            //a model is small, so the whole file is laid out in one buffer and written at once
+            ByteBuffer buffer = ByteBuffer.allocate((int) (header.remaining() + dataBytes))
+                    .order(ByteOrder.LITTLE_ENDIAN);
+            buffer.put(header);
+            for (int i = 0; i < npl.length; i++) {
+                putFloats(buffer, bias[i]);
+                if (i > 0) {
+                    putFloats(buffer, weights[i]);
+                }
+            }
+            buffer.flip();
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+            channel.force(false);
+
+        } catch (IOException e) {
+            System.err.println("Error saving network to " + fileName + ":" + e);
+            e.printStackTrace();
+            return false;
+        }
+
+        try {
+            Files.move(temp, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            System.err.println("Error moving network into place at " + fileName + ":" + e);
+            e.printStackTrace();
+            return false;
+        }
+
+        System.out.println("Network saved successfully to " + fileName);
+        return true;
+    }
+
+    /**
+     * Method for loading a network from a file saved by write.
+     *
+     * @param fileName the file to load
+     * @return the network, with the weights and biases it was saved with
+     * @throws IOException the file couldn't be read or is not a valid model file
+     */
+    public static NeuralNetwork read(String fileName) throws IOException {
+
+        try (FileChannel channel = FileChannel.open(Paths.get(fileName), StandardOpenOption.READ)) {
+
+            if (channel.size() > Integer.MAX_VALUE) {
+                throw new IOException("model file of " + channel.size() + " bytes is too large");
+            }
+            ByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            buffer.order(ByteOrder.LITTLE_ENDIAN);
+
+            try {
+                if (buffer.getInt() != MAGIC) {
+                    throw new IOException("not a network model file");
+                }
+                int version = buffer.getInt();
+                if (version < 1 || version > VERSION) {
+                    throw new IOException("unsupported network model file version " + version);
+                }
+
+                int numLayers = buffer.getInt();
+                float learningRate = buffer.getFloat();
+                int dataOffset = buffer.getInt();
+
+                int[] npl = new int[numLayers];
+                long floats = 0;
+                for (int i = 0; i < numLayers; i++) {
+                    npl[i] = buffer.getInt();
+                    floats += npl[i] + (i == 0 ? 0 : (long) npl[i] * npl[i-1]);
+                }
+                Activation[] activations = new Activation[numLayers -1];
+                for (int i = 0; i < activations.length; i++) {
+                    activations[i] = Activation.valueOf(readName(buffer));
+                }
+                ActivationFunction.SigmoidMode sigmoidMode = ActivationFunction.SigmoidMode.EXACT;
+                float sigmoidMaxError = ActivationFunction.DEFAULT_MAX_ERROR;
+                if (version >= 2) {
+                    sigmoidMode = ActivationFunction.SigmoidMode.valueOf(readName(buffer));
+                    sigmoidMaxError = buffer.getFloat();
+                }
+                NetworkConfig config = new NetworkConfig(npl, learningRate, activations, sigmoidMode,
+                        sigmoidMaxError);
+
+                if (dataOffset < buffer.position() || channel.size() < dataOffset + floats * Float.BYTES) {
+                    throw new IOException("network model file is truncated or corrupt");
+                }
+
+                buffer.position(dataOffset);
+                FloatBuffer data = buffer.asFloatBuffer();
+                float[][] weights = new float[numLayers][];
+                float[][] bias = new float[numLayers][];
+                for (int i = 0; i < numLayers; i++) {
+                    bias[i] = new float[npl[i]];
+                    data.get(bias[i]);
+                    if (i > 0) {
+                        weights[i] = new float[npl[i] * npl[i-1]];
+                        data.get(weights[i]);
+                    }
+                }
+                return new NeuralNetwork(config, weights, bias);
+
+            } catch (RuntimeException e) {
+                throw new IOException("network model file is corrupt", e);
+            }
+        }
+    }
+
+    /**
+     * Method which checks whether a file holds a network saved with
+     * Java serialization, as saveANN did before this format was added.
+     *
+     * @param fileName the file to check
+     * @return true if the file starts with the serialization magic number
+     * @throws IOException the file couldn't be read
+     */
+    public static boolean isSerialized(String fileName) throws IOException {
+
+        try (FileChannel channel = FileChannel.open(Paths.get(fileName), StandardOpenOption.READ)) {
+
+            ByteBuffer start = ByteBuffer.allocate(Short.BYTES); //big-endian, as ObjectOutputStream writes
+            while (start.hasRemaining() && channel.read(start) >= 0) {
+                //keep reading until both bytes are in or the file ends
+            }
+            return start.position() == Short.BYTES && (start.getShort(0) & 0xFFFF) == SERIALIZATION_MAGIC;
+        }
+    }
+
+    /**
+     * Helper method which lays the header out as it is stored in the
+     * file, padded up to the data offset.
+     */
+    private static ByteBuffer header(NetworkConfig config) {
+
+        int[] npl = config.getNeuronsPerLayer();
+        Activation[] activations = config.getActivations();
+
+        int length = 5 * Integer.BYTES + npl.length * Integer.BYTES;
+        for (Activation activation : activations) {
+            length += Short.BYTES + activation.name().getBytes(StandardCharsets.UTF_8).length;
+        }
+        length += Short.BYTES + config.getSigmoidMode().name().getBytes(StandardCharsets.UTF_8).length + Float.BYTES;
+        int dataOffset = (length + DATA_ALIGNMENT - 1) / DATA_ALIGNMENT * DATA_ALIGNMENT;
+
+        ByteBuffer buffer = ByteBuffer.allocate(dataOffset).order(ByteOrder.LITTLE_ENDIAN);
+        buffer.putInt(MAGIC).putInt(VERSION);
+        buffer.putInt(npl.length).putFloat(config.getLearningRate()).putInt(dataOffset);
+        for (int neurons : npl) {
+            buffer.putInt(neurons);
+        }
+        for (Activation activation : activations) {
+            putName(buffer, activation.name());
+        }
+        putName(buffer, config.getSigmoidMode().name());
+        buffer.putFloat(config.getSigmoidMaxError());
+        buffer.position(0);
+        return buffer;
+    }
+
+    /**
+     * Helper method which puts a name into a buffer, after its length.
+     */
+    private static void putName(ByteBuffer buffer, String name) {
+
+        byte[] bytes = name.getBytes(StandardCharsets.UTF_8);
+        buffer.putShort((short) bytes.length).put(bytes);
+    }
+
+    /**
+     * Helper method which reads a name put into a buffer by putName.
+     */
+    private static String readName(ByteBuffer buffer) {
+
+        byte[] bytes = new byte[buffer.getShort()];
+        buffer.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Helper method which puts floats into a buffer in its byte order.
+     */
+    private static void putFloats(ByteBuffer buffer, float[] values) {
+
+        buffer.asFloatBuffer().put(values);
+        buffer.position(buffer.position() + values.length * Float.BYTES);
+    }
+
+}
@@ -0,0 +1,100 @@
+package Network;
+
+import java.util.Arrays;
+
+/**
+ * Class which holds the per-sample state a NeuralNetwork needs
+ * while calculating an output and backpropagating the error: the
+ * output of every neuron, the error at every neuron and the
+ * mini-batch gradient buffers.
+ *
+ * Keeping this separate from the weights means several threads can
+ * each use their own workspace against one shared network.
+ *
+ * @author Alex Kelly
+ */
+public class NetworkWorkspace {
+
+    /*
+     * stores the output from a given neuron:
+     * 2D array as the first dimension is the layer, and the second
+     * relates to the specific neuron
+     */
+    float[][] outputFromNeuron;
+
+    /*
+     * difference between expected and actual output, to be used in
+     * the backprop process for updating weights accordingly
+     */
+    float[][] error;
+
+    /*
+     * gradients summed over the samples of a mini-batch, laid out the
+     * same as the network's weights and bias so they can be applied in
+     * one pass once the batch is complete
+     */
+    float[][] weightGradient;
+    float[][] biasGradient;
+
+    /**
+     * CONSTRUCTOR
+     *
+     * @param neuronsPerLayer the number of neurons in each layer of
+     *                        the network this workspace is used with
+     */
+    NetworkWorkspace(int[] neuronsPerLayer) {
+
+        int numLayers = neuronsPerLayer.length;
+
+        //initialise 1st dimension to be the number of layers network consists of
+        this.outputFromNeuron = new float[numLayers][];
+        this.error = new float[numLayers][];
+        this.weightGradient = new float[numLayers][];
+        this.biasGradient = new float[numLayers][];
+
+        //second dimension is the number of neurons at each layer
+        for(int i = 0; i < numLayers; i++) {
+            //all initialised to default 0.0 values, will be updated by the network
+            this.outputFromNeuron[i] = new float[neuronsPerLayer[i]];
+            this.error[i] = new float[neuronsPerLayer[i]];
+            this.biasGradient[i] = new float[neuronsPerLayer[i]];
+            if (i > 0) {
+                this.weightGradient[i] = new float[neuronsPerLayer[i] * neuronsPerLayer[i-1]];
+            }
+        }
+    }
+
+    /**
+     * Method which adds the gradients accumulated in another workspace
+     * to this one, and clears the other workspace's gradients.
+     *
+     * @param other the workspace whose gradients are being added
+     */
+    void addGradients(NetworkWorkspace other) {
+
+        for(int layer = 1; layer < weightGradient.length; layer++) {
+            float[] sum = weightGradient[layer];
+            float[] add = other.weightGradient[layer];
+            for(int i = 0; i < sum.length; i++) {
+                sum[i] += add[i];
+            }
+            for(int neuron = 0; neuron < biasGradient[layer].length; neuron++) {
+                biasGradient[layer][neuron] += other.biasGradient[layer][neuron];
+            }
+        }
+        other.clearGradients();
+    }
+
+    /**
+     * Method which resets the gradient buffers to 0 ready for the
+     * next batch.
+     */
+    void clearGradients() {
+
+        for(int layer = 1; layer < weightGradient.length; layer++) {
+            Arrays.fill(weightGradient[layer], 0f);
+            Arrays.fill(biasGradient[layer], 0f);
+        }
+    }
+
+}
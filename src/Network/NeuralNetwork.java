@@ -11,74 +11,199 @@ import java.util.Arrays;
  * neural network that uses backpropagation for the
  * training.
  *
+ * The weights and biases are held here, while the per-sample
+ * outputs, errors and gradients are held in a NetworkWorkspace.
+ * The methods from INeuralNetwork use the network's own workspace;
+ * the overloads that take a workspace allow several threads to
+ * train or score against the same weights.
+ *
  * @author Alex Kelly
  */
-public class NeuralNetwork implements Serializable, INeuralNetwork {
+public class NeuralNetwork implements INeuralNetwork {
 
+    private final NetworkConfig config; //topology, learning rate and activation functions
     private final int[] neuronsPerLayer; //number of neurons in each layer of the network
     private final int numLayers; //number of layers in the network
+    private final float learningRate; //learning rate used to update weights
+
+    //dot product and scaled add loops, vectorised when available
+    private static final NetworkKernels KERNELS = NetworkKernels.INSTANCE;
+
+    //number of rows predictBatch calculates together, sized so a block of activations fits in L1/L2
+    private static final int BATCH_ROW_BLOCK = 256;
+    //number of neurons whose weight rows are kept in cache together by predictBatch
+    private static final int BATCH_NEURON_TILE = 64;
 
     /*
-     * stores the output from a given neuron:
-     * 2D array as the first dimension is the layer, and the second
-     * relates to the specific neuron
-     */
-    private float[][] outputFromNeuron;
-    /*
-     * weights, one for each neuron:
-     * 3D array as the first is for the layer, the second is for the
-     * specific neuron, and the third is for the neuron in the previous
-     * layer which is connected to the current neuron
+     * weights, one for each connection:
+     * 2D array as the first dimension is for the layer, and the second
+     * is one contiguous row-major block for that layer, so the weight
+     * connecting neuron n to neuron p in the previous layer is found at
+     * [layer][n * neuronsPerLayer[layer-1] + p]. Keeping each layer in a
+     * single block means the inner loops walk memory linearly.
      */
-    private float[][][] weights;
+    private float[][] weights;
     private float[][] bias; //every neuron has one bias
+    private final Activation[] activations; //activation function of each layer, none for the input layer
+    private final ActivationFunction.Sigmoid sigmoid; //sigmoid in the mode set in the config
 
-    /*
-     * difference between expected and actual output, to be used in
-     * the backprop process for updating weights accordingly
-     */
-    private float[][] error;
-    private float[][] outputDerivativeSigmoid; //derivative sigmoid of outputs
+    //outputs, errors and gradients used by the single-threaded methods
+    private NetworkWorkspace workspace;
+    //workspaces used by predict, one per calling thread
+    private transient volatile ThreadLocal<NetworkWorkspace> threadWorkspaces;
 
     /**
      * CONSTRUCTOR
      *
-     * @param npl the number of neurons in each layer,
-     *            specified in the NetworkConstants class
+     * Every layer uses the sigmoid activation function and the
+     * learning rate from NetworkConstants.
+     *
+     * @param npl the number of neurons in each layer
      */
     public NeuralNetwork(int[] npl) {
-        //check parameter passed is the same as NEURONS_PER_LAYER
-        if (!(Arrays.equals(npl, NetworkConstants.NEURONS_PER_LAYER))) {
-            throw new IllegalArgumentException("pass parameter 'NetworkConstants.NEURONS_PER_LAYER' when" +
-                    " initialising NeuralNetwork. To modify the network dimensions, edit 'NEURONS_PER_LAYER'" +
-                    " within NetworkConstants class.");
-        }
+        this(new NetworkConfig(npl));
+    }
+
+    /**
+     * CONSTRUCTOR
+     *
+     * Uses the learning rate from NetworkConstants.
+     *
+     * @param npl the number of neurons in each layer
+     * @param layerActivations the activation function of each layer after
+     *                         the input layer (one fewer than the number of layers)
+     */
+    public NeuralNetwork(int[] npl, Activation[] layerActivations) {
+        this(new NetworkConfig(npl, NetworkConstants.LEARNING_RATE, layerActivations));
+    }
+
+    /**
+     * CONSTRUCTOR
+     *
+     * @param config the topology, learning rate and activation functions
+     *               of the network
+     */
+    public NeuralNetwork(NetworkConfig config) {
+        this(config, null, null);
+    }
+
+    /**
+     * CONSTRUCTOR
+     *
+     * Used by NetworkModelFile to create a saved network with the
+     * weights and biases it was saved with.
+     *
+     * @param config the topology, learning rate and activation functions
+     *               of the network
+     * @param weights weights of each layer, laid out as the weights field,
+     *                or null for random weights
+     * @param bias biases of each layer, or null for random biases
+     * @throws IllegalArgumentException weights and biases must match the topology
+     */
+    NeuralNetwork(NetworkConfig config, float[][] weights, float[][] bias) {
 
+        this.config = config;
         //initialise neuronsPerLayer to be easily referred to within this class
-        this.neuronsPerLayer = NetworkConstants.NEURONS_PER_LAYER;
+        this.neuronsPerLayer = config.getNeuronsPerLayer();
         //initialise numLayers to be easily referred to within this class
-        this.numLayers = NetworkConstants.NUM_LAYERS;
+        this.numLayers = config.getNumLayers();
+        this.learningRate = config.getLearningRate();
+
+        //stored by layer index, input layer has no activation function
+        this.activations = new Activation[numLayers];
+        System.arraycopy(config.getActivations(), 0, this.activations, 1, numLayers -1);
+        this.sigmoid = ActivationFunction.sigmoid(config.getSigmoidMode(), config.getSigmoidMaxError());
 
         //initialise 1st dimension to be the number of layers network consists of
-        this.outputFromNeuron = new float[numLayers][];
-        this.weights = new float[numLayers][][];
+        this.weights = new float[numLayers][];
         this.bias = new float[numLayers][];
 
-        this.error = new float[numLayers][];
-        this.outputDerivativeSigmoid = new float[numLayers][];
-
         //second dimension is the number of neurons at each layer
         for(int i = 0; i < numLayers; i++) {
-            //all initialised to default 0.0 values, will be updated in methods
-            this.outputFromNeuron[i] = new float[neuronsPerLayer[i]];
-            this.error[i] = new float[neuronsPerLayer[i]];
-            this.outputDerivativeSigmoid[i] = new float[neuronsPerLayer[i]];
             this.bias[i] = new float[neuronsPerLayer[i]];
         }
 
-        //bias and weights initialised randomly
-        initialiseBias();
-        initialiseWeights();
+        this.workspace = createWorkspace();
+
+        if (weights == null || bias == null) {
+            //bias and weights initialised randomly
+            initialiseBias();
+            initialiseWeights();
+        } else {
+            for(int i = 0; i < numLayers; i++) {
+                int weightCount = i == 0 ? 0 : neuronsPerLayer[i] * neuronsPerLayer[i-1];
+                if (bias[i].length != neuronsPerLayer[i] || (i > 0 && weights[i].length != weightCount)) {
+                    throw new IllegalArgumentException("weights and biases of layer " + i +
+                            " don't match " + neuronsPerLayer[i] + " neurons");
+                }
+                this.bias[i] = bias[i];
+                this.weights[i] = weights[i];
+            }
+        }
+    }
+
+    /**
+     * Method that returns the configuration the network was created with.
+     *
+     * @return the network's configuration
+     */
+    public NetworkConfig getConfig() {
+
+        return config;
+    }
+
+    /**
+     * Method that returns the workspace used by the single-threaded
+     * methods, so the training methods can use the overloads that take
+     * a workspace.
+     *
+     * @return the network's own workspace
+     */
+    NetworkWorkspace getWorkspace() {
+
+        return workspace;
+    }
+
+    /**
+     * Method that returns the weights of every layer, laid out as the
+     * weights field, for NetworkModelFile to save.
+     *
+     * @return the network's own weights, not a copy
+     */
+    float[][] getWeights() {
+
+        return weights;
+    }
+
+    /**
+     * Method that returns the biases of every layer, for
+     * NetworkModelFile to save.
+     *
+     * @return the network's own biases, not a copy
+     */
+    float[][] getBias() {
+
+        return bias;
+    }
+
+    /**
+     * Method that returns the number of input neurons.
+     *
+     * @return size of the input layer
+     */
+    public int getInputSize() {
+
+        return neuronsPerLayer[0];
+    }
+
+    /**
+     * Method that returns the number of output neurons.
+     *
+     * @return size of the output layer
+     */
+    public int getOutputSize() {
+
+        return neuronsPerLayer[numLayers -1];
     }
 
     /**
@@ -102,19 +227,27 @@ public class NeuralNetwork implements Serializable, INeuralNetwork {
         for(int i = 0; i < numLayers; i++) {
             //not the input layer as no previous layer neurons
             if (i > 0) {
-                weights[i] = RandomNumberGenerator.randomArray(neuronsPerLayer[i], neuronsPerLayer[i-1]);
+                weights[i] = RandomNumberGenerator.randomArray(neuronsPerLayer[i] * neuronsPerLayer[i-1]);
             }
 //            System.out.println("weights -> " + Arrays.deepToString(weights)); //test
         }
     }
 
     /**
-     * Method for calculating the output. Achieved in two steps:
-     * - firstly, calculates the sum of the inputs from the previous
-     * layer, multiplied by the current weight.
-     * - secondly, applies the sigmoid activation function to the total.
+     * Method for creating a new workspace sized for this network.
+     * Each thread training or scoring against this network
+     * concurrently needs its own workspace.
      *
-     * The output from the final layer [numLayers-1] is returned.
+     * @return a new workspace with all values set to 0
+     */
+    public NetworkWorkspace createWorkspace() {
+
+        return new NetworkWorkspace(neuronsPerLayer);
+    }
+
+    /**
+     * Method for calculating the output using the network's own
+     * workspace.
      *
      * @param input the network training/test inputs
      * @return actualOutput, an array of outputs from the output layer
@@ -123,27 +256,316 @@ public class NeuralNetwork implements Serializable, INeuralNetwork {
     @Override
     public float[] calculateOutput(float[] input) {
 
-        //set the input to the output of the first (input) layer for each row
-        this.outputFromNeuron[0] = input;
+        return calculateOutput(input, workspace);
+    }
+
+    /**
+     * Method for calculating the output, storing the outputs of every
+     * layer (for use in the backprop process) in the given workspace. The input is copied into the workspace
+     * so the caller's array is never modified or held on to.
+     *
+     * The returned array belongs to the workspace and is overwritten
+     * by the next call using the same workspace.
+     *
+     * @param input the network training/test inputs
+     * @param ws the workspace the outputs are stored in
+     * @return actualOutput, an array of outputs from the output layer
+     * of the network
+     */
+    public float[] calculateOutput(float[] input, NetworkWorkspace ws) {
+
+        checkInputLength(input);
+        return calculateOutput(input, 0, ws);
+    }
+
+    /**
+     * Method for calculating the output of one row of a larger block,
+     * such as the inputs held by NetworkData, without copying the row
+     * out first.
+     *
+     * @param input block of inputs
+     * @param offset index of the first input of the row within the block
+     * @param ws the workspace the outputs are stored in
+     * @return actualOutput, an array of outputs from the output layer
+     * of the network (belongs to the workspace)
+     */
+    public float[] calculateOutput(float[] input, int offset, NetworkWorkspace ws) {
+
+        feedForward(input, offset, ws);
+        return ws.outputFromNeuron[numLayers -1]; //return the output from the output layer
+    }
+
+    /**
+     * Method for predicting the output for an input without touching
+     * any state shared between threads. The outputs of each layer are
+     * stored in the caller's workspace and the output layer is copied
+     * into the caller's output array, so nothing is allocated per call
+     * and any number of threads can predict at once, each with its
+     * own workspace, as long as the network is not being trained.
+     *
+     * @param input the match to predict
+     * @param ws a workspace owned by the calling thread
+     * @param output array the output layer is written to
+     * @throws IllegalArgumentException input/output must match the
+     * size of the input/output layers
+     */
+    public void predict(float[] input, NetworkWorkspace ws, float[] output) {
+
+        if (output.length != neuronsPerLayer[numLayers -1]) {
+            throw new IllegalArgumentException("output length: " + output.length +
+                    " does not match number of output neurons: " + neuronsPerLayer[numLayers -1]);
+        }
+
+        checkInputLength(input);
+        feedForward(input, 0, ws);
+        System.arraycopy(ws.outputFromNeuron[numLayers -1], 0, output, 0, output.length);
+    }
+
+    /**
+     * Method for predicting the output for an input using a workspace
+     * belonging to the calling thread, which is created the first time
+     * each thread predicts.
+     *
+     * @param input the match to predict
+     * @param output array the output layer is written to
+     */
+    public void predict(float[] input, float[] output) {
+
+        predict(input, threadWorkspace().get(), output);
+    }
+
+    /**
+     * Helper method which returns the per-thread workspaces used by
+     * predict, creating them on first use (including after the
+     * network has been loaded from a file).
+     *
+     * @return the thread local workspaces
+     */
+    private ThreadLocal<NetworkWorkspace> threadWorkspace() {
+
+        ThreadLocal<NetworkWorkspace> local = threadWorkspaces;
+        if (local == null) {
+            synchronized (this) {
+                local = threadWorkspaces;
+                if (local == null) {
+                    local = ThreadLocal.withInitial(this::createWorkspace);
+                    threadWorkspaces = local;
+                }
+            }
+        }
+        return local;
+    }
+
+    /**
+     * Method for predicting the outputs for many inputs at once, for
+     * example a whole test set from NetworkData.getInputArray().
+     *
+     * @param inputs one row of inputs per match
+     * @return one row of outputs per match
+     */
+    public float[][] predictBatch(float[][] inputs) {
+
+        int inputSize = neuronsPerLayer[0];
+        int outputSize = neuronsPerLayer[numLayers -1];
+
+        //flatten the rows into one row-major block
+        float[] input = new float[inputs.length * inputSize];
+        for (int row = 0; row < inputs.length; row++) {
+            if (inputs[row].length != inputSize) {
+                throw new IllegalArgumentException("input length: " + inputs[row].length + " at row " + row +
+                        " does not match number of input neurons: " + inputSize);
+            }
+            System.arraycopy(inputs[row], 0, input, row * inputSize, inputSize);
+        }
+
+        float[] output = new float[inputs.length * outputSize];
+        predictBatch(input, inputs.length, output);
+
+        float[][] outputs = new float[inputs.length][outputSize];
+        for (int row = 0; row < inputs.length; row++) {
+            System.arraycopy(output, row * outputSize, outputs[row], 0, outputSize);
+        }
+        return outputs;
+    }
+
+    /**
+     * Method for predicting the outputs for many inputs at once. Each
+     * layer is calculated as a matrix-matrix product of a block of
+     * rows with the layer's weights, rather than one row at a time, so
+     * each weight loaded from memory is used for several rows.
+     *
+     * @param input row-major block of inputs, rows * input layer size
+     * @param rows the number of rows in the block
+     * @param output row-major block the outputs are written to,
+     *               rows * output layer size
+     * @throws IllegalArgumentException block sizes must match the number
+     * of rows
+     */
+    public void predictBatch(float[] input, int rows, float[] output) {
+
+        if (input.length < rows * neuronsPerLayer[0]) {
+            throw new IllegalArgumentException("input block of length " + input.length +
+                    " is too small for " + rows + " rows");
+        }
+        if (output.length < rows * neuronsPerLayer[numLayers -1]) {
+            throw new IllegalArgumentException("output block of length " + output.length +
+                    " is too small for " + rows + " rows");
+        }
+
+        int widest = 0;
+        for (int size : neuronsPerLayer) {
+            widest = Math.max(widest, size);
+        }
+        //two scratch blocks, swapped between layers
+        float[] current = new float[BATCH_ROW_BLOCK * widest];
+        float[] next = new float[BATCH_ROW_BLOCK * widest];
+
+        for (int start = 0; start < rows; start += BATCH_ROW_BLOCK) {
+            int blockRows = Math.min(BATCH_ROW_BLOCK, rows - start);
+
+            System.arraycopy(input, start * neuronsPerLayer[0], current, 0, blockRows * neuronsPerLayer[0]);
+
+            for (int layer = 1; layer < numLayers; layer++) {
+                multiplyLayer(layer, current, blockRows, next);
+                float[] swap = current;
+                current = next;
+                next = swap;
+            }
+
+            int outputSize = neuronsPerLayer[numLayers -1];
+            System.arraycopy(current, 0, output, start * outputSize, blockRows * outputSize);
+        }
+    }
+
+    /**
+     * Helper method which calculates one layer for a block of rows:
+     * out = activation(in * weights^T + bias). The neurons are taken a
+     * tile at a time so their weight rows stay in cache across the
+     * whole block, and four rows are summed together against each
+     * weight row so every weight loaded is used four times.
+     *
+     * @param layer the layer being calculated
+     * @param in outputs of the previous layer, blockRows * prevSize
+     * @param blockRows number of rows in the block
+     * @param out where this layer's outputs are written, blockRows * size
+     */
+    private void multiplyLayer(int layer, float[] in, int blockRows, float[] out) {
+
+        float[] layerWeights = weights[layer];
+        float[] layerBias = bias[layer];
+        int prevSize = neuronsPerLayer[layer-1];
+        int size = neuronsPerLayer[layer];
+
+        for (int tileStart = 0; tileStart < size; tileStart += BATCH_NEURON_TILE) {
+            int tileEnd = Math.min(tileStart + BATCH_NEURON_TILE, size);
+
+            int row = 0;
+            //four rows at a time
+            for (; row + 3 < blockRows; row += 4) {
+                int in0 = row * prevSize;
+                int in1 = in0 + prevSize;
+                int in2 = in1 + prevSize;
+                int in3 = in2 + prevSize;
+                for (int neuron = tileStart; neuron < tileEnd; neuron++) {
+                    int w = neuron * prevSize;
+                    float sum0 = 0, sum1 = 0, sum2 = 0, sum3 = 0;
+                    for (int prevNeuron = 0; prevNeuron < prevSize; prevNeuron++) {
+                        float weight = layerWeights[w + prevNeuron];
+                        sum0 += in[in0 + prevNeuron] * weight;
+                        sum1 += in[in1 + prevNeuron] * weight;
+                        sum2 += in[in2 + prevNeuron] * weight;
+                        sum3 += in[in3 + prevNeuron] * weight;
+                    }
+                    out[row * size + neuron] = sum0 + layerBias[neuron];
+                    out[(row + 1) * size + neuron] = sum1 + layerBias[neuron];
+                    out[(row + 2) * size + neuron] = sum2 + layerBias[neuron];
+                    out[(row + 3) * size + neuron] = sum3 + layerBias[neuron];
+                }
+            }
+            //any remaining rows one at a time
+            for (; row < blockRows; row++) {
+                int in0 = row * prevSize;
+                for (int neuron = tileStart; neuron < tileEnd; neuron++) {
+                    int w = neuron * prevSize;
+                    float sum = 0;
+                    for (int prevNeuron = 0; prevNeuron < prevSize; prevNeuron++) {
+                        sum += in[in0 + prevNeuron] * layerWeights[w + prevNeuron];
+                    }
+                    out[row * size + neuron] = sum + layerBias[neuron];
+                }
+            }
+        }
+
+        //apply the activation function to each row of totals
+        for (int row = 0; row < blockRows; row++) {
+            activations[layer].activate(out, row * size, size, sigmoid);
+        }
+    }
+
+    /**
+     * Helper method that checks an input matches the size of the
+     * input layer.
+     *
+     * @param input the network inputs
+     * @throws IllegalArgumentException input must match the size of the
+     * input layer
+     */
+    private void checkInputLength(float[] input) {
+
+        if (input.length != neuronsPerLayer[0]) {
+            throw new IllegalArgumentException("input length: " + input.length +
+                    " does not match number of input neurons: " + neuronsPerLayer[0]);
+        }
+    }
+
+    /**
+     * Method for feeding an input forward through the network. Achieved
+     * in two steps:
+     * - firstly, calculates the sum of the inputs from the previous
+     * layer, multiplied by the current weight.
+     * - secondly, applies the layer's activation function to the totals.
+     *
+     * Derivatives are not calculated here, backpropagateError works
+     * them out from the outputs only when training.
+     *
+     * @param input the network training/test inputs
+     * @param offset index of the first input within the array
+     * @param ws the workspace the outputs are stored in
+     */
+    private void feedForward(float[] input, int offset, NetworkWorkspace ws) {
+
+        float[][] outputFromNeuron = ws.outputFromNeuron;
+
+        //copy the input to the output of the first (input) layer for each row
+        System.arraycopy(input, offset, outputFromNeuron[0], 0, neuronsPerLayer[0]);
         //iterate through every other layer from first hidden layer
         for(int layer = 1; layer < numLayers; layer ++) {
+            float[] prevOutput = outputFromNeuron[layer-1];
+            float[] layerOutput = outputFromNeuron[layer];
+            float[] layerWeights = weights[layer];
+            int prevSize = neuronsPerLayer[layer-1];
             for(int neuron = 0; neuron < neuronsPerLayer[layer]; neuron ++) {
-                //now have specific neuron accessed by layer and neuron index
-                float sum = 0;
-                //iterate through previous layer and sum outputs * current weight
-                for(int prevNeuron = 0; prevNeuron < neuronsPerLayer[layer-1]; prevNeuron ++) {
-                    sum += outputFromNeuron[layer-1][prevNeuron] * weights[layer][neuron][prevNeuron];
-                }
+                //now have specific neuron accessed by layer and neuron index,
+                //sum previous layer outputs * current weight along this neuron's row of weights
+                float sum = KERNELS.dot(prevOutput, 0, layerWeights, neuron * prevSize, prevSize);
                 sum += bias[layer][neuron]; //plus current bias
-                //apply activation function and store result in outputFromNeuron
-                outputFromNeuron[layer][neuron] = ActivationFunction.sigmoid(sum);
-
-                //calculate output derivative here for use in backprop process
-                outputDerivativeSigmoid[layer][neuron] = ActivationFunction.derivativeSigmoid(outputFromNeuron[layer][neuron]);
+                layerOutput[neuron] = sum;
             }
+            //apply activation function to the whole layer and store result in outputFromNeuron
+            activations[layer].activate(layerOutput, 0, neuronsPerLayer[layer], sigmoid);
         }
-//        System.out.println(Arrays.toString(outputFromNeuron[numLayers -1]));
-        return outputFromNeuron[numLayers -1]; //return the output from the output layer
+    }
+
+    /**
+     * Method for storing the error of each neuron in the network's
+     * own workspace.
+     *
+     * @param targetOutput the actual expected output
+     */
+    @Override
+    public void backpropagateError(float[] targetOutput) {
+
+        backpropagateError(targetOutput, workspace);
     }
 
     /**
@@ -153,29 +575,73 @@ public class NeuralNetwork implements Serializable, INeuralNetwork {
      * hidden layer (no error for input layer as no calculations occur).
      *
      * @param targetOutput the actual expected output
+     * @param ws the workspace holding the outputs of the last calculateOutput
      */
-    @Override
-    public void backpropagateError(float[] targetOutput) {
+    public void backpropagateError(float[] targetOutput, NetworkWorkspace ws) {
 
-        //start by looping through output neurons
-        for(int neuron = 0; neuron < neuronsPerLayer[numLayers -1]; neuron++) {
-            //set error at output layer to the actual error * derivative sigmoid of output
-            error[numLayers -1][neuron] = (outputFromNeuron[numLayers -1][neuron] - targetOutput[neuron])
-                    * outputDerivativeSigmoid[numLayers -1][neuron];
+        backpropagateError(targetOutput, 0, ws);
+    }
+
+    /**
+     * Method for storing the error of each neuron, where the expected
+     * output is one row of a larger block, such as the outputs held by
+     * NetworkData.
+     *
+     * @param targetOutput block of expected outputs
+     * @param offset index of the first output of the row within the block
+     * @param ws the workspace holding the outputs of the last calculateOutput
+     */
+    public void backpropagateError(float[] targetOutput, int offset, NetworkWorkspace ws) {
+
+        float[][] outputFromNeuron = ws.outputFromNeuron;
+        float[][] error = ws.error;
+
+        float[] output = outputFromNeuron[numLayers -1];
+        float[] outputError = error[numLayers -1];
+        Activation outputActivation = activations[numLayers -1];
+
+        if (outputActivation == Activation.SOFTMAX) {
+            /*
+             * each softmax output depends on every sum in the layer, so the error at
+             * neuron j is o_j * (e_j - sum over k of e_k * o_k), where e is the actual error
+             */
+            float weighted = 0;
+            for(int neuron = 0; neuron < output.length; neuron++) {
+                weighted += (output[neuron] - targetOutput[offset + neuron]) * output[neuron];
+            }
+            for(int neuron = 0; neuron < output.length; neuron++) {
+                outputError[neuron] = output[neuron] * ((output[neuron] - targetOutput[offset + neuron]) - weighted);
+            }
+        } else {
+            //start by looping through output neurons
+            for(int neuron = 0; neuron < neuronsPerLayer[numLayers -1]; neuron++) {
+                //set error at output layer to the actual error * derivative of output
+                outputError[neuron] = (output[neuron] - targetOutput[offset + neuron])
+                        * outputActivation.derivative(output[neuron]);
+            }
         }
 
         //loop through all hidden layers (stop at input layer -> layer = 0)
         for(int layer = numLayers -2; layer > 0; layer--) {
-            //access individual neurons
-            for(int neuron = 0; neuron < neuronsPerLayer[layer]; neuron++) {
-                float err = 0; //set error to 0 initially
-                //iterate through next layer where error has already been calculated
-                for(int nextLayerNeuron = 0; nextLayerNeuron < neuronsPerLayer[layer +1]; nextLayerNeuron++) {
-                    //increase sum by weight that connects current and next neuron -> [layer +1] * error at next
-                    err += weights[layer +1][nextLayerNeuron][neuron] * error[layer +1][nextLayerNeuron];
-                }
-                //set current neurons error
-                this.error[layer][neuron] = err * outputDerivativeSigmoid[layer][neuron];
+            float[] err = error[layer];
+            float[] nextError = error[layer +1];
+            float[] nextWeights = weights[layer +1];
+            int size = neuronsPerLayer[layer];
+            //set error to 0 initially
+            Arrays.fill(err, 0f);
+            /*
+             * iterate through next layer where error has already been calculated,
+             * walking each row of the next layer's weights in order and adding
+             * weight that connects current and next neuron * error at next
+             */
+            for(int nextLayerNeuron = 0; nextLayerNeuron < neuronsPerLayer[layer +1]; nextLayerNeuron++) {
+                KERNELS.axpy(nextError[nextLayerNeuron], nextWeights, nextLayerNeuron * size, err, 0, size);
+            }
+            //set current neurons error, multiplying by the derivative of its output
+            Activation activation = activations[layer];
+            float[] layerOutput = outputFromNeuron[layer];
+            for(int neuron = 0; neuron < size; neuron++) {
+                err[neuron] *= activation.derivative(layerOutput[neuron]);
             }
         }
     }
@@ -188,24 +654,104 @@ public class NeuralNetwork implements Serializable, INeuralNetwork {
     @Override
     public void updateWeights() {
 
+        float[][] outputFromNeuron = workspace.outputFromNeuron;
+        float[][] error = workspace.error;
+
         //start at first hidden layer up to output
         for(int layer = 1; layer < numLayers; layer++) {
+            float[] prevOutput = outputFromNeuron[layer-1];
+            float[] layerWeights = weights[layer];
+            int prevSize = neuronsPerLayer[layer-1];
             for(int neuron = 0; neuron < neuronsPerLayer[layer]; neuron++) {
-                //iterate through every weight that connects previous and current neuron (prev layer -> layer-1)
-                for(int prevLayerNeuron = 0; prevLayerNeuron < neuronsPerLayer[layer-1]; prevLayerNeuron++) {
-                //calc change of weight: - lr * output from prev neuron * error current neuron
-                float weightChange = - NetworkConstants.LEARNING_RATE * outputFromNeuron[layer-1][prevLayerNeuron] * error[layer][neuron];
-                //update current neuron with weight change value
-                weights[layer][neuron][prevLayerNeuron] += weightChange;
-                }
+                //scale once per neuron: - lr * error current neuron
+                float scale = - learningRate * error[layer][neuron];
+                /*
+                 * every weight that connects previous and current neuron (prev layer -> layer-1)
+                 * changes by: - lr * output from prev neuron * error current neuron
+                 */
+                KERNELS.axpy(scale, prevOutput, 0, layerWeights, neuron * prevSize, prevSize);
                 /*
                  * each has only one bias so update this outside loop,
                  * also bias is not connected to prev neurons so just lr * current error
                  */
-                float biasChange = - NetworkConstants.LEARNING_RATE * error[layer][neuron];
-                bias[layer][neuron] += biasChange;
+                bias[layer][neuron] += scale;
+            }
+        }
+    }
+
+    /**
+     * Method for adding the gradient of the current sample to the
+     * mini-batch gradient buffers of the network's own workspace.
+     */
+    @Override
+    public void accumulateGradients() {
+
+        accumulateGradients(workspace);
+    }
+
+    /**
+     * Method for adding the gradient of the current sample to the
+     * mini-batch gradient buffers, rather than applying it to the
+     * weights straight away:
+     * - prev neuron output * current neuron error
+     *
+     * @param ws the workspace holding the outputs and errors of the sample
+     */
+    public void accumulateGradients(NetworkWorkspace ws) {
+
+        for(int layer = 1; layer < numLayers; layer++) {
+            float[] prevOutput = ws.outputFromNeuron[layer-1];
+            float[] layerGradient = ws.weightGradient[layer];
+            float[] layerError = ws.error[layer];
+            int prevSize = neuronsPerLayer[layer-1];
+            for(int neuron = 0; neuron < neuronsPerLayer[layer]; neuron++) {
+                float err = layerError[neuron];
+                KERNELS.axpy(err, prevOutput, 0, layerGradient, neuron * prevSize, prevSize);
+                ws.biasGradient[layer][neuron] += err;
+            }
+        }
+    }
+
+    /**
+     * Method for updating the weights and the biases with the average
+     * gradient accumulated in the network's own workspace.
+     *
+     * @param batchSize the number of samples accumulated since the last update
+     * @throws IllegalArgumentException batch size must be positive
+     */
+    @Override
+    public void applyGradients(int batchSize) {
+
+        applyGradients(batchSize, workspace);
+    }
+
+    /**
+     * Method for updating the weights and the biases with the average
+     * gradient of a mini-batch, then clearing the gradient buffers
+     * ready for the next batch:
+     * - learning rate * summed gradient / batch size
+     *
+     * @param batchSize the number of samples accumulated since the last update
+     * @param ws the workspace holding the summed gradients
+     * @throws IllegalArgumentException batch size must be positive
+     */
+    public void applyGradients(int batchSize, NetworkWorkspace ws) {
+
+        if (batchSize < 1) {
+            throw new IllegalArgumentException("batch size must be at least 1, was " + batchSize);
+        }
+
+        float scale = - learningRate / batchSize;
+
+        for(int layer = 1; layer < numLayers; layer++) {
+            float[] layerWeights = weights[layer];
+            float[] layerGradient = ws.weightGradient[layer];
+            KERNELS.axpy(scale, layerGradient, 0, layerWeights, 0, layerWeights.length);
+            for(int neuron = 0; neuron < neuronsPerLayer[layer]; neuron++) {
+                bias[layer][neuron] += scale * ws.biasGradient[layer][neuron];
             }
         }
+        ws.clearGradients();
     }
 
     /**
@@ -221,23 +767,51 @@ public class NeuralNetwork implements Serializable, INeuralNetwork {
     @Override
     public float meanSqError(float[] input, float[] targetOutput) {
 
-        if (input.length != NetworkConstants.INPUT_LAYER_SIZE) {
-            throw new IllegalArgumentException("input length: " + input.length +
-                    " does not match number of input neurons: " + NetworkConstants.INPUT_LAYER_SIZE);
-        }
-        if (targetOutput.length != NetworkConstants.OUTPUT_LAYER_SIZE) {
-            throw new IllegalArgumentException("output length: " + targetOutput.length +
-                    " does not match number of output neurons: " + NetworkConstants.OUTPUT_LAYER_SIZE);
-        }
+        return meanSqError(input, targetOutput, workspace);
+    }
+
+    /**
+     * Method for calculating the mean squared error of the
+     * network, using the given workspace for the outputs.
+     *
+     * @param input inputs to the network
+     * @param targetOutput expected outputFromNeuron
+     * @param ws the workspace the outputs are stored in
+     * @return the mean squared error
+     * @throws IllegalArgumentException input/output neurons must match
+     * corresponding getSize
+     */
+    public float meanSqError(float[] input, float[] targetOutput, NetworkWorkspace ws) {
+
+        TrainNetwork.checkSizes(input, targetOutput, this);
+
+        return meanSqError(input, 0, targetOutput, 0, ws);
+    }
+
+    /**
+     * Method for calculating the mean squared error of one row of a
+     * larger block of inputs and expected outputs, such as the ones
+     * held by NetworkData.
+     *
+     * @param input block of inputs
+     * @param inputOffset index of the first input of the row
+     * @param targetOutput block of expected outputs
+     * @param outputOffset index of the first expected output of the row
+     * @param ws the workspace the outputs are stored in
+     * @return the mean squared error
+     */
+    public float meanSqError(float[] input, int inputOffset, float[] targetOutput, int outputOffset,
+                             NetworkWorkspace ws) {
 
-        calculateOutput(input);
+        feedForward(input, inputOffset, ws);
+        float[] actualOutput = ws.outputFromNeuron[numLayers -1];
 
         float mse = 0;
-        for(int i = 0; i < targetOutput.length; i++) {
+        for(int i = 0; i < actualOutput.length; i++) {
             //(target output - output from the final layer at i) ^2
-            mse += NeuralNetworkUtils.square(targetOutput[i] - outputFromNeuron[numLayers -1][i]);
+            mse += NeuralNetworkUtils.square(targetOutput[outputOffset + i] - actualOutput[i]);
         }
-        return  mse / (2f * targetOutput.length);
+        return  mse / (2f * actualOutput.length);
     }
 
     /**
@@ -249,9 +823,16 @@ public class NeuralNetwork implements Serializable, INeuralNetwork {
      */
     public float meanSqError(NetworkData set) {
 
+        TrainNetwork.checkSizes(set, this);
+
+        float[] inputs = set.getInputBlock();
+        float[] outputs = set.getOutputBlock();
+        int inputSize = set.getInputSize();
+        int outputSize = set.getOutputSize();
+
         float mse = 0;
         for(int i = 0; i < set.getSize(); i++) {
-            mse += meanSqError(set.getInput(i), set.getOutput(i));
+            mse += meanSqError(inputs, i * inputSize, outputs, i * outputSize, workspace);
         }
         return mse / set.getSize();
     }
@@ -259,32 +840,23 @@ public class NeuralNetwork implements Serializable, INeuralNetwork {
     /**
      * Method for saving a neural network  by taking a file name
      * and the name of the trained network object, and writing the
-     * network object to the file.
+     * network to the file in the NetworkModelFile format.
      *
      * @param fileName to write network to
      * @param network the neural network object being saved
      */
     public void saveANN(String fileName, NeuralNetwork network) {
 
-        try (FileOutputStream f = new FileOutputStream(fileName);
-             ObjectOutputStream os = new ObjectOutputStream(f)) {
-
-            os.writeObject(network); //write neural network to the file
-            os.flush();
-
-            System.out.println("Network saved successfully to " + fileName);
-
-        } catch (IOException e) {
-            System.err.println("Error saving network to " + fileName + ":" + e);
-            e.printStackTrace();
-        }
+        NetworkModelFile.write(network, fileName);
     }
 
     /**
-     * Method for loading a previously trained network by reading
-     * a Network object from a file and returning it.
+     * Method for loading a previously trained network from a file and
+     * returning it. Files saved by the original saveANN, which wrote
+     * the network with Java serialization, are converted as they are
+     * loaded (see LegacyNeuralNetwork).
      *
-     * @param  fileName name of file where the object is stored
+     * @param  fileName name of file where the network is stored
      * @return The Network object
      */
     public static NeuralNetwork loadANN(String fileName) {
@@ -293,20 +865,82 @@ public class NeuralNetwork implements Serializable, INeuralNetwork {
             System.err.println("No such file '" + fileName + "' exists..");
         }
 
-        try (FileInputStream i = new FileInputStream(fileName);
-             ObjectInputStream is = new ObjectInputStream(i)) {
-
-            NeuralNetwork ann = (NeuralNetwork) is.readObject(); //reads in the network
-
-            System.out.println("Successfully loaded the neural network!");
+        try {
+            NeuralNetwork ann;
+            if (NetworkModelFile.isSerialized(fileName)) {
+                ann = LegacyNeuralNetwork.read(fileName);
+                System.out.println("Successfully loaded the neural network! (old serialized format, save again " +
+                        "to convert)");
+            } else {
+                ann = NetworkModelFile.read(fileName);
+                System.out.println("Successfully loaded the neural network!");
+            }
             return ann;
 
-        } catch (ClassNotFoundException | IOException e) {
+        } catch (IOException e) {
             System.err.println("error loading file: '" + fileName + "'");
             e.printStackTrace();
             return null;
         }
     }
 
+    /**
+     * Method which returns the file name the next version of a saved
+     * network should be written to, so updating a network never
+     * overwrites an earlier version, e.g. "Files/ANN100.txt" gives
+     * "Files/ANN100-v2.txt", then "Files/ANN100-v3.txt" once that exists.
+     *
+     * @param fileName the file of any existing version of the network
+     * @return the first version file name not yet taken
+     */
+    public static String nextVersion(String fileName) {
+
+        return versionName(fileName, latestVersionNumber(fileName) + 1);
+    }
+
+    /**
+     * Method which returns the file of the newest saved version of a
+     * network, e.g. "Files/ANN100-v3.txt" for "Files/ANN100.txt" once
+     * versions 2 and 3 have been saved, so each update carries on from
+     * the last one.
+     *
+     * @param fileName the file of any existing version of the network
+     * @return the newest version's file, fileName's version 1 if no
+     * later version has been saved
+     */
+    public static String latestVersion(String fileName) {
+
+        return versionName(fileName, latestVersionNumber(fileName));
+    }
+
+    /**
+     * Helper method which finds the newest saved version of a network,
+     * 1 being the file saved without a version.
+     */
+    private static int latestVersionNumber(String fileName) {
+
+        int version = 1; //the first file saved is version 1
+        while (new File(versionName(fileName, version + 1)).exists()) {
+            version++;
+        }
+        return version;
+    }
+
+    /**
+     * Helper method which returns the file name of a version of a
+     * network, version 1 having no version in its name.
+     */
+    private static String versionName(String fileName, int version) {
+
+        int dot = fileName.lastIndexOf('.');
+        if (dot <= fileName.lastIndexOf(File.separatorChar)) {
+            dot = fileName.length(); //no extension
+        }
+        //strip the version off, so every version is found from the same base name
+        String base = fileName.substring(0, dot).replaceFirst("-v\\d+$", "");
+        String extension = fileName.substring(dot);
+
+        return version == 1 ? base + extension : base + "-v" + version + extension;
+    }
 
 }
@@ -0,0 +1,194 @@
+package Network;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Class which contains the static methods to train the network
+ * in mini-batches across several cores.
+ *
+ * Each batch is split into one shard per worker. Every worker
+ * calculates the output, backpropagates the error and accumulates
+ * the gradient for its shard in its own NetworkWorkspace, so no
+ * per-sample state is shared. Once all shards are complete the
+ * gradients are summed into the first workspace and applied to the
+ * shared weights in one update.
+ *
+ * @author Alex Kelly
+ */
+public class ParallelTrainNetwork {
+
+    /**
+     * Method for training an entire set of data in mini-batches,
+     * using one worker per available processor.
+     *
+     * @param set the NetworkData to be trained
+     * @param epochs the number of training iterations
+     * @param batchSize the number of rows per weight update
+     * @param network the network being trained
+     */
+    public static void train(NetworkData set, int epochs, int batchSize, NeuralNetwork network) {
+
+        train(set, epochs, batchSize, Runtime.getRuntime().availableProcessors(), network);
+    }
+
+    /**
+     * Method for training an entire set of data in mini-batches,
+     * with each batch split across the given number of workers.
+     *
+     * @param set the NetworkData to be trained
+     * @param epochs the number of training iterations
+     * @param batchSize the number of rows per weight update
+     * @param workers the number of threads to train with
+     * @param network the network being trained
+     * @throws IllegalArgumentException batch size and workers must be positive
+     */
+    public static void train(NetworkData set, int epochs, int batchSize, int workers, NeuralNetwork network) {
+
+        if (batchSize < 1) {
+            throw new IllegalArgumentException("batch size must be at least 1, was " + batchSize);
+        }
+        if (workers < 1) {
+            throw new IllegalArgumentException("number of workers must be at least 1, was " + workers);
+        }
+        TrainNetwork.checkSizes(set, network);
+
+        float[] inputs = set.getInputBlock();
+        float[] outputs = set.getOutputBlock();
+        int inputSize = set.getInputSize();
+        int outputSize = set.getOutputSize();
+
+        //one workspace per worker, reused for every batch
+        NetworkWorkspace[] workspaces = new NetworkWorkspace[workers];
+        for (int w = 0; w < workers; w++) {
+            workspaces[w] = network.createWorkspace();
+        }
+
+        ForkJoinPool pool = new ForkJoinPool(workers);
+
+        try {
+            for (int i = 0; i < epochs; i++) { //for as many iterations as specified
+                for (int start = 0; start < set.getSize(); start += batchSize) {
+                    int end = Math.min(start + batchSize, set.getSize());
+
+                    //forward and backward pass for each shard of the batch in parallel
+                    pool.invoke(new ShardTask(workers, start, end, (worker, from, to) -> {
+                        NetworkWorkspace ws = workspaces[worker];
+                        for (int j = from; j < to; j++) {
+                            network.calculateOutput(inputs, j * inputSize, ws);
+                            network.backpropagateError(outputs, j * outputSize, ws);
+                            network.accumulateGradients(ws);
+                        }
+                    }));
+
+                    //reduce the gradients into the first workspace and update the weights once
+                    for (int w = 1; w < workers; w++) {
+                        workspaces[0].addGradients(workspaces[w]);
+                    }
+                    network.applyGradients(end - start, workspaces[0]);
+                }
+                //print out which iteration as well as the mean sq error for the set
+                System.out.println("epoch " + (i+1) + " - mean sq error --> " +
+                        meanSqError(set, network, workspaces, pool));
+            }
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    /**
+     * Method that calculates the mean square error of the set with
+     * the rows split across the workers.
+     *
+     * @param set NetworkData having mean sq error calculated
+     * @param network the network being trained
+     * @param workspaces one workspace per worker
+     * @param pool the pool the workers run in
+     * @return the mean sq error of the set
+     */
+    private static float meanSqError(NetworkData set, NeuralNetwork network,
+                                     NetworkWorkspace[] workspaces, ForkJoinPool pool) {
+
+        float[] partial = new float[workspaces.length];
+        float[] inputs = set.getInputBlock();
+        float[] outputs = set.getOutputBlock();
+        int inputSize = set.getInputSize();
+        int outputSize = set.getOutputSize();
+
+        pool.invoke(new ShardTask(workspaces.length, 0, set.getSize(), (worker, from, to) -> {
+            float mse = 0;
+            for (int j = from; j < to; j++) {
+                mse += network.meanSqError(inputs, j * inputSize, outputs, j * outputSize, workspaces[worker]);
+            }
+            partial[worker] = mse;
+        }));
+
+        float mse = 0;
+        for (float p : partial) {
+            mse += p;
+        }
+        return mse / set.getSize();
+    }
+
+    /**
+     * The work carried out by one worker on its shard of rows.
+     */
+    private interface ShardWork {
+
+        /**
+         * @param worker index of the worker, used to select its workspace
+         * @param from index of the first row in the shard
+         * @param to index after the last row in the shard
+         */
+        void run(int worker, int from, int to);
+    }
+
+    /**
+     * Task which splits a range of workers in half until a single
+     * worker remains, then runs that worker's shard of the rows.
+     */
+    private static class ShardTask extends RecursiveAction {
+
+        private static final long serialVersionUID = 1L; //never serialized, ForkJoinTask is Serializable
+
+        private final int workers; //total number of workers the rows are shared between
+        private final int firstWorker;
+        private final int lastWorker; //exclusive
+        private final int start;
+        private final int end;
+        private final ShardWork work;
+
+        private ShardTask(int workers, int start, int end, ShardWork work) {
+            this(workers, 0, workers, start, end, work);
+        }
+
+        private ShardTask(int workers, int firstWorker, int lastWorker, int start, int end, ShardWork work) {
+            this.workers = workers;
+            this.firstWorker = firstWorker;
+            this.lastWorker = lastWorker;
+            this.start = start;
+            this.end = end;
+            this.work = work;
+        }
+
+        @Override
+        protected void compute() {
+
+            if (lastWorker - firstWorker == 1) {
+                //rows are shared out evenly by worker index
+                int rows = end - start;
+                int from = start + (int) ((long) rows * firstWorker / workers);
+                int to = start + (int) ((long) rows * (firstWorker + 1) / workers);
+                if (from < to) {
+                    work.run(firstWorker, from, to);
+                }
+                return;
+            }
+
+            int mid = (firstWorker + lastWorker) >>> 1;
+            invokeAll(new ShardTask(workers, firstWorker, mid, start, end, work),
+                      new ShardTask(workers, mid, lastWorker, start, end, work));
+        }
+    }
+
+}
@@ -5,7 +5,7 @@ import Utils.NeuralNetworkUtils;
 import java.util.Arrays;
 
 /**
- * Contains single method for testing the accuracy of
+ * Contains methods for testing the accuracy of
  * the Neural networks predictions.
  *
  * As a test, also added a test for logical operators.
@@ -32,10 +32,14 @@ public class TestNetwork {
         //number of correct values predicted, initially 0
         int count = 0;
 
+        //score every row of the set in one batch, straight from the set's input block
+        float[][] actual = predictAll(network, set);
+
         for (int i = 0; i < set.getSize(); i++) {
 
-            float actualHighestIndex = NeuralNetworkUtils.compareIndexes(network.calculateOutput(set.getInput(i)));
-            float expectedHighestIndex = NeuralNetworkUtils.compareIndexes(set.getOutput(i));
+            float actualHighestIndex = NeuralNetworkUtils.compareIndexes(actual[i]);
+            float expectedHighestIndex = NeuralNetworkUtils.compareIndexes(set.getOutputBlock(),
+                    set.getOutputOffset(i));
 
 //            if (i % 10 == 0) { //print every 10th prediction
 //                System.out.print("row " + i + ": expected -> " + Arrays.toString(set.getOutput(i)));
@@ -55,7 +59,7 @@ public class TestNetwork {
 
             else { //print incorrect predictions
                 System.out.print("row " + i + ": expected -> " + Arrays.toString(set.getOutput(i)));
-                System.out.println(" ----- actual -> " + Arrays.toString(network.calculateOutput(set.getInput(i))));
+                System.out.println(" ----- actual -> " + Arrays.toString(actual[i]));
             }
         }
 
@@ -70,6 +74,57 @@ public class TestNetwork {
         System.out.println("******************************************************************************");
     }
 
+    /**
+     * Method for calculating the fraction of a set the network predicts
+     * correctly, using the same highest-index comparison as testAccuracy
+     * but without printing anything.
+     *
+     * @param network the trained neural network
+     * @param set the test data set
+     * @return the fraction of rows predicted correctly, between 0 and 1
+     */
+    public static float accuracy(NeuralNetwork network, NetworkData set) {
+
+        if (set.getSize() == 0) {
+            return 0;
+        }
+
+        int count = 0;
+        float[][] actual = predictAll(network, set);
+
+        for (int i = 0; i < set.getSize(); i++) {
+            if (NeuralNetworkUtils.compareIndexes(actual[i]) ==
+                    NeuralNetworkUtils.compareIndexes(set.getOutputBlock(), set.getOutputOffset(i))) {
+                count++;
+            }
+        }
+        return (float) count / (float) set.getSize();
+    }
+
+    /**
+     * Helper method which predicts every row of a set in one batch,
+     * reading the inputs from the set's block rather than copying
+     * them out row by row.
+     *
+     * @param network the trained neural network
+     * @param set the test data set
+     * @return one row of outputs per row of the set
+     */
+    private static float[][] predictAll(NeuralNetwork network, NetworkData set) {
+
+        TrainNetwork.checkSizes(set, network);
+
+        int outputSize = network.getOutputSize();
+        float[] output = new float[set.getSize() * outputSize];
+        network.predictBatch(set.getInputBlock(), set.getSize(), output);
+
+        float[][] actual = new float[set.getSize()][];
+        for (int i = 0; i < set.getSize(); i++) {
+            actual[i] = Arrays.copyOfRange(output, i * outputSize, (i + 1) * outputSize);
+        }
+        return actual;
+    }
+
     /**
      * Method which used to test whether the network was functional
      * and able to learn logical operators.
@@ -89,13 +144,14 @@ public class TestNetwork {
         }
 
         int correct = 0;
+        NetworkWorkspace ws = net.createWorkspace();
 
         for (int i = 0; i < set.getSize(); i++) {
-            float[] actual = net.calculateOutput(set.getInput(i));
-            float[] target = set.getOutput(i);
+            //rows read in place from the set's blocks
+            float[] actual = net.calculateOutput(set.getInputBlock(), set.getInputOffset(i), ws);
 
             float a = actual[0];
-            float t = target[0];
+            float t = set.getOutputBlock()[set.getOutputOffset(i)];
 
             //check whether the expected and actual outputs are within the tolerance
             if (Math.abs(a - t) < tolerance) {
@@ -1,5 +1,7 @@
 package Network;
 
+import java.util.Random;
+
 /**
  * Class which contains the static methods to train
  * the network.
@@ -9,31 +11,67 @@ package Network;
 public class TrainNetwork {
 
     /**
-     * Method that trains the network in the following steps:
+     * Method that trains the network on one row of a set in the
+     * following steps:
      * - calls method to calculateOutput the output
      * - calculates error from this
      * - calls method to backpropagate the error through the network
      * - calls method to adjusts the weights
      *
+     * @param set the NetworkData being trained
+     * @param row index of the row to train on
+     */
+    private static void trainRow(NetworkData set, int row, NeuralNetwork network) {
+
+        NetworkWorkspace ws = network.getWorkspace();
+
+        network.calculateOutput(set.getInputBlock(), row * set.getInputSize(), ws);
+        network.backpropagateError(set.getOutputBlock(), row * set.getOutputSize(), ws);
+        network.updateWeights();
+    }
+
+    /**
+     * Helper method that checks a row matches the size of the
+     * input and output layers of the network.
+     *
      * @param input inputs for the network
-     * @param targetOutput expected outputFromNeuron for the network
+     * @param targetOutput expected output for the network
+     * @param network the network the row is used with
      * @throws IllegalArgumentException input/output neurons must match
      * corresponding getSize
      */
-    private static void train(float[] input, float[] targetOutput, NeuralNetwork network) {
+    static void checkSizes(float[] input, float[] targetOutput, NeuralNetwork network) {
 
-        if (input.length != NetworkConstants.INPUT_LAYER_SIZE) {
+        if (input.length != network.getInputSize()) {
             throw new IllegalArgumentException("input length: " + input.length +
-                    " does not match number of input neurons: " + NetworkConstants.INPUT_LAYER_SIZE);
+                    " does not match number of input neurons: " + network.getInputSize());
         }
-        if (targetOutput.length != NetworkConstants.OUTPUT_LAYER_SIZE) {
+        if (targetOutput.length != network.getOutputSize()) {
             throw new IllegalArgumentException("output length: " + targetOutput.length +
-                    " does not match number of output neurons: " + NetworkConstants.OUTPUT_LAYER_SIZE);
+                    " does not match number of output neurons: " + network.getOutputSize());
         }
+    }
 
-        network.calculateOutput(input);
-        network.backpropagateError(targetOutput);
-        network.updateWeights();
+    /**
+     * Helper method that checks the rows of a set match the size of
+     * the input and output layers of the network, so the rows
+     * themselves don't need checking one at a time.
+     *
+     * @param set the set of data
+     * @param network the network the set is used with
+     * @throws IllegalArgumentException input/output neurons must match
+     * corresponding getSize
+     */
+    static void checkSizes(NetworkData set, NeuralNetwork network) {
+
+        if (set.getInputSize() != network.getInputSize()) {
+            throw new IllegalArgumentException("set input length: " + set.getInputSize() +
+                    " does not match number of input neurons: " + network.getInputSize());
+        }
+        if (set.getOutputSize() != network.getOutputSize()) {
+            throw new IllegalArgumentException("set output length: " + set.getOutputSize() +
+                    " does not match number of output neurons: " + network.getOutputSize());
+        }
     }
 
     /**
@@ -46,13 +84,235 @@ public class TrainNetwork {
      */
     public static void train(NetworkData set, int epochs, NeuralNetwork network) {
 
+        train(set, epochs, 1, network);
+    }
+
+    /**
+     * Method for training an entire set of data in mini-batches. The
+     * gradient of every row in a batch is accumulated and the weights
+     * are only updated once per batch, using the average gradient.
+     * A batch size of 1 is the same as training row by row.
+     *
+     * @param set the NetworkData to be trained
+     * @param epochs the number of training iterations
+     * @param batchSize the number of rows per weight update
+     * @throws IllegalArgumentException batch size must be positive
+     */
+    public static void train(NetworkData set, int epochs, int batchSize, NeuralNetwork network) {
+
+        if (batchSize < 1) {
+            throw new IllegalArgumentException("batch size must be at least 1, was " + batchSize);
+        }
+
         for(int i = 0; i < epochs; i++) { //for as many iterations as specified
+            trainEpoch(set, batchSize, network);
+            //print out which iteration as well as the mean sq error for the set
+            System.out.println("epoch " + (i+1) + " - mean sq error --> " + network.meanSqError(set));
+        }
+    }
+
+    /**
+     * Method for training one pass through an entire set of data,
+     * without printing anything, so callers such as the
+     * hyper-parameter search can decide what to report.
+     *
+     * @param set the NetworkData to be trained
+     * @param batchSize the number of rows per weight update
+     * @param network the network being trained
+     * @throws IllegalArgumentException batch size must be positive
+     */
+    public static void trainEpoch(NetworkData set, int batchSize, NeuralNetwork network) {
+
+        if (batchSize < 1) {
+            throw new IllegalArgumentException("batch size must be at least 1, was " + batchSize);
+        }
+        checkSizes(set, network);
+
+        if (batchSize == 1) {
             for(int j = 0; j < set.getSize(); j++) { //one iteration is going through the entire set
-                train(set.getInput(j), set.getOutput(j), network); //train on individual entry
+                trainRow(set, j, network); //train on individual entry
+            }
+        } else {
+            for(int start = 0; start < set.getSize(); start += batchSize) {
+                trainBatch(set, start, Math.min(start + batchSize, set.getSize()), network);
+            }
+        }
+    }
+
+    /**
+     * Method for training on a set that is read a chunk at a time, so
+     * only one chunk is held in memory however large the set is. Each
+     * chunk is trained in mini-batches like an in-memory set (a batch
+     * never spans two chunks, so the chunk size should be a multiple of
+     * the batch size). The error printed for each epoch is the average
+     * over the chunks, each measured just after it was trained on, so
+     * the set doesn't have to be read a second time.
+     *
+     * @param source the set to be trained, read a chunk at a time
+     * @param epochs the number of training iterations
+     * @param batchSize the number of rows per weight update
+     * @param network the network being trained
+     * @throws IllegalArgumentException batch size must be positive and
+     * the source must match the size of the network
+     */
+    public static void train(NetworkDataSource source, int epochs, int batchSize, NeuralNetwork network) {
+
+        NetworkData chunk = new NetworkData(source.getInputSize(), source.getOutputSize());
+        checkSizes(chunk, network);
+
+        for(int i = 0; i < epochs; i++) { //for as many iterations as specified
+            source.reset();
+            double errorSum = 0;
+            int rows = 0;
+            while (source.nextChunk(chunk)) {
+                trainEpoch(chunk, batchSize, network);
+                errorSum += (double) network.meanSqError(chunk) * chunk.getSize();
+                rows += chunk.getSize();
             }
             //print out which iteration as well as the mean sq error for the set
-            System.out.println("epoch " + (i+1) + " - mean sq error --> " + network.meanSqError(set));
+            System.out.println("epoch " + (i+1) + " - mean sq error --> " + (rows == 0 ? 0 : errorSum / rows));
+        }
+    }
+
+    /**
+     * Method for updating an already trained network with new rows
+     * (e.g. a week's results from IncrementalIngest) instead of
+     * training a new network on the whole history again. The network
+     * carries on from its current weights, and a few epochs over the
+     * new rows are usually enough.
+     *
+     * A random sample of the rows the network was trained on before can
+     * be mixed in (replayed), so it doesn't forget the history while
+     * learning the new rows. The new and replayed rows are shuffled
+     * together so no batch is made up only of one or the other.
+     *
+     * @param network the trained network, updated in place
+     * @param newRows the new rows
+     * @param history the rows the network was trained on before, may be
+     *                null if replayRows is 0
+     * @param replayRows number of history rows to replay (at most the
+     *                   size of the history)
+     * @param epochs the number of training iterations
+     * @param batchSize the number of rows per weight update
+     * @param seed seed for the replay sample and shuffle, so an update can be repeated
+     * @throws IllegalArgumentException replayRows must be between 0 and
+     * the size of the history, and the sets must match the network
+     */
+    public static void fineTune(NeuralNetwork network, NetworkData newRows, NetworkData history, int replayRows,
+                                int epochs, int batchSize, long seed) {
+
+        if (replayRows < 0 || (replayRows > 0 && (history == null || replayRows > history.getSize()))) {
+            throw new IllegalArgumentException("can't replay " + replayRows + " rows from a history of " +
+                    (history == null ? 0 : history.getSize()));
+        }
+
+        Random random = new Random(seed);
+        NetworkData set = new NetworkData(newRows.getInputSize(), newRows.getOutputSize(),
+                newRows.getSize() + replayRows);
+        set.addNetworkData(newRows.getInputBlock(), newRows.getOutputBlock(), newRows.getSize());
+
+        if (replayRows > 0) {
+            checkSizes(history, network);
+            //partial Fisher-Yates over the history's row indexes, each row replayed at most once
+            int[] indexes = new int[history.getSize()];
+            for (int i = 0; i < indexes.length; i++) {
+                indexes[i] = i;
+            }
+            for (int i = 0; i < replayRows; i++) {
+                int j = i + random.nextInt(indexes.length - i);
+                int swap = indexes[i];
+                indexes[i] = indexes[j];
+                indexes[j] = swap;
+                set.addNetworkData(history, indexes[i]);
+            }
+        }
+
+        set = shuffle(set, random);
+        System.out.println("fine-tuning on " + newRows.getSize() + " new rows and " + replayRows + " replayed rows");
+        train(set, epochs, batchSize, network);
+    }
+
+    /**
+     * Method for loading the newest saved version of a network, updating
+     * it with new rows using the fineTune method above, and saving it as
+     * the next version, leaving the loaded version as it was so a bad
+     * update can be undone. Each update therefore carries on from the
+     * one before, e.g. v3 is v1 updated with both weeks' rows.
+     *
+     * @param modelFile file of any version of the saved network
+     * @param newRows the new rows
+     * @param history the rows the network was trained on before, may be
+     *                null if replayRows is 0
+     * @param replayRows number of history rows to replay
+     * @param epochs the number of training iterations
+     * @param batchSize the number of rows per weight update
+     * @param seed seed for the replay sample and shuffle
+     * @return the file the new version was saved to, or null if the
+     * network couldn't be loaded
+     */
+    public static String fineTune(String modelFile, NetworkData newRows, NetworkData history, int replayRows,
+                                  int epochs, int batchSize, long seed) {
+
+        String latestFile = NeuralNetwork.latestVersion(modelFile);
+        NeuralNetwork network = NeuralNetwork.loadANN(latestFile);
+        if (network == null) {
+            return null;
+        }
+
+        System.out.println("updating " + latestFile);
+        fineTune(network, newRows, history, replayRows, epochs, batchSize, seed);
+
+        String versionFile = NeuralNetwork.nextVersion(modelFile);
+        network.saveANN(versionFile, network);
+        return versionFile;
+    }
+
+    /**
+     * Helper method which returns a copy of a set with its rows in a
+     * random order.
+     */
+    private static NetworkData shuffle(NetworkData set, Random random) {
+
+        int[] order = new int[set.getSize()];
+        for (int i = 0; i < order.length; i++) {
+            order[i] = i;
+        }
+        for (int i = order.length - 1; i > 0; i--) {
+            int j = random.nextInt(i + 1);
+            int swap = order[i];
+            order[i] = order[j];
+            order[j] = swap;
+        }
+
+        NetworkData shuffled = new NetworkData(set.getInputSize(), set.getOutputSize(), set.getSize());
+        for (int row : order) {
+            shuffled.addNetworkData(set, row);
+        }
+        return shuffled;
+    }
+
+    /**
+     * Method that trains the network on one mini-batch of rows:
+     * - calculates the output and backpropagates the error for each row
+     * - accumulates the gradient of each row
+     * - applies the average gradient to the weights once
+     *
+     * @param set the NetworkData being trained
+     * @param start index of the first row in the batch
+     * @param end index after the last row in the batch
+     */
+    private static void trainBatch(NetworkData set, int start, int end, NeuralNetwork network) {
+
+        NetworkWorkspace ws = network.getWorkspace();
+        float[] inputs = set.getInputBlock();
+        float[] outputs = set.getOutputBlock();
+
+        for(int j = start; j < end; j++) {
+            network.calculateOutput(inputs, j * set.getInputSize(), ws);
+            network.backpropagateError(outputs, j * set.getOutputSize(), ws);
+            network.accumulateGradients();
         }
+        network.applyGradients(end - start);
     }
 
 }
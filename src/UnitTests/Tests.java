@@ -1,12 +1,69 @@
 package UnitTests;
 
+import Database.CSVPipeline;
+import Database.CategoryDictionary;
+import Database.ConnectDB;
+import Database.PipelineRunner;
+import Database.PooledDataSource;
+import Database.ReadFiles;
+import Network.Activation;
 import Network.ActivationFunction;
+import Network.CreateNetworkData;
+import Network.FileNetworkDataSource;
+import Network.HyperParameterSearch;
+import Network.MappedNetworkDataSource;
+import Network.NetworkConfig;
+import Network.NetworkConstants;
+import Network.NetworkData;
+import Network.NetworkDataFile;
+import Network.NetworkModelFile;
+import Network.NetworkWorkspace;
+import Network.NeuralNetwork;
+import Network.ParallelTrainNetwork;
+import Network.TrainNetwork;
 import Utils.NeuralNetworkUtils;
 import Utils.RandomNumberGenerator;
+import org.junit.Assume;
 import org.junit.Test;
 
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.FileWriter;
+import java.io.InputStream;
+import java.io.ObjectOutputStream;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.io.Reader;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.nio.FloatBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.sql.Connection;
+import java.sql.Driver;
+import java.sql.DriverManager;
+import java.sql.DriverPropertyInfo;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Properties;
+import java.util.Set;
+import java.util.logging.Logger;
+
+import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
 
 /**
  * Contains unit tests for the program.
@@ -81,6 +138,35 @@ public class Tests {
 
     }
 
+    /**
+     * Tests that the float and lookup table sigmoid modes stay within
+     * their error bounds of the exact sigmoid.
+     */
+    @Test
+    public void fastSigmoidTest() {
+
+        for (float maxError : new float[]{1e-2f, 1e-3f, 1e-4f}) {
+            ActivationFunction.Sigmoid lookup = ActivationFunction.sigmoid(ActivationFunction.SigmoidMode.LOOKUP,
+                    maxError);
+            for (float x = -20; x <= 20; x += 0.0007f) {
+                assertEquals(ActivationFunction.sigmoidExact(x), lookup.apply(x), maxError);
+            }
+        }
+
+        ActivationFunction.Sigmoid fast = ActivationFunction.sigmoid(ActivationFunction.SigmoidMode.FLOAT, 0);
+        for (float x = -100; x <= 100; x += 0.0007f) {
+            assertEquals(ActivationFunction.sigmoidExact(x), fast.apply(x), 1e-6);
+        }
+
+        //the float exponential is within a few ulps over the whole range of a float
+        for (float x = -87; x <= 88; x += 0.0013f) {
+            float exact = (float) Math.exp(x);
+            assertEquals(exact, ActivationFunction.expFloat(x), 4 * Math.ulp(exact));
+        }
+        assertEquals(0, ActivationFunction.expFloat(-200), 0);
+        assertEquals(Float.POSITIVE_INFINITY, ActivationFunction.expFloat(200), 0);
+    }
+
     /**
      * Tests that the random numbers generated are between
      * 0 and 1 as expected.
@@ -99,4 +185,1224 @@ public class Tests {
 
     }
 
+    /**
+     * Helper method which makes a set of random inputs, labelled by
+     * whether the first input is over 0.5, which the test networks
+     * can learn quickly.
+     */
+    private static NetworkData thresholdSet(int rows) {
+
+        NetworkData set = new NetworkData();
+        for (int i = 0; i < rows; i++) {
+            float[] input = RandomNumberGenerator.randomArray(NetworkConstants.INPUT_LAYER_SIZE);
+            float[] output = input[0] > 0.5f ? new float[]{1, 0} : new float[]{0, 1};
+            set.addNetworkData(input, output);
+        }
+        return set;
+    }
+
+    /**
+     * Tests that training on a small set reduces the mean square
+     * error, i.e. that the forward pass, backpropagation and weight
+     * updates all agree on the layout of the weights.
+     */
+    @Test
+    public void trainingReducesErrorTest() {
+
+        NetworkData set = thresholdSet(20);
+
+        NeuralNetwork network = new NeuralNetwork(NetworkConstants.NEURONS_PER_LAYER);
+        float before = network.meanSqError(set);
+        TrainNetwork.train(set, 50, network);
+
+        assertTrue(network.meanSqError(set) < before);
+    }
+
+    /**
+     * Tests that training in mini-batches, where the weights are only
+     * updated once per batch, still reduces the mean square error.
+     */
+    @Test
+    public void miniBatchTrainingReducesErrorTest() {
+
+        NetworkData set = thresholdSet(40);
+
+        NeuralNetwork network = new NeuralNetwork(NetworkConstants.NEURONS_PER_LAYER);
+        float before = network.meanSqError(set);
+        TrainNetwork.train(set, 100, 8, network);
+
+        assertTrue(network.meanSqError(set) < before);
+    }
+
+    /**
+     * Tests that training with the batches split across several
+     * workers reduces the mean square error.
+     */
+    @Test
+    public void parallelTrainingReducesErrorTest() {
+
+        NetworkData set = thresholdSet(64);
+
+        NeuralNetwork network = new NeuralNetwork(NetworkConstants.NEURONS_PER_LAYER);
+        float before = network.meanSqError(set);
+        ParallelTrainNetwork.train(set, 100, 16, 4, network);
+
+        assertTrue(network.meanSqError(set) < before);
+    }
+
+    /**
+     * Tests that predict writes the same output as calculateOutput into
+     * the caller's array, with either a caller-owned or a per-thread
+     * workspace.
+     */
+    @Test
+    public void predictMatchesCalculateOutputTest() {
+
+        NeuralNetwork network = new NeuralNetwork(NetworkConstants.NEURONS_PER_LAYER);
+        float[] input = RandomNumberGenerator.randomArray(NetworkConstants.INPUT_LAYER_SIZE);
+        float[] expected = network.calculateOutput(input).clone();
+
+        NetworkWorkspace ws = network.createWorkspace();
+        float[] actual = new float[NetworkConstants.OUTPUT_LAYER_SIZE];
+        network.predict(input, ws, actual);
+        assertArrayEquals(expected, actual, 0);
+
+        float[] threadActual = new float[NetworkConstants.OUTPUT_LAYER_SIZE];
+        network.predict(input, threadActual);
+        assertArrayEquals(expected, threadActual, 0);
+    }
+
+    /**
+     * Tests that scoring a block of rows at once gives the same outputs
+     * as predicting each row on its own, including the rows left over
+     * after the blocks of four.
+     */
+    @Test
+    public void predictBatchMatchesPredictTest() {
+
+        NeuralNetwork network = new NeuralNetwork(NetworkConstants.NEURONS_PER_LAYER);
+        float[][] inputs = new float[7][];
+        for (int i = 0; i < inputs.length; i++) {
+            inputs[i] = RandomNumberGenerator.randomArray(NetworkConstants.INPUT_LAYER_SIZE);
+        }
+
+        float[][] batch = network.predictBatch(inputs);
+
+        float[] single = new float[NetworkConstants.OUTPUT_LAYER_SIZE];
+        for (int i = 0; i < inputs.length; i++) {
+            network.predict(inputs[i], single);
+            assertArrayEquals(single, batch[i], 1e-6f);
+        }
+    }
+
+    /**
+     * Tests that a network with tanh hidden layers and a softmax output
+     * layer gives outputs that sum to 1, and that training it on a single
+     * row reduces the mean square error.
+     */
+    @Test
+    public void softmaxNetworkTest() {
+
+        NetworkData set = new NetworkData();
+        set.addNetworkData(RandomNumberGenerator.randomArray(NetworkConstants.INPUT_LAYER_SIZE), new float[]{1, 0});
+
+        Activation[] activations = new Activation[NetworkConstants.NUM_LAYERS - 1];
+        Arrays.fill(activations, Activation.TANH);
+        activations[activations.length - 1] = Activation.SOFTMAX;
+        NeuralNetwork network = new NeuralNetwork(NetworkConstants.NEURONS_PER_LAYER, activations);
+
+        float[] output = network.calculateOutput(set.getInput(0));
+        float sum = 0;
+        for (float o : output) {
+            sum += o;
+        }
+        assertEquals(1, sum, 1e-5);
+
+        float before = network.meanSqError(set);
+        TrainNetwork.train(set, 50, network);
+        assertTrue(network.meanSqError(set) < before);
+    }
+
+    /**
+     * Tests that networks of different shapes can be created and
+     * trained side by side, each sized from its own config.
+     */
+    @Test
+    public void configuredTopologyTest() {
+
+        NetworkConfig small = new NetworkConfig(new int[]{2, 3, 1}, 0.5f,
+                new Activation[]{Activation.TANH, Activation.SIGMOID});
+        NetworkConfig wide = new NetworkConfig(new int[]{5, 12, 8, 3});
+
+        NeuralNetwork smallNetwork = new NeuralNetwork(small);
+        NeuralNetwork wideNetwork = new NeuralNetwork(wide);
+        assertEquals(1, smallNetwork.calculateOutput(new float[]{1, 0}).length);
+        assertEquals(3, wideNetwork.calculateOutput(new float[5]).length);
+
+        //OR of the two inputs
+        NetworkData set = new NetworkData(small);
+        set.addNetworkData(new float[]{1, 1}, new float[]{1});
+        set.addNetworkData(new float[]{1, 0}, new float[]{1});
+        set.addNetworkData(new float[]{0, 1}, new float[]{1});
+        set.addNetworkData(new float[]{0, 0}, new float[]{0});
+
+        float before = smallNetwork.meanSqError(set);
+        TrainNetwork.train(set, 200, smallNetwork);
+        assertTrue(smallNetwork.meanSqError(set) < before);
+    }
+
+    /**
+     * Tests that a search trains every configuration of a grid and
+     * returns the results best first.
+     */
+    @Test
+    public void hyperParameterSearchTest() {
+
+        NetworkData trainingSet = thresholdSet(40);
+        NetworkData testSet = thresholdSet(20);
+
+        List<NetworkConfig> configs = HyperParameterSearch.grid(NetworkConstants.INPUT_LAYER_SIZE,
+                NetworkConstants.OUTPUT_LAYER_SIZE, new int[][]{{8}, {10, 7}}, new float[]{0.1f, 0.3f},
+                new Activation[]{Activation.SIGMOID, Activation.TANH});
+        assertEquals(8, configs.size());
+
+        List<HyperParameterSearch.Result> results =
+                new HyperParameterSearch(trainingSet, testSet, 20, 4, 5, 4).run(configs);
+
+        assertEquals(configs.size(), results.size());
+        for (int i = 1; i < results.size(); i++) {
+            assertTrue(results.get(i - 1).getAccuracy() >= results.get(i).getAccuracy());
+        }
+        for (HyperParameterSearch.Result result : results) {
+            assertTrue(result.getEpochsTrained() >= 1 && result.getEpochsTrained() <= 20);
+        }
+    }
+
+    /**
+     * Tests that rows added to a NetworkData are stored one after
+     * another in its blocks as it grows, and that rows outside the
+     * set can't be read.
+     */
+    @Test
+    public void networkDataBlocksTest() {
+
+        NetworkData set = new NetworkData(3, 2, 1);
+        for (int i = 0; i < 10; i++) {
+            set.addNetworkData(new float[]{i, i + 0.1f, i + 0.2f}, new float[]{i, -i});
+        }
+        set.addNetworkData(new float[]{10, 10.1f, 10.2f, 11, 11.1f, 11.2f}, new float[]{10, -10, 11, -11}, 2);
+
+        assertEquals(12, set.getSize());
+        for (int i = 0; i < set.getSize(); i++) {
+            assertEquals(i + 0.1f, set.getInputBlock()[i * 3 + 1], 0);
+            assertEquals(-i, set.getOutputBlock()[i * 2 + 1], 0);
+            assertArrayEquals(new float[]{i, i + 0.1f, i + 0.2f}, set.getInput(i), 0);
+        }
+        assertEquals(12, set.getInputArray().length);
+
+        //views and offsets read the stored row itself, not a copy
+        FloatBuffer view = set.getInputView(5);
+        assertEquals(3, view.remaining());
+        assertEquals(5.2f, view.get(2), 0);
+        assertEquals(15, set.getInputOffset(5));
+        assertEquals(-5, set.getOutputBlock()[set.getOutputOffset(5) + 1], 0);
+        set.getInputBlock()[16] = 7;
+        assertEquals(7, view.get(1), 0);
+
+        //rows copied between sets without arrays in between
+        NetworkData copy = new NetworkData(3, 2);
+        copy.addNetworkData(set, 11);
+        assertArrayEquals(set.getInput(11), copy.getInput(0), 0);
+        assertArrayEquals(set.getOutput(11), copy.getOutput(0), 0);
+
+        try {
+            set.getInput(12);
+            fail("reading one past the last row should throw");
+        } catch (IllegalArgumentException e) {
+            //expected
+        }
+    }
+
+    /**
+     * Tests that a set saved to a network data file loads back with the
+     * same rows and column metadata.
+     */
+    @Test
+    public void networkDataFileTest() throws Exception {
+
+        //enough rows that the inputs are read through the buffer more than once
+        NetworkData set = thresholdSet(1100);
+        String[] names = new String[NetworkConstants.INPUT_LAYER_SIZE];
+        float[] min = new float[names.length];
+        float[] max = new float[names.length];
+        for (int i = 0; i < names.length; i++) {
+            names[i] = "col" + i;
+            max[i] = i + 1;
+        }
+
+        File file = File.createTempFile("network_data", ".nnds");
+        file.deleteOnExit();
+        assertTrue(NetworkDataFile.write(set, names, min, max, file.getPath()));
+
+        NetworkData loaded = NetworkDataFile.read(file.getPath());
+        assertEquals(set.getSize(), loaded.getSize());
+        for (int i = 0; i < set.getSize(); i++) {
+            assertArrayEquals(set.getInput(i), loaded.getInput(i), 0);
+            assertArrayEquals(set.getOutput(i), loaded.getOutput(i), 0);
+        }
+
+        NetworkDataFile.Header header = NetworkDataFile.readHeader(file.getPath());
+        assertEquals("col15", header.getColumnNames()[15]);
+        assertArrayEquals(max, header.getColumnMax(), 0);
+
+        //a corrupt (negative) row count is reported as a bad file, not thrown
+        try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+            raf.seek(8);
+            raf.writeInt(-1);
+        }
+        assertNull(NetworkDataFile.read(file.getPath()));
+        assertNull(NetworkDataFile.readHeader(file.getPath()));
+
+        //as is a data offset past the end of the file
+        try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+            raf.seek(8);
+            raf.writeInt(Integer.reverseBytes(set.getSize()));
+            raf.seek(20);
+            raf.writeInt(Integer.MAX_VALUE);
+        }
+        assertNull(NetworkDataFile.readHeader(file.getPath()));
+    }
+
+    /**
+     * Tests that streaming a saved set in chunks reads back every row
+     * in order, and that training from the stream reduces the error.
+     */
+    @Test
+    public void streamingTrainingTest() throws Exception {
+
+        NetworkData set = thresholdSet(40);
+        File file = File.createTempFile("network_data", ".nnds");
+        file.deleteOnExit();
+        assertTrue(NetworkDataFile.write(set, file.getPath()));
+
+        NeuralNetwork network = new NeuralNetwork(NetworkConstants.NEURONS_PER_LAYER);
+        float before = network.meanSqError(set);
+
+        try (FileNetworkDataSource source = new FileNetworkDataSource(file.getPath(), 16)) {
+            //chunks of 16, 16 and 8 rows
+            NetworkData chunk = new NetworkData();
+            source.reset();
+            int row = 0;
+            while (source.nextChunk(chunk)) {
+                for (int i = 0; i < chunk.getSize(); i++, row++) {
+                    assertArrayEquals(set.getInput(row), chunk.getInput(i), 0);
+                    assertArrayEquals(set.getOutput(row), chunk.getOutput(i), 0);
+                }
+            }
+            assertEquals(set.getSize(), row);
+
+            TrainNetwork.train(source, 100, 8, network);
+        }
+        assertTrue(network.meanSqError(set) < before);
+    }
+
+    /**
+     * Tests that a mapped file gives the same rows as the set it was
+     * saved from, both through its views and chunk by chunk, and can
+     * be trained from.
+     */
+    @Test
+    public void mappedTrainingTest() throws Exception {
+
+        NetworkData set = thresholdSet(40);
+        File file = File.createTempFile("network_data", ".nnds");
+        file.deleteOnExit();
+        assertTrue(NetworkDataFile.write(set, file.getPath()));
+
+        NeuralNetwork network = new NeuralNetwork(NetworkConstants.NEURONS_PER_LAYER);
+        float before = network.meanSqError(set);
+
+        try (MappedNetworkDataSource source = new MappedNetworkDataSource(file.getPath(), 16)) {
+            FloatBuffer inputs = source.getInputs();
+            assertTrue(inputs.isReadOnly());
+            assertEquals(set.getSize() * set.getInputSize(), inputs.remaining());
+            assertEquals(set.getInput(39)[3], inputs.get(39 * set.getInputSize() + 3), 0);
+
+            //chunks of 16, 16 and 8 rows
+            NetworkData chunk = new NetworkData();
+            source.reset();
+            int row = 0;
+            while (source.nextChunk(chunk)) {
+                for (int i = 0; i < chunk.getSize(); i++, row++) {
+                    assertArrayEquals(set.getInput(row), chunk.getInput(i), 0);
+                    assertArrayEquals(set.getOutput(row), chunk.getOutput(i), 0);
+                }
+            }
+            assertEquals(set.getSize(), row);
+
+            TrainNetwork.train(source, 100, 8, network);
+        }
+        assertTrue(network.meanSqError(set) < before);
+    }
+
+    /**
+     * Tests that the CSV pipeline cleans, encodes and scales the rows of
+     * each year's file and splits them into the training and test sets.
+     */
+    @Test
+    public void csvPipelineTest() throws Exception {
+
+        File dir = Files.createTempDirectory("csv_pipeline").toFile();
+        dir.deleteOnExit();
+        String headings = String.join(",", CSVPipeline.KEPT_COLUMNS);
+
+        //kept (better rank won), ranked below 50, blank hand, kept (worse rank won)
+        writeLines(new File(dir, "atp_matches_2015.csv"), headings,
+                "Wimbledon,Grass,128,G,1,1,R,188,SUI,3,2,,L,185,ESP,10,5,R32,2015",
+                "Wimbledon,Grass,128,G,1,1,R,188,SUI,60,2,,L,185,ESP,10,5,R32,2015",
+                "Wimbledon,Grass,128,G,1,1,,188,SUI,3,2,,L,185,ESP,10,5,R32,2015",
+                "Queen's Club,Grass,32,A,3,,R,200,USA,20,4,5,R,170,GBR,8,3,F,2015");
+        writeLines(new File(dir, "atp_matches_2017.csv"), headings,
+                "Wimbledon,Grass,128,G,1,2,R,188,SUI,5,2,3,L,185,ESP,4,5,R32,2017");
+
+        CSVPipeline pipeline = new CSVPipeline(dir.getPath() + File.separator);
+        assertTrue(pipeline.run(new int[]{2015, 2017}));
+
+        NetworkData training = pipeline.getTrainingSet();
+        NetworkData test = pipeline.getTestSet();
+        assertEquals(2, training.getSize());
+        assertEquals(1, test.getSize());
+
+        assertArrayEquals(new float[]{1, 0}, training.getOutput(0), 0);
+        assertArrayEquals(new float[]{0, 1}, training.getOutput(1), 0);
+        assertArrayEquals(new float[]{0, 1}, test.getOutput(0), 0);
+
+        //ranks 3 to 20 across winners and losers, the unseeded loser is given seed 40
+        assertEquals(0f, training.getInput(0)[8], 0);
+        assertEquals(1f, training.getInput(1)[8], 0);
+        assertEquals(1f, training.getInput(0)[9], 0);
+        assertEquals(3f, pipeline.getColumnMin()[8], 0);
+        assertEquals(20f, pipeline.getColumnMax()[13], 0);
+        assertTrue(Float.isNaN(pipeline.getColumnMin()[1]));
+
+        //the same tournament gets the same value in both sets
+        assertEquals(training.getInput(0)[0], test.getInput(0)[0], 0);
+    }
+
+    /**
+     * Helper method which writes lines to a file, deleted on exit.
+     */
+    private static void writeLines(File file, String... lines) throws Exception {
+
+        file.deleteOnExit();
+        try (FileWriter writer = new FileWriter(file)) {
+            writer.write(String.join("\n", lines) + "\n");
+        }
+    }
+
+    /**
+     * Tests that a dictionary gives every distinct value its own float,
+     * and that a new dictionary gives the same value the same float.
+     */
+    @Test
+    public void categoryDictionaryTest() {
+
+        CategoryDictionary first = new CategoryDictionary("tourney_name");
+        CategoryDictionary second = new CategoryDictionary("tourney_name");
+        Set<Float> encoded = new HashSet<>();
+
+        for (int i = 0; i < 5000; i++) {
+            float value = first.encode("tournament " + i);
+            assertTrue(value >= 0 && value < 1);
+            encoded.add(value);
+        }
+        //every value has its own float
+        assertEquals(5000, encoded.size());
+
+        //and is given the same float again by a new dictionary
+        for (int i = 0; i < 5000; i++) {
+            assertEquals(first.lookup("tournament " + i), second.encode("tournament " + i), 0);
+        }
+        assertEquals(null, first.lookup("unknown"));
+    }
+
+    /**
+     * Tests that new rows are encoded with the saved dictionaries and
+     * ranges, and can be appended to an existing data file.
+     */
+    @Test
+    public void incrementalIngestTest() throws Exception {
+
+        File csv = File.createTempFile("atp_matches_new", ".csv");
+        writeLines(csv, String.join(",", CSVPipeline.KEPT_COLUMNS),
+                "Wimbledon,Grass,128,G,1,1,R,188,SUI,3,2,,L,185,ESP,10,5,R32,2019",
+                "Halle,Grass,32,A,3,,R,200,USA,20,4,5,R,170,GBR,8,3,F,2019");
+
+        //a pipeline given the dictionaries and ranges saved by an earlier run
+        CSVPipeline pipeline = new CSVPipeline();
+        CategoryDictionary tourneys = new CategoryDictionary("tourney_name");
+        float wimbledon = tourneys.encode("Wimbledon");
+        pipeline.setDictionary("tourney_name", tourneys);
+        pipeline.setRange("draw_size", 0, 128);
+        pipeline.setRange("best_of", 3, 5);
+        pipeline.setRange("rank", 0, 100);
+        pipeline.setRange("seed", 0, 40);
+        pipeline.setRange("ht", 150, 250);
+
+        List<String[]> rows = new ArrayList<>();
+        assertEquals(2, pipeline.readCSVFile(csv.getPath(), rows));
+        pipeline.addToDictionaries(rows);
+        NetworkData added = pipeline.encodeRows(rows);
+
+        //old values keep their encoding, new ones are added, numbers use the saved ranges
+        assertEquals(wimbledon, added.getInput(0)[0], 0);
+        assertEquals(2, tourneys.getSize());
+        assertEquals(0.03f, added.getInput(0)[8], 1e-6);
+        assertEquals(0.2f, added.getInput(1)[8], 1e-6);
+
+        File file = File.createTempFile("network_data", ".nnds");
+        file.deleteOnExit();
+        NetworkData existing = new NetworkData(added.getInputSize(), added.getOutputSize());
+        existing.addNetworkData(added.getInput(1), added.getOutput(1));
+        String[] names = CreateNetworkData.INPUT_COLUMNS;
+        float[] min = new float[names.length];
+        float[] max = new float[names.length];
+        Arrays.fill(max, 1);
+        assertTrue(NetworkDataFile.write(existing, names, min, max, file.getPath()));
+
+        assertTrue(NetworkDataFile.append(added, file.getPath()));
+        NetworkData loaded = NetworkDataFile.read(file.getPath());
+        assertEquals(3, loaded.getSize());
+        assertArrayEquals(added.getInput(0), loaded.getInput(1), 0);
+        assertArrayEquals(added.getOutput(1), loaded.getOutput(2), 0);
+        assertEquals(Arrays.asList(names), Arrays.asList(NetworkDataFile.readHeader(file.getPath()).getColumnNames()));
+    }
+
+    /**
+     * Tests that fine-tuning learns the new rows without forgetting the
+     * replayed ones, saves each update as a new version and carries on
+     * from the latest version.
+     */
+    @Test
+    public void fineTuneTest() throws Exception {
+
+        //a network trained on AND is updated to OR, replaying the rows the two share
+        float[][] input = {{1, 1}, {1, 0}, {0, 1}, {0, 0}};
+        NetworkData and = new NetworkData(2, 1);
+        for (int i = 0; i < input.length; i++) {
+            and.addNetworkData(input[i], new float[]{i == 0 ? 1 : 0});
+        }
+        NetworkData history = new NetworkData(2, 1);
+        history.addNetworkData(input[0], new float[]{1});
+        history.addNetworkData(input[3], new float[]{0});
+        NetworkData newRows = new NetworkData(2, 1);
+        newRows.addNetworkData(input[1], new float[]{1});
+        newRows.addNetworkData(input[2], new float[]{1});
+
+        NeuralNetwork network = new NeuralNetwork(new NetworkConfig(new int[]{2, 2, 1}, 0.5f,
+                new Activation[]{Activation.SIGMOID, Activation.SIGMOID}));
+        TrainNetwork.train(and, 3000, network);
+        assertTrue(network.calculateOutput(input[1])[0] < 0.5f);
+
+        File file = File.createTempFile("ANN", ".txt");
+        file.deleteOnExit();
+        network.saveANN(file.getPath(), network);
+
+        String version = TrainNetwork.fineTune(file.getPath(), newRows, history, 2, 2000, 1, 7);
+        new File(version).deleteOnExit();
+        assertEquals(file.getPath().replace(".txt", "-v2.txt"), version);
+
+        NeuralNetwork updated = NeuralNetwork.loadANN(version);
+        assertTrue(updated.calculateOutput(input[1])[0] > 0.5f);
+        assertTrue(updated.calculateOutput(input[0])[0] > 0.5f);
+        assertTrue(updated.calculateOutput(input[3])[0] < 0.5f);
+        //the loaded version is left as it was
+        assertTrue(NeuralNetwork.loadANN(file.getPath()).calculateOutput(input[1])[0] < 0.5f);
+
+        //the next update, given the same file, carries on from v2 rather than starting again from v1
+        assertEquals(version, NeuralNetwork.latestVersion(file.getPath()));
+        String next = TrainNetwork.fineTune(file.getPath(), newRows, history, 2, 10, 1, 8);
+        new File(next).deleteOnExit();
+        assertEquals(file.getPath().replace(".txt", "-v3.txt"), next);
+        TrainNetwork.fineTune(updated, newRows, history, 2, 10, 1, 8);
+        assertArrayEquals(updated.calculateOutput(input[1]), NeuralNetwork.loadANN(next).calculateOutput(input[1]), 0);
+
+        try {
+            TrainNetwork.fineTune(updated, newRows, history, 3, 1, 1, 7);
+            fail("replaying more rows than the history holds should throw");
+        } catch (IllegalArgumentException e) {
+            //expected
+        }
+    }
+
+    /**
+     * Tests that a network saved in the binary model format loads with
+     * the same configuration and outputs, and that other serialized
+     * files are rejected.
+     */
+    @Test
+    public void networkModelFileTest() throws Exception {
+
+        //a coarse lookup table, so the outputs only match if the mode is saved with the network
+        NeuralNetwork network = new NeuralNetwork(new NetworkConfig(new int[]{4, 6, 3, 2}, 0.2f,
+                new Activation[]{Activation.SIGMOID, Activation.TANH, Activation.SOFTMAX},
+                ActivationFunction.SigmoidMode.LOOKUP, 0.05f));
+        float[] input = {0.1f, 0.9f, 0.4f, 0.7f};
+
+        File file = File.createTempFile("ANN", ".txt");
+        file.deleteOnExit();
+        network.saveANN(file.getPath(), network);
+        assertFalse(NetworkModelFile.isSerialized(file.getPath()));
+
+        //header padded to 128 bytes, then the biases and weights of every layer
+        assertEquals(128 + (4 + 6 + 3 + 2 + 4 * 6 + 6 * 3 + 3 * 2) * Float.BYTES, file.length());
+
+        NeuralNetwork loaded = NeuralNetwork.loadANN(file.getPath());
+        assertArrayEquals(network.calculateOutput(input), loaded.calculateOutput(input), 0);
+        assertEquals(network.getConfig().toString(), loaded.getConfig().toString());
+        assertEquals(ActivationFunction.SigmoidMode.LOOKUP, loaded.getConfig().getSigmoidMode());
+
+        //a file serialized by anything other than the original saveANN is rejected
+        File serialized = File.createTempFile("ANN", ".txt");
+        serialized.deleteOnExit();
+        try (ObjectOutputStream os = new ObjectOutputStream(new FileOutputStream(serialized))) {
+            os.writeObject(network.getConfig().getNeuronsPerLayer());
+        }
+        assertTrue(NetworkModelFile.isSerialized(serialized.getPath()));
+        assertNull(NeuralNetwork.loadANN(serialized.getPath()));
+    }
+
+    /**
+     * Tests that a network saved by the original saveANN (ANN_baseline.txt,
+     * a {16, 10, 7, 2} sigmoid network written with Java serialization)
+     * still loads, and gives the outputs it gave when it was saved.
+     */
+    @Test
+    public void legacyNetworkFileTest() throws Exception {
+
+        File legacy = File.createTempFile("ANN_baseline", ".txt");
+        legacy.deleteOnExit();
+        try (InputStream in = Tests.class.getResourceAsStream("ANN_baseline.txt")) {
+            Files.copy(in, legacy.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        }
+        assertTrue(NetworkModelFile.isSerialized(legacy.getPath()));
+
+        NeuralNetwork network = NeuralNetwork.loadANN(legacy.getPath());
+        assertArrayEquals(new int[]{16, 10, 7, 2}, network.getConfig().getNeuronsPerLayer());
+
+        float[] input = new float[16];
+        for (int i = 0; i < input.length; i++) {
+            input[i] = i / 16f;
+        }
+        //outputs of the original network for this input
+        assertArrayEquals(new float[]{0x1.fdb52cp-1f, 0x1.fac292p-1f}, network.calculateOutput(input), 1e-6f);
+
+        //saving converts it to the new format
+        network.saveANN(legacy.getPath(), network);
+        assertFalse(NetworkModelFile.isSerialized(legacy.getPath()));
+        assertArrayEquals(new float[]{0x1.fdb52cp-1f, 0x1.fac292p-1f},
+                NeuralNetwork.loadANN(legacy.getPath()).calculateOutput(input), 1e-6f);
+    }
+
+    /**
+     * Test that the vector kernels, when they have been compiled and
+     * jdk.incubator.vector is present, give the same dot products and
+     * scaled adds as the scalar kernels, for lengths that do and don't
+     * fill whole vectors and at offsets into the arrays. Skipped when
+     * the vector kernels can't be loaded.
+     */
+    @Test
+    public void vectorKernelsTest() throws Exception {
+
+        Object vector;
+        try {
+            Constructor<?> constructor = Class.forName("Network.VectorKernels").getDeclaredConstructor();
+            constructor.setAccessible(true);
+            vector = constructor.newInstance();
+        } catch (ClassNotFoundException | LinkageError e) {
+            Assume.assumeNoException(e);
+            return;
+        }
+        Constructor<?> scalarConstructor = Class.forName("Network.NetworkKernels$ScalarKernels")
+                .getDeclaredConstructor();
+        scalarConstructor.setAccessible(true);
+        Object scalar = scalarConstructor.newInstance();
+
+        Class<?> kernels = Class.forName("Network.NetworkKernels");
+        Method dot = kernels.getDeclaredMethod("dot", float[].class, int.class, float[].class, int.class, int.class);
+        Method axpy = kernels.getDeclaredMethod("axpy", float.class, float[].class, int.class, float[].class,
+                int.class, int.class);
+        dot.setAccessible(true);
+        axpy.setAccessible(true);
+
+        for (int length : new int[]{0, 1, 3, 7, 8, 16, 17, 33, 100, 257}) {
+            float[] a = RandomNumberGenerator.randomArray(length + 5);
+            float[] b = RandomNumberGenerator.randomArray(length + 3);
+
+            float expected = (float) dot.invoke(scalar, a, 5, b, 3, length);
+            float actual = (float) dot.invoke(vector, a, 5, b, 3, length);
+            //the sums are added in a different order, so allow for rounding
+            assertEquals("dot of length " + length, expected, actual, 1e-5f * (length + 1));
+
+            float[] expectedY = b.clone();
+            float[] actualY = b.clone();
+            axpy.invoke(scalar, 0.37f, a, 5, expectedY, 3, length);
+            axpy.invoke(vector, 0.37f, a, 5, actualY, 3, length);
+            assertArrayEquals("axpy of length " + length, expectedY, actualY, 1e-6f);
+        }
+    }
+
+    /**
+     * Test that the pool hands out at most its size of connections,
+     * times out waiting for another, reuses a closed connection
+     * (rolled back, with auto-commit back on and its statements closed)
+     * and only returns it once however often it is closed.
+     */
+    @Test
+    public void pooledDataSourceTest() throws Exception {
+
+        FakeDriver driver = new FakeDriver("jdbc:fake:pool");
+        DriverManager.registerDriver(driver);
+        try {
+            PooledDataSource pool = new PooledDataSource("jdbc:fake:pool", new Properties(), 2, 50, 60000, 1);
+
+            Connection first = pool.getConnection();
+            Connection second = pool.getConnection();
+            assertEquals(2, driver.opened.size());
+            assertTimesOut(pool);
+
+            //left mid transaction with a statement open
+            first.setAutoCommit(false);
+            first.createStatement();
+            first.close();
+            FakeConnection physical = driver.opened.get(0);
+            assertEquals(1, physical.rollbacks);
+            assertTrue(physical.autoCommit);
+            assertEquals(0, physical.openStatements);
+            assertFalse(physical.closed);
+            assertTrue(first.isClosed());
+            try {
+                first.createStatement();
+                fail("using a connection after it has been returned should throw");
+            } catch (SQLException e) {
+                //expected
+            }
+
+            //closing again doesn't return it twice, so only one more connection is free
+            first.close();
+            Connection third = pool.getConnection();
+            assertEquals(2, driver.opened.size());
+            assertTrue(third.getAutoCommit());
+            assertTimesOut(pool);
+
+            //once the pool is closed, idle and returned connections are closed rather than reused
+            third.close();
+            pool.close();
+            assertTrue(physical.closed);
+            second.close();
+            assertTrue(driver.opened.get(1).closed);
+            try {
+                pool.getConnection();
+                fail("a closed pool should not hand out connections");
+            } catch (SQLException e) {
+                //expected
+            }
+        } finally {
+            DriverManager.deregisterDriver(driver);
+        }
+    }
+
+    /**
+     * Test that a connection idle longer than the validation age is
+     * checked before it is handed out again, and replaced if the check
+     * fails.
+     */
+    @Test
+    public void pooledDataSourceStaleTest() throws Exception {
+
+        FakeDriver driver = new FakeDriver("jdbc:fake:stale");
+        DriverManager.registerDriver(driver);
+        try {
+            PooledDataSource pool = new PooledDataSource("jdbc:fake:stale", new Properties(), 1, 50, 0, 1);
+
+            pool.getConnection().close();
+            Thread.sleep(5);
+            pool.getConnection().close();
+            assertEquals("a valid idle connection is reused", 1, driver.opened.size());
+
+            driver.opened.get(0).valid = false; //dropped by the server while idle
+            Thread.sleep(5);
+            Connection connection = pool.getConnection();
+            assertEquals(2, driver.opened.size());
+            assertTrue(driver.opened.get(0).closed);
+            assertFalse(connection.isClosed());
+            connection.close();
+            pool.close();
+        } finally {
+            DriverManager.deregisterDriver(driver);
+        }
+    }
+
+    /**
+     * Test that no connection is attempted with a password built into
+     * the code when none has been configured.
+     */
+    @Test
+    public void connectDBNeedsPasswordTest() {
+
+        Assume.assumeTrue(System.getenv("DB_PASSWORD") == null);
+        ConnectDB.closePool();
+        System.setProperty("db.config", "no_such_db.properties");
+        try {
+            ConnectDB.getDataSource();
+            fail("a pool should not be created without a password");
+        } catch (IllegalStateException e) {
+            assertTrue(e.getMessage().contains("db.password"));
+        } finally {
+            System.clearProperty("db.config");
+        }
+    }
+
+    /**
+     * Test that a results file with bytes that aren't valid UTF-8, as in
+     * 2009's "Vina del Mar" rows, is read with them replaced and still
+     * loads.
+     */
+    @Test
+    public void readFilesInvalidUTF8Test() throws Exception {
+
+        Path directory = Files.createTempDirectory("results");
+        byte[] badName = {'V', 'i', (byte) 0xED, (byte) 0xB1, 'a', ' ', 'd', 'e', 'l', ' ', 'M', 'a', 'r'};
+        File file = writeResultsFile(directory, 2009, 3, badName);
+
+        StringBuilder text = new StringBuilder();
+        try (Reader reader = ReadFiles.openCSV(file.getPath())) {
+            int c;
+            while ((c = reader.read()) != -1) {
+                text.append((char) c);
+            }
+        }
+        assertTrue(text.indexOf("Vi\uFFFD") >= 0);
+        assertTrue(text.indexOf("a del Mar") >= 0);
+
+        FakeDriver driver = fakeDatabase("jdbc:fake:utf8");
+        try {
+            ReadFiles readFiles = new ReadFiles(directory.toString(), ReadFiles.LoadMode.INSERT, 1000, 1);
+            assertEquals(3, readFiles.readCSVTraining(new int[]{2009}));
+            assertTrue(readFiles.getFailedYears().isEmpty());
+            FakeConnection connection = driver.opened.get(0);
+            assertEquals(1, connection.commits);
+            assertTrue(connection.values.get(0).startsWith("Vi\uFFFD"));
+        } finally {
+            closeFakeDatabase(driver);
+        }
+    }
+
+    /**
+     * Test that loading a file with INSERT sends the last, partly filled
+     * batch, commits the file once, and rolls the whole file back if a
+     * batch fails.
+     */
+    @Test
+    public void readFilesBatchTest() throws Exception {
+
+        Path directory = Files.createTempDirectory("results");
+        writeResultsFile(directory, 2010, 25, "Doha".getBytes(StandardCharsets.UTF_8));
+
+        FakeDriver driver = fakeDatabase("jdbc:fake:batch");
+        try {
+            //batches of 10, 10 and the last 5
+            ReadFiles readFiles = new ReadFiles(directory.toString(), ReadFiles.LoadMode.INSERT, 10, 1);
+            assertEquals(25, readFiles.readCSVTraining(new int[]{2010}));
+            FakeConnection connection = driver.opened.get(0);
+            assertEquals(3, connection.executedBatches);
+            assertEquals(25 * 50, connection.values.size());
+            assertEquals(1, connection.commits);
+            int rollbacks = connection.rollbacks; //the pool's rollback on return, nothing left to undo
+
+            //the file's own rollback, then the pool's
+            connection.failBatches = true;
+            assertEquals(0, readFiles.readCSVTraining(new int[]{2010}));
+            assertEquals(Arrays.asList(2010), readFiles.getFailedYears());
+            assertEquals(1, connection.commits);
+            assertEquals(rollbacks + 2, connection.rollbacks);
+        } finally {
+            closeFakeDatabase(driver);
+        }
+    }
+
+    /**
+     * Test that each stage is committed with its record or not at all:
+     * steps share one connection whose close and commit do nothing, a
+     * failed statement a step only prints still rolls the stage back,
+     * a stage that manages its own connections is recorded, and the
+     * next run resumes from the stage that failed.
+     */
+    @Test
+    public void pipelineRunnerTest() throws Exception {
+
+        FakeDriver driver = fakeDatabase("jdbc:fake:pipeline");
+        try {
+            int[] runs = new int[4];
+            PipelineRunner runner = new PipelineRunner();
+            runner.addNonTransactionalStage("load", () -> runs[0]++);
+            runner.addStage("first", () -> {
+                runs[1]++;
+                Connection conn = ConnectDB.connect();
+                insert(conn, "first");
+                conn.commit();
+                conn.setAutoCommit(true);
+                conn.close();
+                //still the stage's connection, so nothing has been committed yet
+                assertFalse(ConnectDB.connect().isClosed());
+                assertTrue(driver.rows("results").isEmpty());
+            });
+            runner.addStage("second", () -> {
+                runs[2]++;
+                try (Connection conn = ConnectDB.connect()) {
+                    insert(conn, "second");
+                    try (PreparedStatement pstmt = conn.prepareStatement("UPDATE missing_table SET x = 1;")) {
+                        pstmt.executeUpdate();
+                    } catch (SQLException e) {
+                        System.err.println("step only prints: " + e);
+                    }
+                }
+            });
+            runner.addStage("third", () -> runs[3]++);
+
+            driver.failOn = "missing_table";
+            assertFalse(runner.run());
+            assertArrayEquals(new int[]{1, 1, 1, 0}, runs);
+            assertEquals(Arrays.asList("first"), driver.rows("results"));
+            assertEquals(Arrays.asList("load", "first"), driver.rows("pipeline_stages"));
+
+            //resumes from the stage that failed, without running the completed ones again
+            driver.failOn = null;
+            assertTrue(runner.run());
+            assertArrayEquals(new int[]{1, 1, 2, 1}, runs);
+            assertEquals(Arrays.asList("first", "second"), driver.rows("results"));
+            assertEquals(Arrays.asList("load", "first", "second", "third"), driver.rows("pipeline_stages"));
+        } finally {
+            closeFakeDatabase(driver);
+        }
+    }
+
+    /**
+     * Test that a step asking to roll back fails its stage, so none of
+     * the stage's changes are kept and it isn't recorded.
+     */
+    @Test
+    public void pipelineRunnerRollbackTest() throws Exception {
+
+        FakeDriver driver = fakeDatabase("jdbc:fake:rollback");
+        try {
+            PipelineRunner runner = new PipelineRunner();
+            runner.addStage("first", () -> {
+                try (Connection conn = ConnectDB.connect()) {
+                    insert(conn, "first");
+                    conn.rollback();
+                    insert(conn, "after rollback");
+                }
+            });
+
+            assertFalse(runner.run());
+            assertTrue(driver.rows("results").isEmpty());
+            assertTrue(driver.rows("pipeline_stages").isEmpty());
+        } finally {
+            closeFakeDatabase(driver);
+        }
+    }
+
+    /**
+     * Helper method which inserts a value into the results table.
+     */
+    private static void insert(Connection conn, String value) throws SQLException {
+
+        try (PreparedStatement pstmt = conn.prepareStatement("INSERT INTO results (name) VALUES (?);")) {
+            pstmt.setString(1, value);
+            pstmt.executeUpdate();
+        }
+    }
+
+    /**
+     * Helper method which writes atp_matches_(year).csv, a line of
+     * headings and then rows of 50 columns, the first holding the given
+     * bytes and the rest numbers.
+     */
+    private static File writeResultsFile(Path directory, int year, int rows, byte[] firstColumn) throws Exception {
+
+        File file = directory.resolve("atp_matches_" + year + ".csv").toFile();
+        file.deleteOnExit();
+        try (OutputStream out = new FileOutputStream(file)) {
+            StringBuilder headings = new StringBuilder("col0");
+            for (int col = 1; col < 50; col++) {
+                headings.append(",col").append(col);
+            }
+            out.write((headings + "\n").getBytes(StandardCharsets.UTF_8));
+            for (int row = 0; row < rows; row++) {
+                out.write(firstColumn);
+                StringBuilder rest = new StringBuilder();
+                for (int col = 1; col < 50; col++) {
+                    rest.append(',').append(row * 50 + col);
+                }
+                out.write((rest + "\n").getBytes(StandardCharsets.UTF_8));
+            }
+        }
+        return file;
+    }
+
+    /**
+     * Helper method which registers a FakeDriver and points ConnectDB at
+     * it, so code that connects through ConnectDB can be tested without a
+     * database.
+     */
+    private static FakeDriver fakeDatabase(String url) throws SQLException {
+
+        FakeDriver driver = new FakeDriver(url);
+        DriverManager.registerDriver(driver);
+        ConnectDB.closePool();
+        System.setProperty("db.url", url);
+        System.setProperty("db.password", "test");
+        return driver;
+    }
+
+    /**
+     * Helper method which undoes fakeDatabase.
+     */
+    private static void closeFakeDatabase(FakeDriver driver) throws SQLException {
+
+        ConnectDB.closePool();
+        System.clearProperty("db.url");
+        System.clearProperty("db.password");
+        DriverManager.deregisterDriver(driver);
+    }
+
+    /**
+     * Helper method which checks that the pool has no free connection.
+     */
+    private static void assertTimesOut(PooledDataSource pool) {
+
+        try {
+            pool.getConnection();
+            fail("the pool should have no free connection");
+        } catch (SQLException e) {
+            assertTrue(e.getMessage().startsWith("timed out"));
+        }
+    }
+
+    /**
+     * Driver for one url which hands out connections that only record
+     * what is done to them, so the pool can be tested without a database.
+     */
+    private static class FakeDriver implements Driver {
+
+        private final String url;
+        private final List<FakeConnection> opened = new ArrayList<>();
+        //updates committed through any connection, each as its SQL followed by its string values
+        private final List<List<String>> committed = new ArrayList<>();
+        private String failOn = null; //statements whose SQL contains this fail
+
+
+        private FakeDriver(String url) {
+            this.url = url;
+        }
+
+        @Override
+        public Connection connect(String url, Properties info) {
+            if (!acceptsURL(url)) {
+                return null;
+            }
+            FakeConnection connection = new FakeConnection(this);
+            opened.add(connection);
+            return connection.proxy;
+        }
+
+        @Override
+        public boolean acceptsURL(String url) {
+            return this.url.equals(url);
+        }
+
+        @Override
+        public DriverPropertyInfo[] getPropertyInfo(String url, Properties info) {
+            return new DriverPropertyInfo[0];
+        }
+
+        @Override
+        public int getMajorVersion() {
+            return 1;
+        }
+
+        @Override
+        public int getMinorVersion() {
+            return 0;
+        }
+
+        @Override
+        public boolean jdbcCompliant() {
+            return false;
+        }
+
+        @Override
+        public Logger getParentLogger() {
+            return Logger.getGlobal();
+        }
+
+        /**
+         * Method which returns the first value of every committed insert
+         * into a table, which is what a query of the table returns.
+         */
+        private List<String> rows(String table) {
+
+            List<String> rows = new ArrayList<>();
+            for (List<String> update : committed) {
+                if (update.get(0).startsWith("INSERT INTO " + table + " ")) {
+                    rows.add(update.get(1));
+                }
+            }
+            return rows;
+        }
+    }
+
+    /**
+     * The state of a connection handed out by FakeDriver.
+     */
+    private static class FakeConnection {
+
+        private final FakeDriver driver;
+        private final List<List<String>> pending = new ArrayList<>(); //updates not yet committed
+        private boolean closed = false;
+        private boolean autoCommit = true;
+        private boolean valid = true;
+        private int rollbacks = 0;
+        private int commits = 0;
+        private int openStatements = 0;
+        private int executedBatches = 0;
+        private boolean failBatches = false; //executeBatch throws, as if a row was rejected
+        private final List<String> values = new ArrayList<>(); //every value set on a prepared statement
+
+        private final Connection proxy;
+
+        private FakeConnection(FakeDriver driver) {
+            this.driver = driver;
+            this.proxy = connection();
+        }
+
+        /**
+         * Helper method which makes the connection handed out, recording
+         * what is done to it in this object.
+         */
+        private Connection connection() {
+
+            return (Connection) Proxy.newProxyInstance(Connection.class.getClassLoader(),
+                    new Class<?>[]{Connection.class}, (proxy, method, args) -> {
+                        switch (method.getName()) {
+                            case "close":
+                                closed = true;
+                                return null;
+                            case "isClosed":
+                                return closed;
+                            case "isValid":
+                                return valid && !closed;
+                            case "getAutoCommit":
+                                return autoCommit;
+                            case "setAutoCommit":
+                                autoCommit = (Boolean) args[0];
+                                return null;
+                            case "rollback":
+                                rollbacks++;
+                                pending.clear();
+                                return null;
+                            case "commit":
+                                commits++;
+                                driver.committed.addAll(pending);
+                                pending.clear();
+                                return null;
+                            case "clearWarnings":
+                                return null;
+                            case "createStatement":
+                                openStatements++;
+                                return statement(null);
+                            case "prepareStatement":
+                                openStatements++;
+                                return statement((String) args[0]);
+                            case "toString":
+                                return "fake connection";
+                            default:
+                                throw new UnsupportedOperationException(method.getName());
+                        }
+                    });
+        }
+
+        /**
+         * Helper method which makes a prepared statement that records the
+         * values set on it, the batches it runs and its updates, and
+         * counts itself closed once, however often close is called. A
+         * query returns the rows of the table it selects from.
+         */
+        private PreparedStatement statement(String sql) {
+
+            boolean[] statementClosed = {false};
+            int[] batched = {0};
+            List<String> params = new ArrayList<>();
+            return (PreparedStatement) Proxy.newProxyInstance(PreparedStatement.class.getClassLoader(),
+                    new Class<?>[]{PreparedStatement.class}, (proxy, method, args) -> {
+                        switch (method.getName()) {
+                            case "close":
+                                if (!statementClosed[0]) {
+                                    statementClosed[0] = true;
+                                    openStatements--;
+                                }
+                                return null;
+                            case "setString":
+                                values.add((String) args[1]);
+                                params.add((String) args[1]);
+                                return null;
+                            case "executeUpdate":
+                                if (driver.failOn != null && sql.contains(driver.failOn)) {
+                                    throw new SQLException("fake statement failed: " + sql);
+                                }
+                                List<String> update = new ArrayList<>();
+                                update.add(sql);
+                                update.addAll(params);
+                                (autoCommit ? driver.committed : pending).add(update);
+                                return 1;
+                            case "executeQuery":
+                                String table = sql.substring(sql.indexOf(" FROM ") + 6).split("[ ;]")[0];
+                                return resultSet(driver.rows(table));
+                            case "addBatch":
+                                batched[0]++;
+                                return null;
+                            case "executeBatch":
+                                executedBatches++;
+                                if (failBatches) {
+                                    throw new SQLException("fake batch rejected");
+                                }
+                                int[] counts = new int[batched[0]];
+                                batched[0] = 0;
+                                return counts;
+                            default:
+                                return null;
+                        }
+                    });
+        }
+
+        /**
+         * Helper method which makes a result set of one column.
+         */
+        private static ResultSet resultSet(List<String> rows) {
+
+            int[] row = {-1};
+            return (ResultSet) Proxy.newProxyInstance(ResultSet.class.getClassLoader(),
+                    new Class<?>[]{ResultSet.class}, (proxy, method, args) -> {
+                        switch (method.getName()) {
+                            case "next":
+                                return ++row[0] < rows.size();
+                            case "getString":
+                                return rows.get(row[0]);
+                            default:
+                                return null;
+                        }
+                    });
+        }
+    }
 }
@@ -81,16 +81,29 @@ public class NeuralNetworkUtils {
         if (array.length != 2) {
             throw new IllegalArgumentException("input array must contain 2 elements");
         }
+        return compareIndexes(array, 0);
+    }
+
+    /**
+     * Method for finding the index of the highest of the two values
+     * starting at an offset, e.g. one row of a set's output block, so
+     * the row doesn't have to be copied out first.
+     *
+     * @param array the array holding the values
+     * @param offset index of the first value
+     * @return the index of the highest value (0 or 1), -1 if they are the same
+     */
+    public static int compareIndexes(float[] array, int offset) {
 
         int index = 0;
 
-        for (int i = 1; i < array.length; i++) {
+        for (int i = 1; i < 2; i++) {
 
-            if (array[i] > array[index]) {
+            if (array[offset + i] > array[offset + index]) {
                 index = i;
             }
             //if values are the same network has failed to predict
-            else if (array[i] == array[index]) {
+            else if (array[offset + i] == array[offset + index]) {
                 return -1;
             }
         }
@@ -0,0 +1,60 @@
+package Network;
+
+import jdk.incubator.vector.FloatVector;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorSpecies;
+
+/**
+ * Implementation of the network's inner loops using the Java Vector
+ * API, so each instruction works on as many floats as the CPU's
+ * widest vector register holds.
+ *
+ * This class is kept outside of src as it needs JDK 16+ to compile
+ * and run. See NetworkKernels for the command to compile it into the
+ * module's output folder; NetworkKernels picks it up automatically
+ * when it is present and the program is run with
+ * --add-modules jdk.incubator.vector.
+ *
+ * @author Alex Kelly
+ */
+class VectorKernels extends NetworkKernels {
+
+    private static final VectorSpecies<Float> SPECIES = FloatVector.SPECIES_PREFERRED;
+
+    @Override
+    float dot(float[] a, int aOffset, float[] b, int bOffset, int length) {
+
+        FloatVector sum = FloatVector.zero(SPECIES);
+        int i = 0;
+        int bound = SPECIES.loopBound(length);
+        for (; i < bound; i += SPECIES.length()) {
+            FloatVector va = FloatVector.fromArray(SPECIES, a, aOffset + i);
+            FloatVector vb = FloatVector.fromArray(SPECIES, b, bOffset + i);
+            sum = va.fma(vb, sum);
+        }
+        float total = sum.reduceLanes(VectorOperators.ADD);
+        //remaining elements that don't fill a whole vector
+        for (; i < length; i++) {
+            total += a[aOffset + i] * b[bOffset + i];
+        }
+        return total;
+    }
+
+    @Override
+    void axpy(float alpha, float[] x, int xOffset, float[] y, int yOffset, int length) {
+
+        FloatVector va = FloatVector.broadcast(SPECIES, alpha);
+        int i = 0;
+        int bound = SPECIES.loopBound(length);
+        for (; i < bound; i += SPECIES.length()) {
+            FloatVector vx = FloatVector.fromArray(SPECIES, x, xOffset + i);
+            FloatVector vy = FloatVector.fromArray(SPECIES, y, yOffset + i);
+            vx.fma(va, vy).intoArray(y, yOffset + i);
+        }
+        //remaining elements that don't fill a whole vector
+        for (; i < length; i++) {
+            y[yOffset + i] += alpha * x[xOffset + i];
+        }
+    }
+
+}